@@ -0,0 +1,92 @@
+package io.github.xfournet.jconfig;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+import static io.github.xfournet.jconfig.ApplyOptions.applyOptions;
+import static io.github.xfournet.jconfig.JConfigBuilder.jConfigBuilder;
+import static io.github.xfournet.jconfig.TreeGenerator.treeGenerator;
+
+/**
+ * Benchmark the operations of {@link JConfig} end to end on generated trees, see {@link TreeGenerator}, and on their ZIP files.<br>
+ * The apply and merge operations are idempotent, the target directory is reset from the reference tree before each iteration only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JConfigBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int m_fileCount;
+
+    private Path m_workDir;
+    private Path m_referenceDir;
+    private Path m_referenceZip;
+    private Path m_modifiedDir;
+    private Path m_modifiedZip;
+    private Path m_diffFile;
+    private Path m_targetDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        m_workDir = Files.createTempDirectory("jconfig-benchmark");
+        m_referenceDir = m_workDir.resolve("reference");
+        m_referenceZip = m_workDir.resolve("reference.zip");
+        m_modifiedDir = m_workDir.resolve("modified");
+        m_modifiedZip = m_workDir.resolve("modified.zip");
+        m_diffFile = m_workDir.resolve("modified.diff");
+        m_targetDir = m_workDir.resolve("target");
+
+        TreeGenerator treeGenerator = treeGenerator().setFileCount(m_fileCount);
+        treeGenerator.generateReference(m_referenceDir);
+        treeGenerator.generateModified(m_modifiedDir);
+        TreeGenerator.zip(m_referenceDir, m_referenceZip);
+        TreeGenerator.zip(m_modifiedDir, m_modifiedZip);
+        jConfigBuilder().build(m_modifiedDir).diff(m_referenceDir, m_diffFile);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetTarget() throws IOException {
+        TreeGenerator.delete(m_targetDir);
+        TreeGenerator.copy(m_referenceDir, m_targetDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        TreeGenerator.delete(m_workDir);
+    }
+
+    @Benchmark
+    public void diff() {
+        jConfigBuilder().build(m_modifiedDir).diff(m_referenceDir, m_workDir.resolve("diff.out"));
+    }
+
+    @Benchmark
+    public void diffZip() {
+        jConfigBuilder().build(m_modifiedZip).diff(m_referenceZip, m_workDir.resolve("diff-zip.out"));
+    }
+
+    @Benchmark
+    public void apply() {
+        jConfigBuilder().build(m_targetDir).apply(m_diffFile);
+    }
+
+    @Benchmark
+    public void applyToArchive() {
+        jConfigBuilder().build(m_referenceZip).applyToArchive(m_diffFile, m_workDir.resolve("apply.zip"), applyOptions());
+    }
+
+    @Benchmark
+    public void merge() {
+        jConfigBuilder().build(m_targetDir).merge(m_modifiedDir);
+    }
+
+    @Benchmark
+    public void mergeZip() {
+        jConfigBuilder().build(m_targetDir).merge(m_modifiedZip);
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.xfournet.jconfig;
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+import static io.github.xfournet.jconfig.JConfigBuilder.jConfigBuilder;
+import static io.github.xfournet.jconfig.TreeGenerator.treeGenerator;
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * Run the {@link JConfig} operations on large generated trees, see {@link TreeGenerator}, and report their throughput and peak memory.
+ * <p>
+ * Unlike the JMH benchmarks, each operation is run once per tree size: the purpose is to check the scaling limits of the operations on 10k to 1M
+ * files, eg with a given heap size. Usage:
+ * <pre>
+ * java -Xmx2g -cp jconfig-benchmarks/target/benchmarks.jar io.github.xfournet.jconfig.ScaleHarness [options]
+ *   --files 10000,100000,1000000   the file counts of the reference trees
+ *   --depth 3                      the number of directory levels
+ *   --size 2048                    the median file size
+ *   --size-spread 1.0              the standard deviation of the logarithm of the file sizes
+ *   --mix 40,10,40,10              the weights of the properties, jvm.conf, text and binary files
+ *   --change-rate 0.1              the proportion of changed files
+ *   --seed 0                       the seed of the generation
+ *   --operations diff,apply,merge,merge-zip
+ *   --work-dir path                where the trees are generated, a temporary directory by default
+ * </pre>
+ * The peak RSS is read from {@code /proc/self/status} and reset before each operation through {@code /proc/self/clear_refs}, it is only available on
+ * Linux. The peak heap is the sum of the peak usage of the heap memory pools, it's an upper bound of the actual peak.
+ */
+public final class ScaleHarness {
+    private static final String OPTION_PREFIX = "--";
+    private static final List<String> OPERATIONS = Arrays.asList("diff", "apply", "merge", "merge-zip");
+    private static final double MB = 1024.0 * 1024.0;
+
+    private ScaleHarness() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        options.put("files", "10000,100000,1000000");
+        options.put("depth", "3");
+        options.put("size", "2048");
+        options.put("size-spread", "1.0");
+        options.put("mix", "40,10,40,10");
+        options.put("change-rate", "0.1");
+        options.put("seed", "0");
+        options.put("operations", String.join(",", OPERATIONS));
+        parseOptions(args, options);
+
+        List<String> operations = split(options.get("operations"));
+        if (!OPERATIONS.containsAll(operations)) {
+            throw new IllegalArgumentException("Unknown operations: " + operations + ", supported operations: " + OPERATIONS);
+        }
+        List<Integer> mix = split(options.get("mix")).stream().map(Integer::valueOf).collect(Collectors.toList());
+        if (mix.size() != 4) {
+            throw new IllegalArgumentException("Invalid mix: " + options.get("mix"));
+        }
+
+        String workDirOption = options.get("work-dir");
+        Path workDir = workDirOption != null ? Paths.get(workDirOption) : Files.createTempDirectory("jconfig-scale");
+
+        System.out.printf(Locale.ROOT, "%10s %-10s %10s %12s %10s %14s %14s%n", "files", "operation", "time (s)", "files/s", "MB/s", "peak RSS (MB)",
+                          "peak heap (MB)");
+        for (String fileCount : split(options.get("files"))) {
+            TreeGenerator treeGenerator = treeGenerator().
+                    setFileCount(Integer.parseInt(fileCount)).
+                    setDepth(Integer.parseInt(options.get("depth"))).
+                    setFileSize(Integer.parseInt(options.get("size")), Double.parseDouble(options.get("size-spread"))).
+                    setMix(mix.get(0), mix.get(1), mix.get(2), mix.get(3)).
+                    setChangeRate(Double.parseDouble(options.get("change-rate"))).
+                    setSeed(Long.parseLong(options.get("seed")));
+            run(treeGenerator, operations, workDir.resolve(fileCount));
+        }
+
+        if (workDirOption == null) {
+            TreeGenerator.delete(workDir);
+        }
+    }
+
+    private static void run(TreeGenerator treeGenerator, List<String> operations, Path dir) throws IOException {
+        Path referenceDir = dir.resolve("reference");
+        Path modifiedDir = dir.resolve("modified");
+        Path modifiedZip = dir.resolve("modified.zip");
+        Path diffFile = dir.resolve("modified.diff");
+        Path targetDir = dir.resolve("target");
+        int fileCount = treeGenerator.getFileCount();
+
+        TreeGenerator.delete(dir);
+        long referenceSize = treeGenerator.generateReference(referenceDir);
+        long modifiedSize = treeGenerator.generateModified(modifiedDir);
+
+        // the diff file is needed by the apply, it's generated even if the diff is not measured
+        Runnable diff = () -> jConfigBuilder().build(modifiedDir).diff(referenceDir, diffFile);
+        if (operations.contains("diff")) {
+            measure(fileCount, "diff", referenceSize + modifiedSize, diff);
+        } else if (operations.contains("apply")) {
+            diff.run();
+        }
+
+        if (operations.contains("apply")) {
+            TreeGenerator.copy(referenceDir, targetDir);
+            measure(fileCount, "apply", Files.size(diffFile), () -> jConfigBuilder().build(targetDir).apply(diffFile));
+            TreeGenerator.delete(targetDir);
+        }
+
+        if (operations.contains("merge")) {
+            TreeGenerator.copy(referenceDir, targetDir);
+            measure(fileCount, "merge", modifiedSize, () -> jConfigBuilder().build(targetDir).merge(modifiedDir));
+            TreeGenerator.delete(targetDir);
+        }
+
+        if (operations.contains("merge-zip")) {
+            TreeGenerator.zip(modifiedDir, modifiedZip);
+            TreeGenerator.copy(referenceDir, targetDir);
+            measure(fileCount, "merge-zip", Files.size(modifiedZip), () -> jConfigBuilder().build(targetDir).merge(modifiedZip));
+            TreeGenerator.delete(targetDir);
+        }
+
+        TreeGenerator.delete(dir);
+    }
+
+    /**
+     * Run an operation and print its measures.
+     *
+     * @param processedSize the size of the processed data, eg the size of the compared trees for a diff
+     */
+    private static void measure(int fileCount, String operation, long processedSize, Runnable runnable) {
+        System.gc();
+        resetPeakRss();
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream().
+                filter(pool -> pool.getType() == MemoryType.HEAP).
+                collect(Collectors.toList());
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        long start = System.nanoTime();
+        try {
+            runnable.run();
+        } catch (RuntimeException | OutOfMemoryError e) {
+            System.out.printf(Locale.ROOT, "%10d %-10s failed: %s%n", fileCount, operation, e);
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        long peakRss = peakRss();
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        System.out.printf(Locale.ROOT, "%10d %-10s %10.3f %12.0f %10.1f %14s %14.1f%n", fileCount, operation, seconds, fileCount / seconds,
+                          processedSize / MB / seconds, peakRss != -1 ? String.format(Locale.ROOT, "%.1f", peakRss / MB) : "n/a", peakHeap / MB);
+    }
+
+    private static void resetPeakRss() {
+        try {
+            Files.write(Paths.get("/proc/self/clear_refs"), "5".getBytes(US_ASCII), StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            // not supported, the peak RSS is then the peak since the start of the process
+        }
+    }
+
+    /**
+     * @return the peak RSS in bytes, or {@code -1} if it's not available
+     */
+    private static long peakRss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), ISO_8859_1)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            // not available
+        }
+        return -1;
+    }
+
+    private static void parseOptions(String[] args, Map<String, String> options) {
+        for (int i = 0; i < args.length; i += 2) {
+            String name = args[i];
+            if (!name.startsWith(OPTION_PREFIX) || !options.containsKey(name.substring(OPTION_PREFIX.length())) && !"--work-dir".equals(name)) {
+                throw new IllegalArgumentException("Unknown option: " + name);
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value of option: " + name);
+            }
+            options.put(name.substring(OPTION_PREFIX.length()), args[i + 1]);
+        }
+    }
+
+    private static List<String> split(String value) {
+        return Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
+    }
+}
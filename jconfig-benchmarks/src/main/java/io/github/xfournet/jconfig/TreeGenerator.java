@@ -0,0 +1,315 @@
+package io.github.xfournet.jconfig;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Generate synthetic configuration trees: a mix of {@code .properties}, {@code jvm.conf}, text and binary files spread over a directory hierarchy.
+ * <p>
+ * The generation is reproducible: the content of each file only depends on the seed and on the index of the file, so that a reference tree and a
+ * modified tree can be generated independently and always give the same diff. The file sizes follow a log-normal distribution around the median
+ * size. In the modified tree, a file is changed with the probability given by the change rate: most of the changed files are modified, some are
+ * removed, and new files are added in the same proportion.
+ */
+final class TreeGenerator {
+    private static final int FILES_PER_DIRECTORY = 20;
+    private static final int MIN_FILE_SIZE = 64;
+    private static final int PROPERTIES = 0;
+    private static final int JVM_CONF = 1;
+    private static final int TEXT = 2;
+
+    private int m_fileCount = 1000;
+    private int m_depth = 2;
+    private int m_medianFileSize = 2048;
+    private double m_sizeSpread = 1.0;
+    private int[] m_mix = {40, 10, 40, 10};
+    private double m_changeRate = 0.1;
+    private long m_seed;
+
+    private TreeGenerator() {
+    }
+
+    /**
+     * @return a new {@link TreeGenerator} with the default parameters
+     */
+    static TreeGenerator treeGenerator() {
+        return new TreeGenerator();
+    }
+
+    /**
+     * @param fileCount the number of files of the reference tree, 1000 by default
+     */
+    TreeGenerator setFileCount(int fileCount) {
+        if (fileCount < 0) {
+            throw new IllegalArgumentException("Invalid file count: " + fileCount);
+        }
+        m_fileCount = fileCount;
+        return this;
+    }
+
+    int getFileCount() {
+        return m_fileCount;
+    }
+
+    /**
+     * @param depth the number of directory levels, 2 by default. The number of sub-directories per directory is computed so that the leaf
+     * directories contain about {@value #FILES_PER_DIRECTORY} files.
+     */
+    TreeGenerator setDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Invalid depth: " + depth);
+        }
+        m_depth = depth;
+        return this;
+    }
+
+    /**
+     * @param medianFileSize the median size of the files in bytes, 2048 by default
+     * @param sizeSpread the standard deviation of the logarithm of the file sizes, 1.0 by default, 0 for files of the same size
+     */
+    TreeGenerator setFileSize(int medianFileSize, double sizeSpread) {
+        if (medianFileSize < MIN_FILE_SIZE || sizeSpread < 0) {
+            throw new IllegalArgumentException("Invalid file size: " + medianFileSize + ", spread " + sizeSpread);
+        }
+        m_medianFileSize = medianFileSize;
+        m_sizeSpread = sizeSpread;
+        return this;
+    }
+
+    /**
+     * Specify the proportions of the file types, as weights, 40/10/40/10 by default.
+     */
+    TreeGenerator setMix(int properties, int jvmConf, int text, int binary) {
+        if (properties < 0 || jvmConf < 0 || text < 0 || binary < 0 || properties + jvmConf + text + binary == 0) {
+            throw new IllegalArgumentException("Invalid mix: " + properties + "/" + jvmConf + "/" + text + "/" + binary);
+        }
+        m_mix = new int[]{properties, jvmConf, text, binary};
+        return this;
+    }
+
+    /**
+     * @param changeRate the proportion of files that are changed in the modified tree, 0.1 by default
+     */
+    TreeGenerator setChangeRate(double changeRate) {
+        if (changeRate < 0 || changeRate > 1) {
+            throw new IllegalArgumentException("Invalid change rate: " + changeRate);
+        }
+        m_changeRate = changeRate;
+        return this;
+    }
+
+    /**
+     * @param seed the seed of the generation, 0 by default
+     */
+    TreeGenerator setSeed(long seed) {
+        m_seed = seed;
+        return this;
+    }
+
+    /**
+     * Generate the reference tree.
+     *
+     * @return the total size of the generated files
+     */
+    long generateReference(Path root) throws IOException {
+        return generate(root, false);
+    }
+
+    /**
+     * Generate the modified tree, which differs from the reference tree according to the change rate.
+     *
+     * @return the total size of the generated files
+     */
+    long generateModified(Path root) throws IOException {
+        return generate(root, true);
+    }
+
+    private long generate(Path root, boolean modified) throws IOException {
+        int fanOut = fanOut();
+        int addedFileCount = modified ? (int) Math.round(m_fileCount * m_changeRate / 10) : 0;
+        int mixTotal = IntStream.of(m_mix).sum();
+        Set<Path> createdDirs = new HashSet<>();
+
+        long totalSize = 0;
+        for (int index = 0; index < m_fileCount + addedFileCount; index++) {
+            // the same values are drawn for both trees, so that a file has the same type and size in both
+            Random random = new Random(mix(m_seed * 31 + index));
+            boolean changed = random.nextDouble() < m_changeRate && modified && index < m_fileCount;
+            boolean removed = random.nextInt(10) == 0 && changed;
+            int type = type(random.nextInt(mixTotal));
+            int size = size(random);
+            if (removed) {
+                continue;
+            }
+
+            Path dir = directory(root, index, fanOut);
+            Path file;
+            byte[] content;
+            switch (type) {
+                case PROPERTIES:
+                    file = dir.resolve("file" + index + ".properties");
+                    content = properties(index, size, changed, random);
+                    break;
+                case JVM_CONF:
+                    file = dir.resolve("app" + index).resolve("jvm.conf");
+                    content = jvmConf(index, changed);
+                    break;
+                case TEXT:
+                    file = dir.resolve("file" + index + ".txt");
+                    content = text(index, size, changed, random);
+                    break;
+                default:
+                    file = dir.resolve("file" + index + ".bin");
+                    content = binary(size, changed, random);
+                    break;
+            }
+
+            Path parent = file.getParent();
+            if (createdDirs.add(parent)) {
+                Files.createDirectories(parent);
+            }
+            Files.write(file, content);
+            totalSize += content.length;
+        }
+        return totalSize;
+    }
+
+    /**
+     * The first values of {@link Random}s created with close seeds are close too, the seed of each file is scrambled.
+     */
+    private static long mix(long seed) {
+        long mixed = (seed ^ (seed >>> 33)) * 0xff51afd7ed558ccdL;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return mixed ^ (mixed >>> 33);
+    }
+
+    private int fanOut() {
+        if (m_depth == 0) {
+            return 1;
+        }
+        double leafDirectories = Math.max(1.0, (double) m_fileCount / FILES_PER_DIRECTORY);
+        return Math.max(2, (int) Math.ceil(Math.pow(leafDirectories, 1.0 / m_depth)));
+    }
+
+    private Path directory(Path root, int index, int fanOut) {
+        Path dir = root;
+        int leaf = index / FILES_PER_DIRECTORY;
+        for (int level = 0; level < m_depth; level++) {
+            dir = dir.resolve("dir" + leaf % fanOut);
+            leaf /= fanOut;
+        }
+        return dir;
+    }
+
+    private int type(int weight) {
+        int type = 0;
+        int remaining = weight;
+        while (remaining >= m_mix[type]) {
+            remaining -= m_mix[type];
+            type++;
+        }
+        return type;
+    }
+
+    private int size(Random random) {
+        double size = m_medianFileSize * Math.exp(m_sizeSpread * random.nextGaussian());
+        return (int) Math.max(MIN_FILE_SIZE, Math.min(size, 64.0 * m_medianFileSize));
+    }
+
+    private static byte[] properties(int index, int size, boolean changed, Random random) {
+        StringBuilder content = new StringBuilder(size + 64);
+        int key = 0;
+        while (content.length() < size) {
+            boolean changedEntry = changed && random.nextInt(10) == 0;
+            if (key % 10 == 0) {
+                content.append("# section ").append(key / 10).append('\n');
+            }
+            if (!(changedEntry && random.nextBoolean())) {
+                content.append("file").append(index).append(".key").append(key).append('=');
+                content.append(changedEntry ? "changed-value-" : "value-").append(key).append('\n');
+            }
+            key++;
+        }
+        if (changed) {
+            content.append("file").append(index).append(".added=value\n");
+        }
+        return content.toString().getBytes(ISO_8859_1);
+    }
+
+    private static byte[] jvmConf(int index, boolean changed) {
+        String content = (changed ? "-Xmx4g\n" : "-Xmx2g\n") +
+                "-Xms512m\n" +
+                "-XX:+UseG1GC\n" +
+                "-XX:MaxMetaspaceSize=256m\n" +
+                "-Dapplication.id=" + index + "\n" +
+                "-Dfile.encoding=UTF-8\n" +
+                "--add-opens=java.base/java.lang=ALL-UNNAMED\n" +
+                (changed ? "-Dapplication.changed=true\n" : "");
+        return content.getBytes(ISO_8859_1);
+    }
+
+    private static byte[] text(int index, int size, boolean changed, Random random) {
+        StringBuilder content = new StringBuilder(size + 64);
+        int line = 0;
+        while (content.length() < size) {
+            content.append(changed && random.nextInt(20) == 0 ? "changed line " : "line ").append(line).append(" of the text file ").append(index);
+            content.append('\n');
+            line++;
+        }
+        return content.toString().getBytes(ISO_8859_1);
+    }
+
+    private static byte[] binary(int size, boolean changed, Random random) {
+        byte[] content = new byte[size];
+        random.nextBytes(content);
+        if (changed) {
+            content[size / 2] ^= 0xFF;
+        }
+        return content;
+    }
+
+    /**
+     * Write the files of a tree to a ZIP file.
+     */
+    static void zip(Path root, Path zipFile) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(root)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipFile)))) {
+            for (Path file : files) {
+                zipOutputStream.putNextEntry(new ZipEntry(root.relativize(file).toString().replace('\\', '/')));
+                Files.copy(file, zipOutputStream);
+                zipOutputStream.closeEntry();
+            }
+        }
+    }
+
+    static void copy(Path sourceDir, Path targetDir) throws IOException {
+        try (Stream<Path> paths = Files.walk(sourceDir)) {
+            for (Path source : (Iterable<Path>) paths::iterator) {
+                Path target = targetDir.resolve(sourceDir.relativize(source).toString());
+                if (Files.isDirectory(source)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(source, target);
+                }
+            }
+        }
+    }
+
+    static void delete(Path path) throws IOException {
+        if (Files.exists(path)) {
+            try (Stream<Path> paths = Files.walk(path)) {
+                for (Path file : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package io.github.xfournet.jconfig.jvm;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark the parsing of the {@code jvm.conf} lines, which are matched against the pattern of each {@link JvmConfEntryType}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JvmConfContentHandlerBenchmark {
+    private static final String[] LINES = {
+            "-Xmx2g",
+            "-Xms512m",
+            "-Xss1m",
+            "-server",
+            "-ea",
+            "-Dfile.encoding=UTF-8",
+            "-Djava.io.tmpdir=/var/tmp/application",
+            "-Dapplication.debug",
+            "-XX:+UseG1GC",
+            "-XX:-OmitStackTraceInFastThrow",
+            "-XX:MaxMetaspaceSize=256m",
+            "-XX:HeapDumpPath=/var/log/application",
+            "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED",
+            "--add-opens=java.base/java.lang=ALL-UNNAMED",
+            "-javaagent:/opt/application/agent.jar",
+            "-agentlib:jdwp=transport=dt_socket,server=y,suspend=n,address=5005",
+    };
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String line : LINES) {
+            blackhole.consume(JvmConfContentHandler.parse(line));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.xfournet.jconfig.kv;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Benchmark the parsing, writing, diff and merge of {@link KVConf}, on properties-like files of 1k, 100k and 1M keys.<br>
+ * The reference configuration differs from the benchmarked one on 10% of the values, 1% of its keys are removed and 1% are added.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KVConfBenchmark {
+    static final Function<String, KVEntry<String>> ENTRY_PARSER = line -> {
+        int pos = line.indexOf('=');
+        return pos != -1 ? new KVEntry<>(line.substring(0, pos), line.substring(pos + 1)) : new KVEntry<>(line, "");
+    };
+    static final Function<KVEntry<String>, String> ENTRY_FORMATTER = entry -> entry.getKey() + "=" + entry.getValue();
+    static final BiConsumer<KVEntry<String>, StringBuilder> ENTRY_WRITER = (entry, output) -> output.append(entry.getKey()).append('=').
+            append(entry.getValue());
+
+    @Param({"1000", "100000", "1000000"})
+    public int m_keyCount;
+
+    private byte[] m_content;
+    private byte[] m_referenceContent;
+    private KVConf<String> m_conf;
+    private KVConf<String> m_referenceConf;
+    private ByteArrayOutputStream m_output;
+
+    @Setup
+    public void setup() throws IOException {
+        m_content = generateContent(m_keyCount, false);
+        m_referenceContent = generateContent(m_keyCount, true);
+        m_conf = readConf(m_content);
+        m_referenceConf = readConf(m_referenceContent);
+        m_output = new ByteArrayOutputStream(m_content.length);
+    }
+
+    @Benchmark
+    public KVConf<String> readConf() throws IOException {
+        return readConf(m_content);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        m_output.reset();
+        m_conf.write(m_output, ISO_8859_1, ENTRY_WRITER);
+        return m_output.size();
+    }
+
+    @Benchmark
+    public List<String> diffFrom() {
+        return m_conf.diffFrom(m_referenceConf, ENTRY_FORMATTER, UnaryOperator.identity());
+    }
+
+    @Benchmark
+    public KVConf<String> merge(MergeState state) {
+        state.m_confToUpdate.mergeWith(m_conf);
+        return state.m_confToUpdate;
+    }
+
+    /**
+     * {@link KVConf#mergeWith(KVConf)} modifies the configuration, each invocation merges into a fresh copy of the reference.
+     */
+    @State(Scope.Thread)
+    public static class MergeState {
+        private KVConf<String> m_confToUpdate;
+
+        @Setup(Level.Invocation)
+        public void setup(KVConfBenchmark benchmark) throws IOException {
+            m_confToUpdate = readConf(benchmark.m_referenceContent);
+        }
+    }
+
+    static KVConf<String> readConf(byte[] content) throws IOException {
+        return KVConf.readConf(new ByteArrayInputStream(content), ISO_8859_1, ENTRY_PARSER);
+    }
+
+    static byte[] generateContent(int keyCount, boolean reference) {
+        StringBuilder content = new StringBuilder(keyCount * 40);
+        for (int i = 0; i < keyCount; i++) {
+            if (reference && i % 100 == 1) {
+                continue;
+            }
+            if (i % 10 == 0) {
+                content.append("# comment of the group ").append(i / 10).append('\n');
+            }
+            content.append("group").append(i / 10).append(".key").append(i).append('=');
+            content.append(reference && i % 10 == 5 ? "reference-value-" : "value-").append(i).append('\n');
+        }
+        if (reference) {
+            for (int i = 0; i < keyCount / 100; i++) {
+                content.append("reference.key").append(i).append("=value-").append(i).append('\n');
+            }
+        }
+        return content.toString().getBytes(ISO_8859_1);
+    }
+}
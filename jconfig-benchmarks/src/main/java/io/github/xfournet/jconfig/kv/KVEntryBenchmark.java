@@ -0,0 +1,56 @@
+package io.github.xfournet.jconfig.kv;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark the expression filtering of an entry value, see {@link KVEntry#filter(UnaryOperator, String)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KVEntryBenchmark {
+    private static final Map<String, String> VARIABLES = new HashMap<>();
+
+    static {
+        VARIABLES.put("host", "server.example.com");
+        VARIABLES.put("port", "8443");
+        VARIABLES.put("path", "/opt/application/data");
+    }
+
+    @Param({"none", "single", "multiple", "unresolved"})
+    public String m_expressions;
+
+    private String m_value;
+    private final UnaryOperator<String> m_expressionProcessor = VARIABLES::get;
+
+    @Setup
+    public void setup() {
+        switch (m_expressions) {
+            case "none":
+                m_value = "https://server.example.com:8443/opt/application/data?timeout=30&retries=5";
+                break;
+            case "single":
+                m_value = "https://@{host}:8443/opt/application/data?timeout=30&retries=5";
+                break;
+            case "multiple":
+                m_value = "https://@{host}:@{port}@{path}?timeout=30&retries=5";
+                break;
+            case "unresolved":
+                m_value = "https://@{unknown.host}:@{unknown.port}/opt/application/data?timeout=30&retries=5";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown expressions: " + m_expressions);
+        }
+    }
+
+    @Benchmark
+    public String filter() {
+        return KVEntry.filter(m_expressionProcessor, m_value);
+    }
+}
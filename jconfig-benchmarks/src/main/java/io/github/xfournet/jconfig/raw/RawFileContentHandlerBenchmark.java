@@ -0,0 +1,47 @@
+package io.github.xfournet.jconfig.raw;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import io.github.xfournet.jconfig.Diff;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Benchmark the diff of raw files: a text file is split in lines, a binary file is encoded in base64.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RawFileContentHandlerBenchmark {
+    @Param({"text", "binary"})
+    public String m_contentType;
+
+    @Param({"4096", "1048576"})
+    public int m_size;
+
+    private final RawFileContentHandler m_handler = new RawFileContentHandler();
+    private byte[] m_content;
+
+    @Setup
+    public void setup() {
+        m_content = new byte[m_size];
+        if ("text".equals(m_contentType)) {
+            byte[] line = "the quick brown fox jumps over the lazy dog 0123456789\n".getBytes(US_ASCII);
+            for (int i = 0; i < m_size; i++) {
+                m_content[i] = line[i % line.length];
+            }
+        } else {
+            new Random(m_size).nextBytes(m_content);
+        }
+    }
+
+    @Benchmark
+    public Diff diff() throws IOException {
+        return m_handler.diff(new ByteArrayInputStream(m_content), null);
+    }
+}
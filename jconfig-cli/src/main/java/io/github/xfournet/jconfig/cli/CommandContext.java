@@ -1,5 +1,8 @@
 package io.github.xfournet.jconfig.cli;
 
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import com.beust.jcommander.JCommander;
 import io.github.xfournet.jconfig.JConfig;
 
@@ -7,4 +10,29 @@ public interface CommandContext {
     JCommander getJCommander();
 
     JConfig getJConfig();
+
+    /**
+     * Resolve a path given on the command line. Paths relative to the target directory, eg the file updated by a command, must not be resolved since
+     * they are resolved by the {@link JConfig}.
+     *
+     * @param path a path given on the command line
+     * @return the path resolved against the working directory of the caller
+     */
+    default Path resolvePath(String path) {
+        return Paths.get(path);
+    }
+
+    /**
+     * @return the standard input of the caller
+     */
+    default InputStream getStandardInput() {
+        return System.in;
+    }
+
+    /**
+     * @return the standard output of the caller, where the commands print their result
+     */
+    default PrintStream getStandardOutput() {
+        return System.out;
+    }
 }
@@ -0,0 +1,129 @@
+package io.github.xfournet.jconfig.cli;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+
+/**
+ * The protocol between the {@link JConfigClient} and the {@link JConfigDaemon}, over a loopback TCP connection.
+ * <pre>
+ * request        token (UTF), working directory (UTF), argument count (int), arguments (UTF)
+ * response       frames, each one is a type (byte) followed by its content:
+ *                'O' standard output, 'E' standard error: length (int) and bytes
+ *                'I' the command reads the standard input, the client answers with 'I' frames (length and bytes), a 0 length one at the end of input
+ *                'X' exit code (int), last frame
+ * </pre>
+ * The daemon writes its port and a random token in a state file that is only readable by its owner, a client must send the token to be served.
+ */
+final class DaemonProtocol {
+    static final byte STDOUT = 'O';
+    static final byte STDERR = 'E';
+    static final byte STDIN = 'I';
+    static final byte EXIT = 'X';
+
+    static final String STATE_FILE_PROPERTY = "jconfig.daemon.stateFile";
+
+    private static final String PORT = "port";
+    private static final String TOKEN = "token";
+
+    /**
+     * @return the state file, given by the {@value #STATE_FILE_PROPERTY} system property, by default {@code ~/.jconfig/daemon.properties}
+     */
+    static Path stateFile() {
+        String stateFile = System.getProperty(STATE_FILE_PROPERTY);
+        return stateFile != null ? Paths.get(stateFile) : Paths.get(System.getProperty("user.home"), ".jconfig", "daemon.properties");
+    }
+
+    static void writeState(Path stateFile, int port, String token) throws IOException {
+        Path parent = stateFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmpFile = Files.createTempFile(parent, "daemon", ".tmp");
+        try {
+            if (Files.getFileStore(tmpFile).supportsFileAttributeView("posix")) {
+                Files.setPosixFilePermissions(tmpFile, PosixFilePermissions.fromString("rw-------"));
+            }
+
+            Properties state = new Properties();
+            state.setProperty(PORT, Integer.toString(port));
+            state.setProperty(TOKEN, token);
+            try (Writer writer = Files.newBufferedWriter(tmpFile, UTF_8)) {
+                state.store(writer, "jconfig daemon");
+            }
+            Files.move(tmpFile, stateFile, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * @param stateFile the state file
+     * @return the port and the token of the daemon
+     * @throws IOException in case of I/O error, eg if no daemon is running
+     */
+    static Map.Entry<Integer, String> readState(Path stateFile) throws IOException {
+        Properties state = new Properties();
+        try (Reader reader = Files.newBufferedReader(stateFile, UTF_8)) {
+            state.load(reader);
+        }
+        String port = state.getProperty(PORT);
+        String token = state.getProperty(TOKEN);
+        if (port == null || token == null) {
+            throw new IOException("Invalid daemon state file: " + stateFile);
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(Integer.parseInt(port), token);
+    }
+
+    /**
+     * Write a frame, the output is shared by several threads.
+     */
+    static void writeFrame(DataOutputStream out, byte type, byte[] content, int offset, int length) throws IOException {
+        synchronized (out) {
+            out.writeByte(type);
+            out.writeInt(length);
+            out.write(content, offset, length);
+            out.flush();
+        }
+    }
+
+    static void writeExit(DataOutputStream out, int exitCode) throws IOException {
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(exitCode);
+            out.flush();
+        }
+    }
+
+    /**
+     * An output stream that sends its content as frames of a given type.
+     */
+    static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream m_out;
+        private final byte m_type;
+
+        FrameOutputStream(DataOutputStream out, byte type) {
+            m_out = out;
+            m_type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                writeFrame(m_out, m_type, b, off, len);
+            }
+        }
+    }
+
+    private DaemonProtocol() {
+    }
+}
@@ -1,14 +1,27 @@
 package io.github.xfournet.jconfig.cli;
 
+import java.io.*;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import javax.annotation.*;
 import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
+import io.github.xfournet.jconfig.Cancellation;
 import io.github.xfournet.jconfig.JConfig;
+import io.github.xfournet.jconfig.JConfigBuilder;
+import io.github.xfournet.jconfig.OperationStats;
 import io.github.xfournet.jconfig.cli.command.ApplyCommand;
+import io.github.xfournet.jconfig.cli.command.BatchCommand;
+import io.github.xfournet.jconfig.cli.command.ComposeCommand;
+import io.github.xfournet.jconfig.cli.command.ConvertCommand;
 import io.github.xfournet.jconfig.cli.command.DiffCommand;
 import io.github.xfournet.jconfig.cli.command.FilterCommand;
+import io.github.xfournet.jconfig.cli.command.FingerprintCommand;
 import io.github.xfournet.jconfig.cli.command.HelpCommand;
 import io.github.xfournet.jconfig.cli.command.MergeCommand;
 import io.github.xfournet.jconfig.cli.command.RemoveCommand;
@@ -30,6 +43,20 @@ public class JConfigCli {
     }
 
     public boolean run(String[] args) {
+        return run(args, null, System.in, System.out, System.err);
+    }
+
+    /**
+     * Run a command for another caller than the current process, eg a {@link JConfigClient} served by a {@link JConfigDaemon}.
+     *
+     * @param args the command line arguments
+     * @param workingDir the working directory of the caller, or {@code null} to use the current one
+     * @param standardInput the standard input of the caller
+     * @param standardOutput the standard output of the caller
+     * @param standardError the standard error of the caller, where the errors, the statistics and the progress are printed
+     * @return {@code true} if the command succeeded
+     */
+    boolean run(String[] args, @Nullable Path workingDir, InputStream standardInput, PrintStream standardOutput, PrintStream standardError) {
         Map<String, Command> commandTable = new LinkedHashMap<>();
 
         for (Command command : m_commands) {
@@ -39,10 +66,12 @@ public class JConfigCli {
         HelpCommand helpCommand = new HelpCommand();
         addCommand(commandTable, helpCommand);
 
+        GlobalOptions globalOptions = new GlobalOptions();
         JCommander jc = new JCommander();
         jc.setCaseSensitiveOptions(false);
         jc.setColumnSize(160);
         jc.setProgramName(m_programName);
+        jc.addObject(globalOptions);
         commandTable.values().forEach(jc::addCommand);
 
         String error = null;
@@ -63,22 +92,55 @@ public class JConfigCli {
         }
 
         if (error != null) {
-            System.err.printf("Error: %s%n", error);
+            standardError.printf("Error: %s%n", error);
             if (!helpCommand.equals(command)) {
                 return false;
             }
         }
 
+        boolean collectStats = globalOptions.m_stats || globalOptions.m_statsJson;
+        if (collectStats) {
+            StatsCollector.INSTANCE.start();
+        }
+        if (globalOptions.m_progress) {
+            ProgressReporter.INSTANCE.start(standardError);
+        }
         try {
-            command.execute(new CommandContextImpl(jc, m_jConfig));
-        } catch (JConfigException e) {
-            System.err.printf("%s: %s%n", m_programName, e.getMessage());
+            // the timeout covers all the operations of the command
+            Command executedCommand = command;
+            CommandContext ctx = new CommandContextImpl(jc, m_jConfig, workingDir, standardInput, standardOutput);
+            new Cancellation(globalOptions.m_timeout != null ? Duration.ofSeconds(globalOptions.m_timeout) : null).call(() -> {
+                executedCommand.execute(ctx);
+                return null;
+            });
+        } catch (JConfigException | CancellationException e) {
+            standardError.printf("%s: %s%n", m_programName, e.getMessage());
             return false;
+        } finally {
+            if (globalOptions.m_progress) {
+                ProgressReporter.INSTANCE.stop();
+            }
+            if (collectStats) {
+                printStats(globalOptions, StatsCollector.INSTANCE.stop(), standardError);
+            }
         }
 
         return error == null;
     }
 
+    /**
+     * Print the statistics on the standard error, so that they don't mix with the output of the command.
+     */
+    private static void printStats(GlobalOptions globalOptions, List<OperationStats> stats, PrintStream standardError) {
+        if (globalOptions.m_stats) {
+            standardError.print(StatsCollector.summary(stats));
+        }
+        if (globalOptions.m_statsJson) {
+            standardError.println(StatsCollector.json(stats));
+        }
+        standardError.flush();
+    }
+
     private void addCommand(Map<String, Command> commandTable, Command command) {
         Parameters parametersAnnotation = command.getClass().getAnnotation(Parameters.class);
         if (parametersAnnotation == null) {
@@ -94,13 +156,34 @@ public class JConfigCli {
         }
     }
 
+    private static final class GlobalOptions {
+        @Parameter(names = {"--stats"}, description = "Print the duration of the phases and the files processed by each operation")
+        private boolean m_stats;
+
+        @Parameter(names = {"--stats-json"}, description = "Print the statistics of each operation in JSON, with the details of each file")
+        private boolean m_statsJson;
+
+        @Parameter(names = {"--progress"}, description = "Print the progress of the long operations")
+        private boolean m_progress;
+
+        @Parameter(names = {"--timeout"}, description = "Maximum duration of the command in seconds, the operation that exceeds it is rolled back")
+        private Long m_timeout;
+    }
+
     private final class CommandContextImpl implements CommandContext {
         private final JCommander m_jCommander;
         private final JConfig m_jConfig;
+        @Nullable
+        private final Path m_workingDir;
+        private final InputStream m_standardInput;
+        private final PrintStream m_standardOutput;
 
-        CommandContextImpl(JCommander jCommander, JConfig jConfig) {
+        CommandContextImpl(JCommander jCommander, JConfig jConfig, @Nullable Path workingDir, InputStream standardInput, PrintStream standardOutput) {
             m_jCommander = jCommander;
             m_jConfig = jConfig;
+            m_workingDir = workingDir;
+            m_standardInput = standardInput;
+            m_standardOutput = standardOutput;
         }
 
         @Override
@@ -112,16 +195,39 @@ public class JConfigCli {
         public JConfig getJConfig() {
             return m_jConfig;
         }
+
+        @Override
+        public Path resolvePath(String path) {
+            return m_workingDir != null ? m_workingDir.resolve(path) : Paths.get(path);
+        }
+
+        @Override
+        public InputStream getStandardInput() {
+            return m_standardInput;
+        }
+
+        @Override
+        public PrintStream getStandardOutput() {
+            return m_standardOutput;
+        }
     }
 
     public static void main(String[] args) {
-        JConfig jConfig = jConfigBuilder().build(Paths.get(""));
+        JConfig jConfig = defaultJConfigBuilder().build(Paths.get(""));
         if (!new JConfigCli("jconfig", defaultCommands(), jConfig).run(args)) {
             System.exit(1);
         }
     }
 
+    /**
+     * @return a {@link JConfigBuilder} whose {@link JConfig}s support the {@code --stats}, {@code --stats-json} and {@code --progress} options
+     */
+    public static JConfigBuilder defaultJConfigBuilder() {
+        return jConfigBuilder().addListener(StatsCollector.INSTANCE).addListener(ProgressReporter.INSTANCE);
+    }
+
     public static List<Command> defaultCommands() {
-        return Arrays.asList(new ApplyCommand(), new DiffCommand(), new FilterCommand(), new MergeCommand(), new RemoveCommand(), new SetCommand());
+        return Arrays.asList(new ApplyCommand(), new BatchCommand(), new ComposeCommand(), new ConvertCommand(), new DiffCommand(),
+                             new FilterCommand(), new FingerprintCommand(), new MergeCommand(), new RemoveCommand(), new SetCommand());
     }
 }
@@ -0,0 +1,121 @@
+package io.github.xfournet.jconfig.cli;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static io.github.xfournet.jconfig.cli.DaemonProtocol.*;
+
+/**
+ * A thin client that sends a command line to the {@link JConfigDaemon} and relays its output and exit code. It doesn't depend on the command classes
+ * so that it starts quickly. When no daemon is running, the command is run in-process by {@link JConfigCli}.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class JConfigClient {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Run a command through the daemon.
+     *
+     * @param args the command line arguments
+     * @param stateFile the state file of the daemon
+     * @param workingDir the working directory, used as target directory and to resolve the relative paths of the command line
+     * @param stdin the standard input, it's only read if the command reads it
+     * @param stdout the standard output
+     * @param stderr the standard error
+     * @return the exit code of the command
+     * @throws IOException in case of I/O error, {@link NoSuchFileException} or {@link ConnectException} if no daemon is running
+     */
+    public static int run(String[] args, Path stateFile, Path workingDir, InputStream stdin, OutputStream stdout, OutputStream stderr)
+            throws IOException {
+        Map.Entry<Integer, String> state = readState(stateFile);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), state.getKey())) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            out.writeUTF(state.getValue());
+            out.writeUTF(workingDir.toAbsolutePath().toString());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    throw new IOException("The daemon closed the connection, the state file may be outdated: " + stateFile, e);
+                }
+
+                switch (type) {
+                    case STDOUT:
+                    case STDERR:
+                        OutputStream output = type == STDOUT ? stdout : stderr;
+                        int length = in.readInt();
+                        while (length > 0) {
+                            int read = in.read(buffer, 0, Math.min(length, buffer.length));
+                            if (read == -1) {
+                                throw new EOFException("Truncated output from the daemon");
+                            }
+                            output.write(buffer, 0, read);
+                            length -= read;
+                        }
+                        output.flush();
+                        break;
+
+                    case STDIN:
+                        in.readInt(); // empty request
+                        Thread stdinPump = new Thread(() -> pumpStandardInput(stdin, out), "jconfig-client-stdin");
+                        stdinPump.setDaemon(true);
+                        stdinPump.start();
+                        break;
+
+                    case EXIT:
+                        return in.readInt();
+
+                    default:
+                        throw new IOException("Unexpected frame from the daemon: " + type);
+                }
+            }
+        }
+    }
+
+    private static void pumpStandardInput(InputStream stdin, DataOutputStream out) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int read;
+            while ((read = stdin.read(buffer)) != -1) {
+                writeFrame(out, STDIN, buffer, 0, read);
+            }
+            writeFrame(out, STDIN, buffer, 0, 0);
+        } catch (IOException e) {
+            // the connection is closed, the command has ended
+        }
+    }
+
+    public static void main(String[] args) {
+        int exitCode;
+        try {
+            exitCode = run(args, stateFile(), Paths.get(""), System.in, System.out, System.err);
+        } catch (NoSuchFileException | ConnectException e) {
+            // no daemon is running
+            JConfigCli.main(args);
+            return;
+        } catch (IOException e) {
+            System.err.printf("jconfig: %s%n", e.getMessage());
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+
+    private JConfigClient() {
+    }
+}
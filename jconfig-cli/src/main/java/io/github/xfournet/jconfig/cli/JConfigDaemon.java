@@ -0,0 +1,226 @@
+package io.github.xfournet.jconfig.cli;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import io.github.xfournet.jconfig.JConfig;
+
+import static io.github.xfournet.jconfig.cli.DaemonProtocol.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A long-running process that runs the commands sent by {@link JConfigClient}s, so that the JVM startup and class loading are only paid once.<br>
+ * The daemon listens on a loopback TCP port, the port and an access token are written to the state file (see {@link DaemonProtocol}). A {@link JConfig}
+ * is kept for each target directory. Commands run in-process, concurrently, with the working directory, standard streams and exit code of the client.
+ * <br>
+ * Up to 16 commands run at once, up to 64 more clients wait for their turn and the others are rejected. A client must send its request within 10
+ * seconds.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class JConfigDaemon implements Closeable {
+    private static final int MAX_RUNNING_CLIENTS = 16;
+    private static final int MAX_WAITING_CLIENTS = 64;
+    private static final int REQUEST_TIMEOUT_MILLIS = 10_000;
+
+    private final Path m_stateFile;
+    private final String m_token;
+    private final ServerSocket m_serverSocket;
+    private final ThreadPoolExecutor m_executor = new ThreadPoolExecutor(MAX_RUNNING_CLIENTS, MAX_RUNNING_CLIENTS, 1, TimeUnit.MINUTES,
+                                                                         new LinkedBlockingQueue<>(MAX_WAITING_CLIENTS), runnable -> {
+        Thread thread = new Thread(runnable, "jconfig-daemon");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentMap<Path, JConfig> m_jConfigs = new ConcurrentHashMap<>();
+
+    /**
+     * Start listening, the commands are served once {@link #serve()} is called.
+     *
+     * @param stateFile the file where the port and the access token are written, it's deleted when the daemon is closed
+     * @throws IOException in case of I/O error
+     */
+    public JConfigDaemon(Path stateFile) throws IOException {
+        m_stateFile = stateFile;
+        byte[] token = new byte[32];
+        new SecureRandom().nextBytes(token);
+        StringBuilder hexToken = new StringBuilder();
+        for (byte b : token) {
+            hexToken.append(String.format("%02x", b & 0xFF));
+        }
+        m_token = hexToken.toString();
+        m_executor.allowCoreThreadTimeOut(true);
+
+        m_serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        try {
+            writeState(stateFile, m_serverSocket.getLocalPort(), m_token);
+        } catch (IOException | RuntimeException e) {
+            m_serverSocket.close();
+            throw e;
+        }
+    }
+
+    public int getPort() {
+        return m_serverSocket.getLocalPort();
+    }
+
+    /**
+     * Serve the clients until the daemon is closed.
+     *
+     * @throws IOException in case of I/O error
+     */
+    public void serve() throws IOException {
+        while (!m_serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = m_serverSocket.accept();
+            } catch (SocketException e) {
+                if (m_serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            try {
+                m_executor.execute(() -> handle(socket));
+            } catch (RejectedExecutionException e) {
+                reject(socket);
+            }
+        }
+    }
+
+    private static void reject(Socket socket) {
+        try (Socket s = socket) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            byte[] message = String.format("jconfig: the daemon is busy, too many clients%n").getBytes(UTF_8);
+            writeFrame(out, STDERR, message, 0, message.length);
+            writeExit(out, 1);
+        } catch (IOException e) {
+            // the client has gone, nothing to report to
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_serverSocket.close();
+        m_executor.shutdown();
+        Files.deleteIfExists(m_stateFile);
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            // a client that doesn't send its request must not hold a thread, the command itself may wait for the standard input
+            s.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+            String token = in.readUTF();
+            if (!MessageDigest.isEqual(token.getBytes(UTF_8), m_token.getBytes(UTF_8))) {
+                return;
+            }
+            Path workingDir = Paths.get(in.readUTF()).toAbsolutePath().normalize();
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+            s.setSoTimeout(0);
+
+            PrintStream clientOut = new PrintStream(new FrameOutputStream(out, STDOUT), true);
+            PrintStream clientErr = new PrintStream(new FrameOutputStream(out, STDERR), true);
+            int exitCode;
+            try {
+                JConfig jConfig = m_jConfigs.computeIfAbsent(workingDir, dir -> JConfigCli.defaultJConfigBuilder().build(dir));
+                JConfigCli cli = new JConfigCli("jconfig", JConfigCli.defaultCommands(), jConfig);
+                exitCode = cli.run(args, workingDir, new ClientInputStream(in, out), clientOut, clientErr) ? 0 : 1;
+            } catch (RuntimeException e) {
+                e.printStackTrace(clientErr);
+                exitCode = 1;
+            } finally {
+                clientOut.flush();
+                clientErr.flush();
+            }
+            writeExit(out, exitCode);
+
+            // the standard input the command didn't read is discarded until the client disconnects, closing the socket while some is pending would
+            // reset the connection and the client could lose the end of the output
+            s.shutdownOutput();
+            s.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+            byte[] discarded = new byte[8192];
+            while (in.read(discarded) != -1) {
+                // discard
+            }
+        } catch (IOException e) {
+            // the client has gone, nothing to report to
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path stateFile = stateFile();
+        try (JConfigDaemon daemon = new JConfigDaemon(stateFile)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    daemon.close();
+                } catch (IOException e) {
+                    // exiting anyway
+                }
+            }));
+            System.out.printf("jconfig daemon listening on port %d, state file %s%n", daemon.getPort(), stateFile);
+            daemon.serve();
+        }
+    }
+
+    /**
+     * The standard input of the client, it's only requested to the client when the command reads it.
+     */
+    private static final class ClientInputStream extends InputStream {
+        private final DataInputStream m_in;
+        private final DataOutputStream m_out;
+        private boolean m_requested;
+        private boolean m_eof;
+        private int m_remaining;
+
+        ClientInputStream(DataInputStream in, DataOutputStream out) {
+            m_in = in;
+            m_out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!m_requested) {
+                writeFrame(m_out, STDIN, new byte[0], 0, 0);
+                m_requested = true;
+            }
+
+            while (m_remaining == 0) {
+                if (m_eof) {
+                    return -1;
+                }
+                if (m_in.readByte() != STDIN) {
+                    throw new IOException("Unexpected frame from the client");
+                }
+                m_remaining = m_in.readInt();
+                m_eof = m_remaining == 0;
+            }
+
+            int read = m_in.read(b, off, Math.min(len, m_remaining));
+            if (read == -1) {
+                throw new EOFException("Truncated standard input");
+            }
+            m_remaining -= read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.xfournet.jconfig.cli;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import io.github.xfournet.jconfig.JConfigListener;
+import io.github.xfournet.jconfig.OperationProgress;
+import io.github.xfournet.jconfig.OperationStats;
+
+/**
+ * Print a progress bar of the operations run by a command on the standard error, for the {@code --progress} option.<br>
+ * Like the {@link StatsCollector}, a single reporter is registered on the {@link io.github.xfournet.jconfig.JConfig} and it's enabled per thread. The
+ * stream is bound to each operation when it starts, so that the progress notified by the threads that process its files is printed to the caller
+ * of the operation, eg to the client of a daemon. The bar is only printed for the operations that last more than 200 ms, and it's refreshed at most
+ * every 200 ms.
+ */
+final class ProgressReporter implements JConfigListener {
+    static final ProgressReporter INSTANCE = new ProgressReporter();
+
+    private static final long REFRESH_MILLIS = 200;
+    private static final int BAR_WIDTH = 30;
+
+    private final ThreadLocal<PrintStream> m_streams = new ThreadLocal<>();
+    private final Map<OperationProgress, RunningOperation> m_operations = new ConcurrentHashMap<>();
+
+    private ProgressReporter() {
+    }
+
+    /**
+     * Start reporting the progress of the operations run by the current thread.
+     *
+     * @param stream the stream where the progress is printed
+     */
+    void start(PrintStream stream) {
+        m_streams.set(stream);
+    }
+
+    /**
+     * Stop reporting the progress of the operations run by the current thread.
+     */
+    void stop() {
+        m_streams.remove();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return m_streams.get() != null;
+    }
+
+    @Override
+    public void operationStarted(OperationProgress progress) {
+        PrintStream stream = m_streams.get();
+        if (stream != null) {
+            m_operations.put(progress, new RunningOperation(stream, System.nanoTime()));
+        }
+    }
+
+    @Override
+    public void operationCompleted(OperationStats stats) {
+    }
+
+    @Override
+    public void operationProgress(OperationProgress progress) {
+        RunningOperation operation = m_operations.get(progress);
+        if (operation == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (operation) {
+            if (progress.isCompleted()) {
+                m_operations.remove(progress);
+                if (operation.m_printed) {
+                    operation.m_stream.println(format(progress));
+                }
+            } else if (TimeUnit.NANOSECONDS.toMillis(now - operation.m_lastPrint) >= REFRESH_MILLIS) {
+                operation.m_lastPrint = now;
+                operation.m_printed = true;
+                operation.m_stream.print(format(progress));
+                operation.m_stream.flush();
+            }
+        }
+    }
+
+    /**
+     * Format a progress line, it starts with a carriage return so that it replaces the previous one.
+     */
+    static String format(OperationProgress progress) {
+        StringBuilder line = new StringBuilder("\r").append(progress.getOperation()).append(' ');
+        int fileCount = progress.getFileCount();
+        if (fileCount > 0) {
+            int filled = (int) ((long) progress.getFilesDone() * BAR_WIDTH / fileCount);
+            line.append('[');
+            for (int i = 0; i < BAR_WIDTH; i++) {
+                line.append(i < filled ? '#' : '.');
+            }
+            line.append(String.format(Locale.ROOT, "] %3d%% %d/%d files", progress.getFilesDone() * 100L / fileCount, progress.getFilesDone(),
+                                      fileCount));
+        } else {
+            line.append(progress.getFilesDone()).append(" files");
+        }
+        return line.append(String.format(Locale.ROOT, ", %.1f MB", progress.getBytesProcessed() / (1024.0 * 1024.0))).toString();
+    }
+
+    private static final class RunningOperation {
+        private final PrintStream m_stream;
+        // the start of the operation until the first print
+        private long m_lastPrint;
+        private boolean m_printed;
+
+        RunningOperation(PrintStream stream, long start) {
+            m_stream = stream;
+            m_lastPrint = start;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.xfournet.jconfig.cli;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.*;
+import io.github.xfournet.jconfig.FileStats;
+import io.github.xfournet.jconfig.JConfigListener;
+import io.github.xfournet.jconfig.OperationStats;
+
+/**
+ * Collect the statistics of the operations run by a command, for the {@code --stats} and {@code --stats-json} options.<br>
+ * A single collector is registered on the {@link io.github.xfournet.jconfig.JConfig}, the statistics are collected per thread since a daemon runs the
+ * commands of several clients concurrently. The collector is disabled for the threads that don't collect, so that their operations don't pay for the
+ * statistics.
+ */
+final class StatsCollector implements JConfigListener {
+    static final StatsCollector INSTANCE = new StatsCollector();
+
+    private final ThreadLocal<List<OperationStats>> m_collectedStats = new ThreadLocal<>();
+
+    private StatsCollector() {
+    }
+
+    /**
+     * Start collecting the statistics of the operations run by the current thread.
+     */
+    void start() {
+        m_collectedStats.set(new ArrayList<>());
+    }
+
+    /**
+     * Stop collecting the statistics of the operations run by the current thread.
+     *
+     * @return the statistics collected since {@link #start()}
+     */
+    List<OperationStats> stop() {
+        List<OperationStats> collectedStats = m_collectedStats.get();
+        m_collectedStats.remove();
+        return collectedStats != null ? collectedStats : Collections.emptyList();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return m_collectedStats.get() != null;
+    }
+
+    @Override
+    public void operationCompleted(OperationStats stats) {
+        List<OperationStats> collectedStats = m_collectedStats.get();
+        if (collectedStats != null) {
+            collectedStats.add(stats);
+        }
+    }
+
+    /**
+     * Format the statistics for humans: a line per operation with its phases and totals, followed by the time spent in each handler.
+     */
+    static String summary(List<OperationStats> statsList) {
+        StringBuilder summary = new StringBuilder();
+        for (OperationStats stats : statsList) {
+            summary.append(stats.getOperation()).append(stats.isSucceeded() ? "" : " (failed)").append(": ").append(millis(stats.getDuration())).
+                    append(" ms");
+            summary.append(stats.getPhases().entrySet().stream().
+                    map(phase -> phase.getKey() + " " + millis(phase.getValue()) + " ms").
+                    collect(Collectors.joining(", ", " (", ")")));
+            summary.append(String.format(Locale.ROOT, ", %d files, %d rewritten, %d skipped, %d bytes read, %d bytes written%n",
+                                         stats.getFiles().size(), stats.getFilesRewritten(), stats.getFilesSkipped(), stats.getBytesRead(),
+                                         stats.getBytesWritten()));
+
+            Map<String, List<FileStats>> filesByHandler = stats.getFiles().stream().
+                    filter(file -> file.getHandler() != null).
+                    collect(Collectors.groupingBy(FileStats::getHandler, TreeMap::new, Collectors.toList()));
+            filesByHandler.forEach((handler, files) -> {
+                Duration duration = files.stream().map(FileStats::getDuration).reduce(Duration.ZERO, Duration::plus);
+                summary.append(String.format(Locale.ROOT, "  %s: %d files, %s ms%n", handler, files.size(), millis(duration)));
+            });
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Format the statistics in JSON, with the details of each file.
+     */
+    static String json(List<OperationStats> statsList) {
+        return statsList.stream().map(stats -> {
+            String phases = stats.getPhases().entrySet().stream().
+                    map(phase -> quote(phase.getKey()) + ":" + millis(phase.getValue())).
+                    collect(Collectors.joining(",", "{", "}"));
+            String files = stats.getFiles().stream().
+                    map(file -> "{\"path\":" + quote(file.getPath().toString().replace('\\', '/')) +
+                            ",\"handler\":" + (file.getHandler() != null ? quote(file.getHandler()) : "null") +
+                            ",\"action\":" + quote(file.getAction().name()) +
+                            ",\"bytesRead\":" + file.getBytesRead() +
+                            ",\"bytesWritten\":" + file.getBytesWritten() +
+                            ",\"durationMs\":" + millis(file.getDuration()) + "}").
+                    collect(Collectors.joining(",", "[", "]"));
+            return "{\"operation\":" + quote(stats.getOperation()) +
+                    ",\"succeeded\":" + stats.isSucceeded() +
+                    ",\"durationMs\":" + millis(stats.getDuration()) +
+                    ",\"phasesMs\":" + phases +
+                    ",\"filesRewritten\":" + stats.getFilesRewritten() +
+                    ",\"filesSkipped\":" + stats.getFilesSkipped() +
+                    ",\"bytesRead\":" + stats.getBytesRead() +
+                    ",\"bytesWritten\":" + stats.getBytesWritten() +
+                    ",\"files\":" + files + "}";
+        }).collect(Collectors.joining(",", "{\"operations\":[", "]}"));
+    }
+
+    private static String millis(Duration duration) {
+        return String.format(Locale.ROOT, "%.3f", duration.toNanos() / 1_000_000.0);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
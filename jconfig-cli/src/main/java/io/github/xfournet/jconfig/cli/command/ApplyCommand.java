@@ -1,10 +1,25 @@
 package io.github.xfournet.jconfig.cli.command;
 
-import java.nio.file.Paths;
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.*;
+import java.util.stream.*;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import io.github.xfournet.jconfig.ApplyOptions;
+import io.github.xfournet.jconfig.ApplyResult;
+import io.github.xfournet.jconfig.JConfigBuilder;
 import io.github.xfournet.jconfig.cli.Command;
 import io.github.xfournet.jconfig.cli.CommandContext;
+import io.github.xfournet.jconfig.cli.JConfigCli;
+import io.github.xfournet.jconfig.cli.JConfigException;
+
+import static io.github.xfournet.jconfig.ApplyOptions.applyOptions;
+import static io.github.xfournet.jconfig.JConfigBuilder.jConfigBuilder;
 
 @Parameters(commandNames = "apply", commandDescription = "Apply configuration file to a directory")
 public class ApplyCommand implements Command {
@@ -12,8 +27,108 @@ public class ApplyCommand implements Command {
     @Parameter(names = {"--config", "-c"}, description = "Configuration file to be applied", required = true)
     private String m_confFile;
 
+    @Parameter(names = {"--include", "-i"}, description = "Glob pattern of the files to be updated, all files are updated when not specified")
+    private List<String> m_includes = new ArrayList<>();
+
+    @Parameter(names = {"--undo", "-u"}, description = "Configuration file to be generated that reverts the changes done by this apply")
+    private String m_undoFile;
+
+    @Parameter(names = {"--blob-store"}, description = "Directory where the binary contents referenced by the configuration file are stored")
+    private String m_blobStore;
+
+    @Parameter(names = {"--link-blobs"},
+            description = "Hard link the blobs to the updated files instead of copying them, the updated files must never be modified in place")
+    private boolean m_linkBlobs;
+
+    @Parameter(names = {"--source-archive", "-s"}, description = "ZIP file to be used as source instead of the current directory")
+    private String m_sourceArchive;
+
+    @Parameter(names = {"--output-archive", "-o"}, description = "ZIP file to be written with the result of the apply on the source archive")
+    private String m_outputArchive;
+
+    @Parameter(names = {"--targets", "-t"}, variableArity = true,
+            description = "Directories to be updated instead of the current directory, the last name may be a glob pattern, eg 'tenants/*'")
+    private List<String> m_targets = new ArrayList<>();
+
+    @Parameter(names = {"--parallelism", "-p"}, description = "Maximum number of target directories updated at once")
+    private Integer m_parallelism;
+
     @Override
     public void execute(CommandContext ctx) {
-        ctx.getJConfig().apply(Paths.get(m_confFile));
+        ApplyOptions options = applyOptions();
+        if (!m_includes.isEmpty()) {
+            List<PathMatcher> matchers = m_includes.stream().
+                    map(include -> FileSystems.getDefault().getPathMatcher("glob:" + include)).
+                    collect(Collectors.toList());
+            options.setPathFilter(path -> matchers.stream().anyMatch(matcher -> matcher.matches(path)));
+        }
+        if (m_undoFile != null) {
+            options.setUndoFile(ctx.resolvePath(m_undoFile));
+        }
+        if (m_blobStore != null) {
+            options.setBlobStore(ctx.resolvePath(m_blobStore)).setLinkBlobs(m_linkBlobs);
+        }
+
+        if ((m_sourceArchive != null) != (m_outputArchive != null)) {
+            throw new IllegalArgumentException("Both --source-archive and --output-archive must be specified");
+        }
+        if (!m_targets.isEmpty()) {
+            if (m_sourceArchive != null) {
+                throw new IllegalArgumentException("--targets cannot be used with --source-archive");
+            }
+            applyToTargets(ctx, options);
+        } else if (m_sourceArchive != null) {
+            jConfigBuilder().build(ctx.resolvePath(m_sourceArchive)).
+                    applyToArchive(ctx.resolvePath(m_confFile), ctx.resolvePath(m_outputArchive), options);
+        } else {
+            ctx.getJConfig().apply(ctx.resolvePath(m_confFile), options);
+        }
+    }
+
+    private void applyToTargets(CommandContext ctx, ApplyOptions options) {
+        List<Path> targetDirs = new ArrayList<>();
+        for (String target : m_targets) {
+            targetDirs.addAll(resolveTargets(ctx, target));
+        }
+        if (targetDirs.isEmpty()) {
+            throw new JConfigException("No target directory matches " + m_targets);
+        }
+
+        JConfigBuilder jConfigBuilder = JConfigCli.defaultJConfigBuilder();
+        if (m_parallelism != null) {
+            jConfigBuilder.setParallelism(m_parallelism);
+        }
+        List<ApplyResult> results = jConfigBuilder.applyToTargets(ctx.resolvePath(m_confFile), targetDirs, options);
+
+        long failureCount = results.stream().filter(result -> !result.isSucceeded()).count();
+        results.forEach(ctx.getStandardOutput()::println);
+        if (failureCount > 0) {
+            throw new JConfigException(failureCount + " of " + results.size() + " target directories failed");
+        }
+    }
+
+    /**
+     * Resolve a target directory, the last name may be a glob pattern that selects several directories.
+     */
+    private static List<Path> resolveTargets(CommandContext ctx, String target) {
+        Path targetDir = ctx.resolvePath(target);
+        Path fileName = targetDir.getFileName();
+        if (fileName == null || fileName.toString().chars().noneMatch(c -> "*?[{".indexOf(c) >= 0)) {
+            return Collections.singletonList(targetDir);
+        }
+
+        Path parentDir = targetDir.getParent() != null ? targetDir.getParent() : ctx.resolvePath("");
+        List<Path> targetDirs = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(parentDir, fileName.toString())) {
+            for (Path path : directoryStream) {
+                if (Files.isDirectory(path)) {
+                    targetDirs.add(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Collections.sort(targetDirs);
+        return targetDirs;
     }
 }
@@ -0,0 +1,167 @@
+package io.github.xfournet.jconfig.cli.command;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.*;
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.Parameters;
+import io.github.xfournet.jconfig.JConfig;
+import io.github.xfournet.jconfig.cli.Command;
+import io.github.xfournet.jconfig.cli.CommandContext;
+import io.github.xfournet.jconfig.cli.JConfigException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+@Parameters(commandNames = "batch", commandDescription = "Run the commands of a script in a single transaction, files are written once at the end")
+public class BatchCommand implements Command {
+    private static final List<Supplier<Command>> BATCH_COMMANDS =
+            Arrays.asList(ApplyCommand::new, FilterCommand::new, MergeCommand::new, RemoveCommand::new, SetCommand::new);
+
+    @Parameter(names = {"--script", "-s"},
+            description = "Script with one apply, filter, merge, remove or set command per line, read from standard input when not specified")
+    private String m_scriptFile;
+
+    @Override
+    public void execute(CommandContext ctx) {
+        List<String> lines;
+        try {
+            if (m_scriptFile != null) {
+                lines = Files.readAllLines(ctx.resolvePath(m_scriptFile), UTF_8);
+            } else {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(ctx.getStandardInput(), UTF_8));
+                lines = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new JConfigException("Cannot read the script: " + e.getMessage(), e);
+        }
+
+        // the whole script is parsed before anything is run
+        List<Command> commands = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            List<String> args = tokenize(lines.get(i), i + 1);
+            if (!args.isEmpty()) {
+                commands.add(parse(args, i + 1));
+            }
+        }
+
+        ctx.getJConfig().batch(jConfig -> {
+            CommandContext batchContext = new BatchCommandContext(ctx, jConfig);
+            commands.forEach(command -> command.execute(batchContext));
+        });
+    }
+
+    private static Command parse(List<String> args, int lineNumber) {
+        Map<String, Command> commandTable = new HashMap<>();
+        JCommander jc = new JCommander();
+        jc.setCaseSensitiveOptions(false);
+        for (Supplier<Command> commandSupplier : BATCH_COMMANDS) {
+            Command command = commandSupplier.get();
+            jc.addCommand(command);
+            for (String commandName : command.getClass().getAnnotation(Parameters.class).commandNames()) {
+                commandTable.put(commandName.toLowerCase(Locale.ROOT), command);
+            }
+        }
+
+        try {
+            jc.parse(args.toArray(new String[0]));
+        } catch (ParameterException e) {
+            throw new JConfigException("Line " + lineNumber + ": " + e.getMessage(), e);
+        }
+        String parsedCommand = jc.getParsedCommand();
+        Command command = parsedCommand != null ? commandTable.get(parsedCommand.toLowerCase(Locale.ROOT)) : null;
+        if (command == null) {
+            throw new JConfigException("Line " + lineNumber + ": expected one of the commands " + commandTable.keySet());
+        }
+        return command;
+    }
+
+    /**
+     * Split a script line in arguments, like a shell would do for simple cases: arguments are separated by spaces, they can be quoted with simple or
+     * double quotes, and lines starting with {@code #} are comments.
+     */
+    private static List<String> tokenize(String line, int lineNumber) {
+        List<String> args = new ArrayList<>();
+        if (line.trim().startsWith("#")) {
+            return args;
+        }
+
+        StringBuilder arg = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    arg.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (arg != null) {
+                    args.add(arg.toString());
+                    arg = null;
+                }
+            } else {
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                arg.append(c);
+            }
+        }
+
+        if (quote != 0) {
+            throw new JConfigException("Line " + lineNumber + ": unterminated quote");
+        }
+        if (arg != null) {
+            args.add(arg.toString());
+        }
+        return args;
+    }
+
+    private static final class BatchCommandContext implements CommandContext {
+        private final CommandContext m_context;
+        private final JConfig m_jConfig;
+
+        BatchCommandContext(CommandContext context, JConfig jConfig) {
+            m_context = context;
+            m_jConfig = jConfig;
+        }
+
+        @Override
+        public JCommander getJCommander() {
+            return m_context.getJCommander();
+        }
+
+        @Override
+        public JConfig getJConfig() {
+            return m_jConfig;
+        }
+
+        @Override
+        public Path resolvePath(String path) {
+            return m_context.resolvePath(path);
+        }
+
+        @Override
+        public InputStream getStandardInput() {
+            return m_context.getStandardInput();
+        }
+
+        @Override
+        public PrintStream getStandardOutput() {
+            return m_context.getStandardOutput();
+        }
+    }
+}
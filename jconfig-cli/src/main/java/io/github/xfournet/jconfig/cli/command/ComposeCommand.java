@@ -0,0 +1,29 @@
+package io.github.xfournet.jconfig.cli.command;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.*;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import io.github.xfournet.jconfig.DiffFormat;
+import io.github.xfournet.jconfig.cli.Command;
+import io.github.xfournet.jconfig.cli.CommandContext;
+
+@Parameters(commandNames = "compose", commandDescription = "Compose a chain of configuration files into a single one")
+public class ComposeCommand implements Command {
+
+    @Parameter(names = {"--config", "-c"}, description = "Configuration file to be composed, repeated in the order the files would be applied", required = true)
+    private List<String> m_confFiles = new ArrayList<>();
+
+    @Parameter(names = {"--output", "-o"}, description = "Composed configuration file to be generated", required = true)
+    private String m_outputFile;
+
+    @Parameter(names = {"--format"}, description = "Format of the composed configuration file")
+    private DiffFormat m_format = DiffFormat.TEXT;
+
+    @Override
+    public void execute(CommandContext ctx) {
+        List<Path> confFiles = m_confFiles.stream().map(ctx::resolvePath).collect(Collectors.toList());
+        ctx.getJConfig().composeDiffs(confFiles, ctx.resolvePath(m_outputFile), m_format);
+    }
+}
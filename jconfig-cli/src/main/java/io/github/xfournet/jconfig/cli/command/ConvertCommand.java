@@ -0,0 +1,25 @@
+package io.github.xfournet.jconfig.cli.command;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import io.github.xfournet.jconfig.DiffFormat;
+import io.github.xfournet.jconfig.cli.Command;
+import io.github.xfournet.jconfig.cli.CommandContext;
+
+@Parameters(commandNames = "convert", commandDescription = "Convert a diff configuration file to another format")
+public class ConvertCommand implements Command {
+
+    @Parameter(names = {"--config", "-c"}, description = "Configuration file to be converted", required = true)
+    private String m_confFile;
+
+    @Parameter(names = {"--output", "-o"}, description = "Converted configuration file to be generated", required = true)
+    private String m_outputFile;
+
+    @Parameter(names = {"--format"}, description = "Format of the converted configuration file", required = true)
+    private DiffFormat m_format;
+
+    @Override
+    public void execute(CommandContext ctx) {
+        ctx.getJConfig().convertDiff(ctx.resolvePath(m_confFile), ctx.resolvePath(m_outputFile), m_format);
+    }
+}
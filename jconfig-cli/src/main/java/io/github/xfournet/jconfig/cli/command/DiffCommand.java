@@ -1,22 +1,48 @@
 package io.github.xfournet.jconfig.cli.command;
 
-import java.nio.file.Paths;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import io.github.xfournet.jconfig.DiffFormat;
 import io.github.xfournet.jconfig.cli.Command;
 import io.github.xfournet.jconfig.cli.CommandContext;
 
+import static io.github.xfournet.jconfig.DiffOptions.diffOptions;
+
 @Parameters(commandNames = "diff", commandDescription = "Generate a diff configuration file by comparing two directory")
 public class DiffCommand implements Command {
 
-    @Parameter(names = {"--referenceDir", "-r"}, description = "Reference directory to be compared", required = true)
+    @Parameter(names = {"--referenceDir", "-r"}, description = "Reference directory, or ZIP or TAR file, to be compared", required = true)
     private String m_referenceDir;
 
     @Parameter(names = {"--config", "-c"}, description = "Configuration file to be generated", required = true)
     private String m_confFile;
 
+    @Parameter(names = {"--format"}, description = "Format of the configuration file to be generated")
+    private DiffFormat m_format = DiffFormat.TEXT;
+
+    @Parameter(names = {"--record-hashes"}, description = "Record the expected file hashes so that re-applying the configuration file skips the files already updated")
+    private boolean m_recordHashes;
+
+    @Parameter(names = {"--detect-copies"}, description = "Reference renamed or copied files instead of embedding their content")
+    private boolean m_detectCopies;
+
+    @Parameter(names = {"--blob-store"}, description = "Directory where binary contents are stored instead of being embedded in the configuration file")
+    private String m_blobStore;
+
+    @Parameter(names = {"--fingerprints"}, description = "Skip the subtrees which fingerprints are identical, best used with --fingerprint-cache")
+    private boolean m_useFingerprints;
+
+    @Parameter(names = {"--fingerprint-cache"}, description = "File where the file hashes used by the fingerprints are cached between runs")
+    private String m_fingerprintCache;
+
     @Override
     public void execute(CommandContext ctx) {
-        ctx.getJConfig().diff(Paths.get(m_referenceDir), Paths.get(m_confFile));
+        ctx.getJConfig().diff(ctx.resolvePath(m_referenceDir), ctx.resolvePath(m_confFile), diffOptions().
+                setFormat(m_format).
+                setRecordImageHashes(m_recordHashes).
+                setDetectCopies(m_detectCopies).
+                setBlobStore(m_blobStore != null ? ctx.resolvePath(m_blobStore) : null).
+                setUseFingerprints(m_useFingerprints).
+                setFingerprintCache(m_fingerprintCache != null ? ctx.resolvePath(m_fingerprintCache) : null));
     }
 }
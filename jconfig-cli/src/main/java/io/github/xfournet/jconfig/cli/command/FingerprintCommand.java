@@ -0,0 +1,29 @@
+package io.github.xfournet.jconfig.cli.command;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import io.github.xfournet.jconfig.JConfig;
+import io.github.xfournet.jconfig.cli.Command;
+import io.github.xfournet.jconfig.cli.CommandContext;
+import io.github.xfournet.jconfig.cli.JConfigException;
+
+@Parameters(commandNames = "fingerprint", commandDescription = "Print the fingerprint of the directory")
+public class FingerprintCommand implements Command {
+
+    @Parameter(names = {"--cache"}, description = "File where the file hashes are cached between runs")
+    private String m_cacheFile;
+
+    @Parameter(names = {"--expected", "-e"}, description = "Expected fingerprint, the command fails if the directory has another fingerprint")
+    private String m_expectedFingerprint;
+
+    @Override
+    public void execute(CommandContext ctx) {
+        JConfig jConfig = ctx.getJConfig();
+        String fingerprint = m_cacheFile != null ? jConfig.fingerprint(ctx.resolvePath(m_cacheFile)) : jConfig.fingerprint();
+        ctx.getStandardOutput().println(fingerprint);
+
+        if (m_expectedFingerprint != null && !m_expectedFingerprint.equals(fingerprint)) {
+            throw new JConfigException("Fingerprint mismatch, expected " + m_expectedFingerprint);
+        }
+    }
+}
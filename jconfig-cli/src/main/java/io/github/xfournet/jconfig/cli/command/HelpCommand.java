@@ -9,6 +9,9 @@ public class HelpCommand implements Command {
 
     @Override
     public void execute(CommandContext ctx) {
-        ctx.getJCommander().usage();
+        StringBuilder usage = new StringBuilder();
+        ctx.getJCommander().usage(usage);
+        ctx.getStandardOutput().print(usage);
+        ctx.getStandardOutput().flush();
     }
 }
@@ -8,8 +8,10 @@ import io.github.xfournet.jconfig.cli.CommandContext;
 
 @Parameters(commandNames = "merge", commandDescription = "Merge a file or directory into target directory or to a specific file")
 public class MergeCommand implements Command {
+    private static final String STDIN = "-";
 
-    @Parameter(names = {"--path", "-p"}, description = "Directory or file to be merged", required = true)
+    @Parameter(names = {"--path", "-p"}, description = "Directory or file to be merged, '-' to merge a ZIP or TAR archive read from standard input",
+            required = true)
     private String m_sourceFile;
 
     @Parameter(names = {"--file", "-f"}, description = "File to be updated")
@@ -18,9 +20,11 @@ public class MergeCommand implements Command {
     @Override
     public void execute(CommandContext ctx) {
         if (m_file != null) {
-            ctx.getJConfig().merge(Paths.get(m_file), Paths.get(m_sourceFile));
+            ctx.getJConfig().merge(Paths.get(m_file), ctx.resolvePath(m_sourceFile));
+        } else if (STDIN.equals(m_sourceFile)) {
+            ctx.getJConfig().merge(ctx.getStandardInput());
         } else {
-            ctx.getJConfig().merge(Paths.get(m_sourceFile));
+            ctx.getJConfig().merge(ctx.resolvePath(m_sourceFile));
         }
     }
 }
@@ -0,0 +1,208 @@
+package io.github.xfournet.jconfig.cli;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+import java.util.zip.*;
+import javax.annotation.*;
+import org.testng.annotations.Test;
+
+import static java.nio.charset.StandardCharsets.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class JConfigDaemonTest {
+
+    @Test
+    public void testClientRoundTrip() throws Exception {
+        Path root = Paths.get("daemon_round_trip");
+        ensureCleanDirectory(root);
+        Path stateFile = root.resolve("daemon.properties");
+        Path workingDir = root.resolve("target");
+        Files.createDirectories(workingDir);
+
+        try (JConfigDaemon daemon = new JConfigDaemon(stateFile)) {
+            Thread server = new Thread(() -> {
+                try {
+                    daemon.serve();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, "jconfig-daemon-test");
+            server.setDaemon(true);
+            server.start();
+
+            // the output of the command is sent to the client, not to the standard streams of the daemon
+            ClientResult help = run(stateFile, workingDir, new byte[0], "help");
+            assertThat(help.m_exitCode).isEqualTo(0);
+            assertThat(help.m_stdout).contains("Usage:").contains("merge");
+            assertThat(help.m_stderr).isEmpty();
+
+            ClientResult invalid = run(stateFile, workingDir, new byte[0], "merge");
+            assertThat(invalid.m_exitCode).isEqualTo(1);
+            assertThat(invalid.m_stderr).contains("Error:");
+
+            // the standard input is relayed on demand
+            ByteArrayOutputStream zip = new ByteArrayOutputStream();
+            try (ZipOutputStream out = new ZipOutputStream(zip)) {
+                out.putNextEntry(new ZipEntry("conf/app.properties"));
+                out.write("key=value\n".getBytes(UTF_8));
+            }
+            ClientResult merge = run(stateFile, workingDir, zip.toByteArray(), "merge", "-p", "-");
+            assertThat(merge.m_exitCode).isEqualTo(0);
+            assertThat(merge.m_stderr).isEmpty();
+            assertThat(new String(Files.readAllBytes(workingDir.resolve("conf/app.properties")), UTF_8)).isEqualTo("key=value\n");
+
+            ClientResult set = run(stateFile, workingDir, new byte[0], "set", "-f", "conf/app.properties", "other=value");
+            assertThat(set.m_exitCode).isEqualTo(0);
+            assertThat(new String(Files.readAllBytes(workingDir.resolve("conf/app.properties")), UTF_8)).contains("other=value");
+
+            // a client without the token is not served
+            Path forgedStateFile = root.resolve("forged.properties");
+            DaemonProtocol.writeState(forgedStateFile, daemon.getPort(), "forged");
+            assertThatThrownBy(() -> run(forgedStateFile, workingDir, new byte[0], "help")).isInstanceOf(IOException.class).
+                    hasMessageContaining("closed the connection");
+            assertThat(run(stateFile, workingDir, new byte[0], "help").m_exitCode).isEqualTo(0);
+        }
+        assertThat(stateFile).doesNotExist();
+    }
+
+    @Test
+    public void testConcurrentProgress() throws Exception {
+        Path root = Paths.get("daemon_concurrent_progress");
+        ensureCleanDirectory(root);
+        Path stateFile = root.resolve("daemon.properties");
+        Path workingDir = root.resolve("target");
+        Files.createDirectories(workingDir);
+
+        try (JConfigDaemon daemon = new JConfigDaemon(stateFile)) {
+            Thread server = new Thread(() -> {
+                try {
+                    daemon.serve();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, "jconfig-daemon-test");
+            server.setDaemon(true);
+            server.start();
+
+            // two clients merge slowly sent archives into the same directory at once, each one only receives the progress of its own operation
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                String[] args = {"--progress", "merge", "-p", "-"};
+                Future<ClientResult> first = executor.submit(() -> run(stateFile, workingDir, slowTar("first", 3), args));
+                Future<ClientResult> second = executor.submit(() -> run(stateFile, workingDir, slowTar("second", 8), args));
+
+                ClientResult firstResult = first.get();
+                assertThat(firstResult.m_exitCode).isEqualTo(0);
+                assertThat(firstResult.m_stderr).contains("merge 3 files").doesNotContain("merge 4 files");
+                ClientResult secondResult = second.get();
+                assertThat(secondResult.m_exitCode).isEqualTo(0);
+                assertThat(secondResult.m_stderr).contains("merge 8 files");
+            } finally {
+                executor.shutdown();
+            }
+            assertThat(workingDir.resolve("first/file2.txt")).exists();
+            assertThat(workingDir.resolve("second/file7.txt")).exists();
+        }
+    }
+
+    /**
+     * @return a TAR archive of {@code count} entries in the {@code dir} directory, each entry is only sent 150 ms after the previous one
+     */
+    private static InputStream slowTar(String dir, int count) {
+        Queue<byte[]> chunks = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            String name = dir + "/file" + i + ".txt";
+            byte[] content = name.getBytes(UTF_8);
+            byte[] chunk = new byte[1024];
+            System.arraycopy(tarHeader(name, content.length), 0, chunk, 0, 512);
+            System.arraycopy(content, 0, chunk, 512, content.length);
+            chunks.add(chunk);
+        }
+        chunks.add(new byte[1024]);
+
+        return new InputStream() {
+            @Nullable
+            private ByteArrayInputStream m_chunk;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (m_chunk == null || m_chunk.available() == 0) {
+                    byte[] chunk = chunks.poll();
+                    if (chunk == null) {
+                        return -1;
+                    }
+                    try {
+                        Thread.sleep(150);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    m_chunk = new ByteArrayInputStream(chunk);
+                }
+                return m_chunk.read(b, off, len);
+            }
+        };
+    }
+
+    private static byte[] tarHeader(String name, long size) {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(ISO_8859_1);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        System.arraycopy(String.format("%07o\0", 0644).getBytes(ISO_8859_1), 0, header, 100, 8);
+        System.arraycopy(String.format("%011o\0", size).getBytes(ISO_8859_1), 0, header, 124, 12);
+        header[156] = '0';
+        System.arraycopy("ustar\00000".getBytes(ISO_8859_1), 0, header, 257, 8);
+        // the checksum is computed with its own field filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        System.arraycopy(String.format("%06o\0 ", checksum).getBytes(ISO_8859_1), 0, header, 148, 8);
+        return header;
+    }
+
+    private static ClientResult run(Path stateFile, Path workingDir, byte[] stdin, String... args) throws IOException {
+        return run(stateFile, workingDir, new ByteArrayInputStream(stdin), args);
+    }
+
+    private static ClientResult run(Path stateFile, Path workingDir, InputStream stdin, String... args) throws IOException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        int exitCode = JConfigClient.run(args, stateFile, workingDir, stdin, stdout, stderr);
+        return new ClientResult(exitCode, new String(stdout.toByteArray(), UTF_8), new String(stderr.toByteArray(), UTF_8));
+    }
+
+    private static void ensureCleanDirectory(Path dir) throws IOException {
+        if (Files.exists(dir)) {
+            try (Stream<Path> pathStream = Files.walk(dir)) {
+                for (Path path : pathStream.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+        Files.createDirectories(dir);
+    }
+
+    private static final class ClientResult {
+        private final int m_exitCode;
+        private final String m_stdout;
+        private final String m_stderr;
+
+        ClientResult(int exitCode, String stdout, String stderr) {
+            m_exitCode = exitCode;
+            m_stdout = stdout;
+            m_stderr = stderr;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.xfournet.jconfig;
+
+import java.nio.file.Path;
+import java.util.function.*;
+import javax.annotation.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Options of the {@link JConfig#apply(Path, ApplyOptions)} command.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ApplyOptions {
+    private static final Predicate<Path> ALL_PATHS = path -> true;
+
+    private Predicate<Path> m_pathFilter = ALL_PATHS;
+    @Nullable
+    private Path m_undoFile;
+    @Nullable
+    private Path m_blobStore;
+    private boolean m_linkBlobs;
+
+    private ApplyOptions() {
+    }
+
+    /**
+     * Restrict the apply to some files. With an {@link DiffFormat#INDEXED} diff file, the content of the rejected sections is not even read.
+     *
+     * @param pathFilter the predicate that indicates which file (relative to the target directory) must be updated
+     */
+    public ApplyOptions setPathFilter(Predicate<Path> pathFilter) {
+        m_pathFilter = requireNonNull(pathFilter);
+        return this;
+    }
+
+    public Predicate<Path> getPathFilter() {
+        return m_pathFilter;
+    }
+
+    /**
+     * Generate an inverse diff file while applying. Applying the inverse diff file restores the files touched by the apply: files that are deleted are
+     * restored by an overwrite section, files that are created are deleted and merged files get back the previous values of the changed entries.<br>
+     * The inverse diff file uses the format of the applied diff file, and is only written if the apply succeeds.
+     *
+     * @param undoFile the inverse diff file to be generated, or {@code null} to not generate it
+     */
+    public ApplyOptions setUndoFile(@Nullable Path undoFile) {
+        m_undoFile = undoFile;
+        return this;
+    }
+
+    @Nullable
+    public Path getUndoFile() {
+        return m_undoFile;
+    }
+
+    /**
+     * Specify the content-addressed store where the blobs referenced by the diff file are read, see {@link DiffOptions#setBlobStore(Path)}. Blobs are
+     * copied to the target files, see {@link #setLinkBlobs(boolean)}.
+     *
+     * @param blobStore the blob store directory, or {@code null} if the diff file doesn't reference blobs
+     */
+    public ApplyOptions setBlobStore(@Nullable Path blobStore) {
+        m_blobStore = blobStore;
+        return this;
+    }
+
+    @Nullable
+    public Path getBlobStore() {
+        return m_blobStore;
+    }
+
+    /**
+     * Hard link the blobs to the target files instead of copying them, when the file system permits it. It saves disk space and I/O for large blobs,
+     * but a target file then shares its content with the blob store: it must never be modified in place, eg by an application that opens it for
+     * writing, since it would also corrupt the blob and every other target file linked to it.
+     *
+     * @param linkBlobs {@code true} to link the blobs, {@code false} (default) to copy them
+     */
+    public ApplyOptions setLinkBlobs(boolean linkBlobs) {
+        m_linkBlobs = linkBlobs;
+        return this;
+    }
+
+    public boolean isLinkBlobs() {
+        return m_linkBlobs;
+    }
+
+    /**
+     * @return a new {@link ApplyOptions} with default values
+     */
+    public static ApplyOptions applyOptions() {
+        return new ApplyOptions();
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.xfournet.jconfig;
+
+import java.nio.file.Path;
+import javax.annotation.*;
+
+/**
+ * Result of the apply of a diff file to one of the target directories given to
+ * {@link JConfigBuilder#applyToTargets(Path, java.util.List, ApplyOptions)}.
+ */
+public final class ApplyResult {
+    private final Path m_targetDir;
+    @Nullable
+    private final RuntimeException m_failure;
+    private final boolean m_partiallyCommitted;
+    private final OperationStats m_stats;
+
+    public ApplyResult(Path targetDir, @Nullable RuntimeException failure, boolean partiallyCommitted, OperationStats stats) {
+        m_targetDir = targetDir;
+        m_failure = failure;
+        m_partiallyCommitted = partiallyCommitted;
+        m_stats = stats;
+    }
+
+    public Path getTargetDir() {
+        return m_targetDir;
+    }
+
+    public boolean isSucceeded() {
+        return m_failure == null;
+    }
+
+    /**
+     * @return the exception that made the apply fail, or {@code null} if it succeeded
+     */
+    @Nullable
+    public RuntimeException getFailure() {
+        return m_failure;
+    }
+
+    /**
+     * A failed apply leaves the target directory unchanged, unless it failed while the updated files were being moved in place: the files moved
+     * before the failure are kept, the target directory then mixes updated and previous files.
+     *
+     * @return {@code true} if the apply failed after some files of the target directory were updated
+     */
+    public boolean isPartiallyCommitted() {
+        return m_partiallyCommitted;
+    }
+
+    /**
+     * @return the statistics of the apply to the target directory, the diff file is parsed once for all the target directories so there is no
+     * {@code parse} phase
+     */
+    public OperationStats getStats() {
+        return m_stats;
+    }
+
+    @Override
+    public String toString() {
+        return m_targetDir + (m_failure == null ? ": applied" : (m_partiallyCommitted ? ": partially committed, " : ": failed, ") + m_failure.getMessage());
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.xfournet.jconfig;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Asynchronous variant of {@link JConfig}: each operation is run by an {@link Executor} and returns a {@link CompletableFuture} which completes when
+ * the operation is committed, or exceptionally with the exception thrown by the operation, see {@link JConfigBuilder#buildAsync(Path)}.
+ * <p>
+ * The operations keep their transactional behavior and the operations of a target directory are still serialized by its lock file, so several
+ * operations submitted at once on the same target are run one after the other. The listeners are notified in the thread of the executor that ran
+ * the operation.
+ */
+public interface AsyncJConfig {
+    /**
+     * @return the target directory of the operations
+     */
+    Path targetDir();
+
+    /**
+     * @return the blocking {@link JConfig} that runs the operations
+     */
+    JConfig jConfig();
+
+    /**
+     * See {@link JConfig#apply(Path)}.
+     */
+    CompletableFuture<Void> apply(Path diffFile);
+
+    /**
+     * See {@link JConfig#apply(Path, ApplyOptions)}.
+     */
+    CompletableFuture<Void> apply(Path diffFile, ApplyOptions options);
+
+    /**
+     * See {@link JConfig#diff(Path, Path)}.
+     */
+    CompletableFuture<Void> diff(Path referenceDir, Path diffFile);
+
+    /**
+     * See {@link JConfig#diff(Path, Path, DiffOptions)}.
+     */
+    CompletableFuture<Void> diff(Path referenceDir, Path diffFile, DiffOptions options);
+
+    /**
+     * See {@link JConfig#fingerprint()}.
+     */
+    CompletableFuture<String> fingerprint();
+
+    /**
+     * See {@link JConfig#merge(Path)}.
+     */
+    CompletableFuture<Void> merge(Path source);
+
+    /**
+     * See {@link JConfig#setEntries(Path, List)}.
+     */
+    CompletableFuture<Void> setEntries(Path file, List<String> entries);
+
+    /**
+     * See {@link JConfig#removeEntries(Path, List)}.
+     */
+    CompletableFuture<Void> removeEntries(Path file, List<String> entries);
+
+    /**
+     * See {@link JConfig#batch(Consumer)}, the operations of the batch are run in a single thread of the executor.
+     */
+    CompletableFuture<Void> batch(Consumer<JConfig> operations);
+}
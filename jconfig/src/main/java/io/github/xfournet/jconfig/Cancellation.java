@@ -0,0 +1,89 @@
+package io.github.xfournet.jconfig;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.function.*;
+import javax.annotation.*;
+
+/**
+ * Cooperative cancellation of the operations run by a {@link JConfig}. An operation is cancelled when its thread is interrupted or when its timeout
+ * (see {@link JConfigBuilder#setTimeout(Duration)}) or the timeout of an enclosing {@link Cancellation} is exceeded.<br>
+ * The cancellation is checked between the files, by the {@link FileContentHandler}s while they process a file (see {@link #checkCancelled()}) and
+ * while waiting for the locks of the target directory. A cancelled operation fails with a {@link CancellationException} and is rolled back like any
+ * other failed operation.
+ */
+public final class Cancellation {
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+
+    @Nullable
+    private final Cancellation m_parent;
+    @Nullable
+    private final Duration m_timeout;
+    private final long m_deadline;
+
+    /**
+     * Create a cancellation that is enclosed by the current one of the calling thread, if any.
+     *
+     * @param timeout the maximum duration from now, or {@code null} if there is none
+     */
+    public Cancellation(@Nullable Duration timeout) {
+        m_parent = CURRENT.get();
+        m_timeout = timeout;
+        m_deadline = timeout != null ? System.nanoTime() + timeout.toNanos() : 0;
+    }
+
+    /**
+     * @throws CancellationException if the current thread is interrupted or if the timeout is exceeded
+     */
+    public void check() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Operation interrupted");
+        }
+        for (Cancellation cancellation = this; cancellation != null; cancellation = cancellation.m_parent) {
+            if (cancellation.m_timeout != null && System.nanoTime() - cancellation.m_deadline > 0) {
+                throw new CancellationException("Operation timed out after " + cancellation.m_timeout);
+            }
+        }
+    }
+
+    /**
+     * Run an action with this cancellation as the current one of the calling thread, eg in the threads that process the files of an operation.
+     *
+     * @param action the action to be run
+     * @return the result of the action
+     */
+    public <T> T call(Supplier<T> action) {
+        Cancellation previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return action.get();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the current cancellation of the calling thread, or {@code null} if the thread is not running an operation
+     */
+    @Nullable
+    public static Cancellation current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Check the cancellation of the operation run by the calling thread, to be called periodically by the {@link FileContentHandler}s that may
+     * process large contents. Nothing is checked when the thread is not running an operation.
+     *
+     * @throws CancellationException if the operation is cancelled
+     */
+    public static void checkCancelled() {
+        Cancellation cancellation = CURRENT.get();
+        if (cancellation != null) {
+            cancellation.check();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.xfournet.jconfig;
+
+/**
+ * The formats of diff files. Both formats contain the same information and can be converted to each other without loss.
+ */
+public enum DiffFormat {
+    /**
+     * {@code .ini} like text format, a section per file introduced by a {@code [path mode]} header.
+     */
+    TEXT,
+
+    /**
+     * Binary format starting with an index of the sections, so that sections can be read selectively without reading the whole file.
+     */
+    INDEXED
+}
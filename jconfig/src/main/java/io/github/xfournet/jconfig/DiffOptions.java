@@ -0,0 +1,124 @@
+package io.github.xfournet.jconfig;
+
+import java.nio.file.Path;
+import javax.annotation.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Options of the {@link JConfig#diff(Path, Path, DiffOptions)} command.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class DiffOptions {
+    private DiffFormat m_format = DiffFormat.TEXT;
+    private boolean m_recordImageHashes;
+    private boolean m_detectCopies;
+    @Nullable
+    private Path m_blobStore;
+    private boolean m_useFingerprints;
+    @Nullable
+    private Path m_fingerprintCache;
+
+    private DiffOptions() {
+    }
+
+    /**
+     * Specify the format of the generated diff file, {@link DiffFormat#TEXT} by default.
+     *
+     * @param format the diff file format
+     */
+    public DiffOptions setFormat(DiffFormat format) {
+        m_format = requireNonNull(format);
+        return this;
+    }
+
+    public DiffFormat getFormat() {
+        return m_format;
+    }
+
+    /**
+     * Record in each section the hash of the file before and after the section is applied. When such a diff file is applied, sections already applied
+     * are skipped, and the apply fails if a file has neither the expected pre-image nor the expected post-image content.
+     *
+     * @param recordImageHashes {@code true} to record the image hashes, {@code false} by default
+     */
+    public DiffOptions setRecordImageHashes(boolean recordImageHashes) {
+        m_recordImageHashes = recordImageHashes;
+        return this;
+    }
+
+    public boolean isRecordImageHashes() {
+        return m_recordImageHashes;
+    }
+
+    /**
+     * Detect the files that have the same content as a file of the reference directory, eg renamed or copied files. Such files are described by a
+     * {@code copy-from} section that references the reference file instead of embedding the content.
+     *
+     * @param detectCopies {@code true} to detect the copies, {@code false} by default
+     */
+    public DiffOptions setDetectCopies(boolean detectCopies) {
+        m_detectCopies = detectCopies;
+        return this;
+    }
+
+    public boolean isDetectCopies() {
+        return m_detectCopies;
+    }
+
+    /**
+     * Store the binary contents in a local content-addressed store instead of embedding them in the diff file. The diff file then references them by
+     * their SHA-256 hash, and identical contents are stored once. The same store must be given to {@link ApplyOptions#setBlobStore(Path)} to apply the
+     * diff file.
+     *
+     * @param blobStore the blob store directory, created if needed, or {@code null} to embed the binary contents
+     */
+    public DiffOptions setBlobStore(@Nullable Path blobStore) {
+        m_blobStore = blobStore;
+        return this;
+    }
+
+    @Nullable
+    public Path getBlobStore() {
+        return m_blobStore;
+    }
+
+    /**
+     * Compare the directories with their fingerprints first, see {@link JConfig#fingerprint()}. Subtrees with the same fingerprint are skipped
+     * without walking nor comparing their files, and identical directories give an empty diff file right away.<br>
+     * The fingerprints hash all the files of both directories, except the ones whose hash is in the {@link #setFingerprintCache(Path) cache}: without
+     * a warm cache the files are read once more than by a plain diff, so it only pays off when the file handlers are much slower than hashing.
+     *
+     * @param useFingerprints {@code true} to use the fingerprints, {@code false} by default
+     */
+    public DiffOptions setUseFingerprints(boolean useFingerprints) {
+        m_useFingerprints = useFingerprints;
+        return this;
+    }
+
+    public boolean isUseFingerprints() {
+        return m_useFingerprints;
+    }
+
+    /**
+     * Specify a persistent cache of the file hashes used to compute the fingerprints, see {@link JConfig#fingerprint(Path)}.
+     *
+     * @param fingerprintCache the cache file, or {@code null} to hash all the files
+     */
+    public DiffOptions setFingerprintCache(@Nullable Path fingerprintCache) {
+        m_fingerprintCache = fingerprintCache;
+        return this;
+    }
+
+    @Nullable
+    public Path getFingerprintCache() {
+        return m_fingerprintCache;
+    }
+
+    /**
+     * @return a new {@link DiffOptions} with default values
+     */
+    public static DiffOptions diffOptions() {
+        return new DiffOptions();
+    }
+}
@@ -35,6 +35,36 @@ public interface FileContentHandler {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Compose two successive diffs into a single one.<br>
+     * The default implementation supersedes {@code diff} when {@code nextDiff} is an overwrite, and materializes the content when {@code diff} is an
+     * overwrite. Merge diffs can only be composed by handlers that know their instructions.
+     *
+     * @param diff the {@link Diff} object applied first
+     * @param nextDiff the {@link Diff} object applied after {@code diff}
+     * @return a {@link Diff} object that is equivalent to apply {@code diff} then {@code nextDiff}
+     * @throws IOException in case an error occurs on a stream
+     */
+    default Diff compose(Diff diff, Diff nextDiff) throws IOException {
+        if (nextDiff.isOverwrite()) {
+            return nextDiff;
+        }
+
+        if (diff.isOverwrite()) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            apply(null, content, diff);
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            apply(new ByteArrayInputStream(content.toByteArray()), result, nextDiff);
+            Diff composedDiff = diff(new ByteArrayInputStream(result.toByteArray()), null);
+            if (composedDiff == null) {
+                throw new IllegalStateException("Overwrite diff expected");
+            }
+            return composedDiff;
+        }
+
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * Merge two inputs to a single output.
      *
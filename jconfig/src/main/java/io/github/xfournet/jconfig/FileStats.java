@@ -0,0 +1,88 @@
+package io.github.xfournet.jconfig;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import javax.annotation.*;
+
+/**
+ * Statistics of a file processed by an operation, see {@link OperationStats#getFiles()}.
+ */
+public final class FileStats {
+    /**
+     * What an operation did with a file.
+     */
+    public enum Action {
+        /**
+         * The file was read but not written, eg a file compared by a diff or a diff file that is applied.
+         */
+        READ,
+        /**
+         * The file was created or rewritten.
+         */
+        WRITTEN,
+        /**
+         * The file was deleted.
+         */
+        DELETED,
+        /**
+         * The file was not processed since it's known to be unchanged, eg a section already applied or a file of a subtree which fingerprints are
+         * identical.
+         */
+        SKIPPED
+    }
+
+    private final Path m_path;
+    @Nullable
+    private final String m_handler;
+    private final Action m_action;
+    private final long m_bytesRead;
+    private final long m_bytesWritten;
+    private final Duration m_duration;
+
+    public FileStats(Path path, @Nullable String handler, Action action, long bytesRead, long bytesWritten, Duration duration) {
+        m_path = path;
+        m_handler = handler;
+        m_action = action;
+        m_bytesRead = bytesRead;
+        m_bytesWritten = bytesWritten;
+        m_duration = duration;
+    }
+
+    /**
+     * @return the path of the file, relative to the target directory unless the file is outside of it, eg a diff file
+     */
+    public Path getPath() {
+        return m_path;
+    }
+
+    /**
+     * @return the simple class name of the {@link FileContentHandler} that processed the file, or {@code null} if the file was processed without
+     * handler, eg a copied or deleted file
+     */
+    @Nullable
+    public String getHandler() {
+        return m_handler;
+    }
+
+    public Action getAction() {
+        return m_action;
+    }
+
+    public long getBytesRead() {
+        return m_bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return m_bytesWritten;
+    }
+
+    public Duration getDuration() {
+        return m_duration;
+    }
+
+    @Override
+    public String toString() {
+        return m_path + " " + m_action + (m_handler != null ? " (" + m_handler + ")" : "") + ": " + m_bytesRead + " bytes read, " + m_bytesWritten +
+                " bytes written in " + m_duration.toMillis() + " ms";
+    }
+}
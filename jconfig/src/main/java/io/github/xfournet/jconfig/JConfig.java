@@ -1,5 +1,6 @@
 package io.github.xfournet.jconfig;
 
+import java.io.*;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.function.*;
@@ -22,24 +23,103 @@ public interface JConfig {
      */
     void apply(Path diffFile);
 
+    /**
+     * Apply a diff file to {@link #targetDir()} with options.<br>
+     * {@code apply(targetDir, diffFile) => targetDir'}
+     *
+     * @param diffFile the diff file to be applied, in any {@link DiffFormat}
+     * @param options the apply options
+     */
+    void apply(Path diffFile, ApplyOptions options);
+
+    /**
+     * Apply a diff file to the {@link #targetDir()}, which must be a ZIP file, and write the result to another ZIP file. The target is not modified.<br>
+     * {@code apply(targetZip, diffFile) => outputZip}<br>
+     * The result is written in a single pass: unchanged entries are copied without being decompressed and recompressed, the changed entries are
+     * rewritten and the created files are appended.
+     *
+     * @param diffFile the diff file to be applied, in any {@link DiffFormat}
+     * @param outputArchive the ZIP file to be written
+     * @param options the apply options, generating an undo file is not supported
+     */
+    void applyToArchive(Path diffFile, Path outputArchive, ApplyOptions options);
+
     /**
      * Generate a diff file by comparing the {@link #targetDir()} with a reference one. Applying generated diff file to reference directory should give the same than the target directory.<br>
      * {@code diff(targetDir, referenceDir) => diffFile}<br>
-     * {@code apply(referenceDir, diffFile) => targetDir}
+     * {@code apply(referenceDir, diffFile) => targetDir}<br>
+     * The reference, and the {@link #targetDir()} too, may also be a ZIP or TAR file (optionally gzip compressed), which is read in place without
+     * being extracted.
      *
-     * @param referenceDir the reference directory
+     * @param referenceDir the reference directory, or a ZIP or TAR file
      * @param diffFile the diff file result
      */
     void diff(Path referenceDir, Path diffFile);
 
     /**
-     * Merge a directory or a ZIP file to the {@link #targetDir()}.<br>
+     * Generate a diff file by comparing the {@link #targetDir()} with a reference one, with options.<br>
+     * {@code diff(targetDir, referenceDir) => diffFile}
+     *
+     * @param referenceDir the reference directory, or a ZIP or TAR file
+     * @param diffFile the diff file result
+     * @param options the diff options
+     */
+    void diff(Path referenceDir, Path diffFile, DiffOptions options);
+
+    /**
+     * Convert a diff file to another format.
+     *
+     * @param diffFile the diff file to be converted, in any {@link DiffFormat}
+     * @param outputFile the converted diff file
+     * @param format the format of the converted diff file
+     */
+    void convertDiff(Path diffFile, Path outputFile, DiffFormat format);
+
+    /**
+     * Compose a chain of diff files into a single one, without touching the {@link #targetDir()}.<br>
+     * {@code composeDiffs(diffFile1, ..., diffFileN) => diffFile}, where applying {@code diffFile} is equivalent to apply {@code diffFile1} to
+     * {@code diffFileN} in order.
+     *
+     * @param diffFiles the diff files to be composed, in the order they would be applied, in any {@link DiffFormat}
+     * @param outputFile the composed diff file
+     * @param format the format of the composed diff file
+     */
+    void composeDiffs(List<Path> diffFiles, Path outputFile, DiffFormat format);
+
+    /**
+     * Compute the fingerprint of the {@link #targetDir()}, ie a hash of all its files (paths and contents) that are accepted by the path filter.
+     * Two directories with the same files have the same fingerprint, so a drift from a reference can be detected by comparing fingerprints.
+     *
+     * @return the fingerprint of the target directory
+     */
+    String fingerprint();
+
+    /**
+     * Compute the fingerprint of the {@link #targetDir()}, see {@link #fingerprint()}, with a persistent cache of the file hashes. Files which size and
+     * modification time are unchanged since the cache was written are not read again.
+     *
+     * @param cacheFile the cache file, created if it doesn't exist
+     * @return the fingerprint of the target directory
+     */
+    String fingerprint(Path cacheFile);
+
+    /**
+     * Merge a directory or an archive file to the {@link #targetDir()}.<br>
      * {@code merge(targetDir, source) => targetDir'}
      *
-     * @param source the source to be applied to the target. This can be either a directory or a ZIP file.
+     * @param source the source to be applied to the target. This can be either a directory, a ZIP file or a TAR file (optionally gzip compressed).
      */
     void merge(Path source);
 
+    /**
+     * Merge an archive stream to the {@link #targetDir()}. The archive is merged while it is read, so the stream doesn't need to be seekable (eg standard
+     * input or a pipe).<br>
+     * {@code merge(targetDir, archive) => targetDir'}
+     *
+     * @param archive a ZIP or TAR (optionally gzip compressed) stream, the format is detected from the content. The stream is not closed.
+     */
+    void merge(InputStream archive);
+
     /**
      * Merge contents to the {@link #targetDir()}.<br>
      * {@code merge(targetDir, contents) => targetDir'}
@@ -91,4 +171,15 @@ public interface JConfig {
      * {@code Map} or {@code Properties} can be easily use here thanks to function reference, eg {@code map::get} or {@code props::getProperty}
      */
     void filter(Path file, UnaryOperator<String> expressionProcessor);
+
+    /**
+     * Run several operations in a single transaction: their modifications are committed all together at the end of the batch, or not at all if an
+     * operation fails.<br>
+     * Each operation sees the modifications of the previous ones. The successive {@link #setEntries(Path, List)}, {@link #removeEntries(Path, List)}
+     * and {@link #filter(Path, UnaryOperator)} operations are grouped by file, so that a file is read and written only once. {@link #diff(Path, Path)}
+     * and {@link #fingerprint()} read the target directory as it was before the batch.
+     *
+     * @param operations the operations to be run on the given {@link JConfig}, which must not be used after the batch
+     */
+    void batch(Consumer<JConfig> operations);
 }
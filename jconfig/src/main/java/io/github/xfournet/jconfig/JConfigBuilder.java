@@ -1,8 +1,14 @@
 package io.github.xfournet.jconfig;
 
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
+import javax.annotation.*;
+import io.github.xfournet.jconfig.impl.AsyncJConfigImpl;
 import io.github.xfournet.jconfig.impl.JConfigImpl;
+import io.github.xfournet.jconfig.impl.Workers;
 import io.github.xfournet.jconfig.jvm.JvmConfContentHandler;
 import io.github.xfournet.jconfig.properties.PropertiesContentHandler;
 import io.github.xfournet.jconfig.raw.RawFileContentHandler;
@@ -11,7 +17,8 @@ import static java.util.Objects.*;
 
 @SuppressWarnings("WeakerAccess")
 public class JConfigBuilder {
-    private static final Predicate<Path> DEFAULT_PATH_FILTER = path -> !path.startsWith("META-INF");
+    private static final PathFilter DEFAULT_PATH_FILTER = PathFilter.pathFilter(path -> !path.startsWith("META-INF"),
+                                                                                directory -> !directory.startsWith("META-INF"));
 
     private static final Function<Path, FileContentHandler> DEFAULT_FILE_CONTENT_HANDLER_RESOLVER = path -> {
         String fileName = path.getFileName().toString();
@@ -26,12 +33,24 @@ public class JConfigBuilder {
 
     private Predicate<Path> m_pathFilter = defaultPathFilter();
     private Function<Path, FileContentHandler> m_fileContentHandlerResolver = defaultFileContentHandlerResolver();
+    @Nullable
+    private Path m_lockFile;
+    private int m_parallelism = Runtime.getRuntime().availableProcessors();
+    // the threads shared by the JConfigs built with the current parallelism, created on the first build
+    @Nullable
+    private Workers m_workers;
+    private final List<JConfigListener> m_listeners = new ArrayList<>();
+    @Nullable
+    private Executor m_executor;
+    @Nullable
+    private Duration m_timeout;
 
     private JConfigBuilder() {
     }
 
     /**
-     * Specify a path filter to be used for filtering path in commands like diff, merge, ...
+     * Specify a path filter to be used for filtering path in commands like diff, merge, ...<br>
+     * When the filter is a {@link PathFilter}, the directories it rejects are skipped without walking their content.
      *
      * @param pathFilter the predicate that indicates which path must be processed
      */
@@ -51,13 +70,124 @@ public class JConfigBuilder {
     }
 
     /**
-     * Create a {@link JConfig} for the specified path.
+     * Specify the file used to serialize concurrent updates of the target directory, across threads and processes. By default the lock file is a
+     * sibling of the target directory named {@code .<directory name>.jconfig.lock}, the users updating the target directory must be allowed to create it
+     * and to write it. When several users update the same target directory, the lock file should be created once with permissions allowing all of them to
+     * write it, otherwise the first user that creates it prevents the others from locking the directory.
+     *
+     * @param lockFile the lock file, or {@code null} to use the default one
+     */
+    public JConfigBuilder setLockFile(@Nullable Path lockFile) {
+        m_lockFile = lockFile;
+        return this;
+    }
+
+    /**
+     * Specify the maximum number of threads used to process files in parallel, eg when merging a ZIP file. By default the number of available processors
+     * is used. The threads are shared by the {@link JConfig}s built with the same parallelism.
+     *
+     * @param parallelism the maximum number of threads, {@code 1} to process files sequentially
+     */
+    public JConfigBuilder setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+        if (parallelism != m_parallelism) {
+            m_parallelism = parallelism;
+            m_workers = null;
+        }
+        return this;
+    }
+
+    /**
+     * Add a listener that receives the statistics of the operations: duration of each phase, and for each processed file its handler, what was done,
+     * and the bytes read and written. Statistics are only collected when there is at least one listener.
+     *
+     * @param listener the listener to be added
+     */
+    public JConfigBuilder addListener(JConfigListener listener) {
+        m_listeners.add(requireNonNull(listener));
+        return this;
+    }
+
+    /**
+     * Specify the maximum duration of each operation, an operation that exceeds it is cancelled and rolled back, see {@link Cancellation}. The timeout
+     * is checked between the files, while the handlers process a file and while waiting for the lock of the target directory.
+     *
+     * @param timeout the maximum duration of an operation, or {@code null} for no timeout
+     */
+    public JConfigBuilder setTimeout(@Nullable Duration timeout) {
+        if (timeout != null && (timeout.isNegative() || timeout.isZero())) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeout);
+        }
+        m_timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Specify the executor that runs the operations of the {@link AsyncJConfig}s built by {@link #buildAsync(Path)}. By default the operations are run
+     * in virtual threads on Java 21 and later, and by a shared pool of daemon threads on older versions.
+     *
+     * @param executor the executor, or {@code null} to use the default one
+     */
+    public JConfigBuilder setExecutor(@Nullable Executor executor) {
+        m_executor = executor;
+        return this;
+    }
+
+    /**
+     * Create a {@link JConfig} for the specified path. The target directory may be located on any NIO file system, eg a ZIP file system or an in-memory
+     * one, to stage updates before they are flushed at once. The lock file (the default one is in the temporary directory) must be on a file system
+     * that supports file locks.
      *
      * @param targetDir the target directory for commands
      * @return a new {@link JConfig} for the specified {@code targetDir}
      */
     public JConfig build(Path targetDir) {
-        return new JConfigImpl(targetDir, m_pathFilter, m_fileContentHandlerResolver);
+        return newJConfig(targetDir);
+    }
+
+    /**
+     * Create an {@link AsyncJConfig} for the specified path, which runs the operations of the {@link JConfig} returned by {@link #build(Path)} with
+     * the {@link #setExecutor(Executor) executor}.
+     *
+     * @param targetDir the target directory for commands
+     * @return a new {@link AsyncJConfig} for the specified {@code targetDir}
+     */
+    public AsyncJConfig buildAsync(Path targetDir) {
+        return new AsyncJConfigImpl(build(targetDir), m_executor);
+    }
+
+    /**
+     * Apply a diff file to several target directories, eg the directories of the tenants of a node. The diff file is parsed once, then each target
+     * directory is updated by its {@link JConfig} (see {@link #build(Path)}) in its own transaction, up to {@link #setParallelism(int) parallelism}
+     * target directories at once.<br>
+     * A failure doesn't stop the apply to the other target directories, it's reported in the result of its target directory. The target directory is
+     * left unchanged, unless the failure happened while its updated files were moved in place, see {@link ApplyResult#isPartiallyCommitted()}.
+     * The target directories should use their default lock file, a {@link #setLockFile(Path) lock file} shared by all of them serializes their updates.
+     *
+     * @param diffFile the diff file to be applied, in any {@link DiffFormat}
+     * @param targetDirs the target directories
+     * @param options the apply options, generating an undo file is not supported
+     * @return the result of each target directory, in the order of {@code targetDirs}
+     */
+    public List<ApplyResult> applyToTargets(Path diffFile, List<Path> targetDirs, ApplyOptions options) {
+        List<JConfigImpl> jConfigs = new ArrayList<>();
+        for (Path targetDir : targetDirs) {
+            jConfigs.add(newJConfig(targetDir));
+        }
+        return JConfigImpl.applyToTargets(jConfigs, diffFile, options, workers());
+    }
+
+    private JConfigImpl newJConfig(Path targetDir) {
+        return new JConfigImpl(targetDir, m_pathFilter, m_fileContentHandlerResolver, m_lockFile, workers(), m_listeners, m_timeout);
+    }
+
+    private Workers workers() {
+        if (m_workers == null) {
+            m_workers = new Workers(m_parallelism);
+        }
+        return m_workers;
     }
 
     /**
@@ -68,12 +198,20 @@ public class JConfigBuilder {
     }
 
     /**
-     * @return the default path filter that ignore META-INF files (for JAR archives merge)
+     * @return the default path filter that ignore META-INF files (for JAR archives merge), it's the {@link #defaultPrunedPathFilter()}
      */
     public static Predicate<Path> defaultPathFilter() {
         return DEFAULT_PATH_FILTER;
     }
 
+    /**
+     * @return the default path filter that ignore META-INF files (for JAR archives merge), as a {@link PathFilter} that also skips the content of the
+     * META-INF directories, eg to be combined with other filters
+     */
+    public static PathFilter defaultPrunedPathFilter() {
+        return DEFAULT_PATH_FILTER;
+    }
+
     /**
      * @return the default {@link FileContentHandler} resolver function
      */
@@ -0,0 +1,46 @@
+package io.github.xfournet.jconfig;
+
+/**
+ * Receive the statistics of the operations run by a {@link JConfig}, see {@link JConfigBuilder#addListener(JConfigListener)}.<br>
+ * An exception thrown by a listener doesn't change the outcome of the operation: it's added as suppressed to the exception of a failed operation,
+ * and ignored when the operation succeeded.
+ */
+@FunctionalInterface
+public interface JConfigListener {
+    /**
+     * Called when an operation completes, successfully or not, in the thread that called the operation. The operations of a
+     * {@link JConfig#batch(java.util.function.Consumer) batch} are notified one by one, then the batch itself is notified once committed.
+     *
+     * @param stats the statistics of the operation
+     */
+    void operationCompleted(OperationStats stats);
+
+    /**
+     * Called when an operation starts, in the thread that called the operation. The listener may keep there what the operation is reported to, eg
+     * to print the progress notified by the other threads that process the files of the operation.
+     *
+     * @param progress the progress of the operation, the same instance than the one given to {@link #operationProgress(OperationProgress)}
+     */
+    default void operationStarted(OperationProgress progress) {
+    }
+
+    /**
+     * Called each time a file is processed by an operation, and once more when the operation completes, before
+     * {@link #operationCompleted(OperationStats)}. The files may be processed in parallel, so this method may be called concurrently by several
+     * threads.
+     *
+     * @param progress the progress of the operation, the same instance for all the notifications of the operation
+     */
+    default void operationProgress(OperationProgress progress) {
+    }
+
+    /**
+     * Statistics are only collected when at least one listener is enabled, a listener that is only interested in some operations can be disabled
+     * between them so that they don't pay for the collection.
+     *
+     * @return {@code true} if the listener must be notified of the operations that start now
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+package io.github.xfournet.jconfig;
+
+/**
+ * Progress of an operation run by a {@link JConfig}, given to {@link JConfigListener#operationProgress(OperationProgress)}.<br>
+ * The same instance is given for all the notifications of an operation, its values are updated while the operation progresses and may be read from
+ * any thread.
+ */
+public interface OperationProgress {
+    /**
+     * @return the name of the operation, see {@link OperationStats#getOperation()}
+     */
+    String getOperation();
+
+    /**
+     * @return the number of files processed so far, see {@link OperationStats#getFiles()}
+     */
+    int getFilesDone();
+
+    /**
+     * @return the number of files to be processed, or {@code -1} if it's not known, eg when merging an archive stream. It's not known either before
+     * the operation has listed its files, eg while a diff walks the directories.
+     */
+    int getFileCount();
+
+    /**
+     * @return the number of bytes read and written by the files processed so far
+     */
+    long getBytesProcessed();
+
+    /**
+     * @return {@code true} once the operation is completed, successfully or not
+     */
+    boolean isCompleted();
+}
@@ -0,0 +1,92 @@
+package io.github.xfournet.jconfig;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Statistics of an operation run by a {@link JConfig}, given to the {@link JConfigListener}s.
+ * <p>
+ * The duration of an operation is split in phases which names depend on the operation, eg {@code parse}, {@code process} and {@code commit} for an
+ * apply: {@code parse} reads the diff file, {@code process} runs the handlers and writes the temporary files, and {@code commit} moves the temporary
+ * files in place.
+ */
+public final class OperationStats {
+    private final String m_operation;
+    private final boolean m_succeeded;
+    private final Duration m_duration;
+    private final Map<String, Duration> m_phases;
+    private final List<FileStats> m_files;
+
+    public OperationStats(String operation, boolean succeeded, Duration duration, Map<String, Duration> phases, List<FileStats> files) {
+        m_operation = operation;
+        m_succeeded = succeeded;
+        m_duration = duration;
+        m_phases = Collections.unmodifiableMap(new LinkedHashMap<>(phases));
+        m_files = Collections.unmodifiableList(new ArrayList<>(files));
+    }
+
+    /**
+     * @return the name of the operation, ie the name of the {@link JConfig} method, eg {@code apply} or {@code setEntries}
+     */
+    public String getOperation() {
+        return m_operation;
+    }
+
+    /**
+     * @return {@code false} if the operation failed, its staged modifications were then discarded
+     */
+    public boolean isSucceeded() {
+        return m_succeeded;
+    }
+
+    public Duration getDuration() {
+        return m_duration;
+    }
+
+    /**
+     * @return the duration of each phase, in execution order
+     */
+    public Map<String, Duration> getPhases() {
+        return m_phases;
+    }
+
+    /**
+     * @return the files processed by the operation, in processing order
+     */
+    public List<FileStats> getFiles() {
+        return m_files;
+    }
+
+    public long getBytesRead() {
+        return m_files.stream().mapToLong(FileStats::getBytesRead).sum();
+    }
+
+    public long getBytesWritten() {
+        return m_files.stream().mapToLong(FileStats::getBytesWritten).sum();
+    }
+
+    /**
+     * @return the number of files that were created or rewritten
+     */
+    public int getFilesRewritten() {
+        return count(FileStats.Action.WRITTEN);
+    }
+
+    /**
+     * @return the number of files that were skipped since they're known to be unchanged
+     */
+    public int getFilesSkipped() {
+        return count(FileStats.Action.SKIPPED);
+    }
+
+    private int count(FileStats.Action action) {
+        return (int) m_files.stream().filter(file -> file.getAction() == action).count();
+    }
+
+    @Override
+    public String toString() {
+        return m_operation + (m_succeeded ? "" : " (failed)") + " in " + m_duration.toMillis() + " ms " + m_phases + ": " + m_files.size() +
+                " files, " + getFilesRewritten() + " rewritten, " + getFilesSkipped() + " skipped, " + getBytesRead() + " bytes read, " + getBytesWritten() +
+                " bytes written";
+    }
+}
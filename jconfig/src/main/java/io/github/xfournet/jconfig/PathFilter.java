@@ -0,0 +1,43 @@
+package io.github.xfournet.jconfig;
+
+import java.nio.file.Path;
+import java.util.function.*;
+
+/**
+ * A path filter that can also exclude whole directories, so that their content is not walked at all.
+ */
+@FunctionalInterface
+public interface PathFilter extends Predicate<Path> {
+
+    /**
+     * Indicate whether the content of a directory has to be processed. When {@code false} is returned, the directory and all its content are skipped
+     * without being listed, so {@link #test(Object)} is not called for them.
+     *
+     * @param directory the directory relative path
+     * @return {@code false} if the directory and its content must be skipped
+     */
+    default boolean acceptDirectory(Path directory) {
+        return true;
+    }
+
+    /**
+     * Create a {@link PathFilter} from a path predicate and a directory predicate.
+     *
+     * @param pathFilter the predicate that indicates which path must be processed
+     * @param directoryFilter the predicate that indicates which directory content must be processed
+     * @return a new {@link PathFilter}
+     */
+    static PathFilter pathFilter(Predicate<Path> pathFilter, Predicate<Path> directoryFilter) {
+        return new PathFilter() {
+            @Override
+            public boolean test(Path path) {
+                return pathFilter.test(path);
+            }
+
+            @Override
+            public boolean acceptDirectory(Path directory) {
+                return directoryFilter.test(directory);
+            }
+        };
+    }
+}
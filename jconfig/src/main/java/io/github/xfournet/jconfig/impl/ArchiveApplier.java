@@ -0,0 +1,127 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.*;
+import javax.annotation.*;
+import io.github.xfournet.jconfig.Diff;
+import io.github.xfournet.jconfig.FileContentHandler;
+
+import static io.github.xfournet.jconfig.FileStats.Action.*;
+
+/**
+ * Apply the sections of a diff file to a ZIP archive, see {@link io.github.xfournet.jconfig.JConfig#applyToArchive(Path, Path,
+ * io.github.xfournet.jconfig.ApplyOptions)}. The updated archive is written in a single pass by a {@link ZipRewriter}: the entries keep their order,
+ * the unchanged ones are copied raw and the created files are appended.
+ */
+final class ArchiveApplier {
+    private final Path m_archive;
+    private final Function<Path, FileContentHandler> m_fileHandlers;
+
+    /**
+     * @param archive the ZIP archive the sections are applied to, it's not modified
+     * @param fileHandlers the handler of each path
+     */
+    ArchiveApplier(Path archive, Function<Path, FileContentHandler> fileHandlers) {
+        m_archive = archive;
+        m_fileHandlers = fileHandlers;
+    }
+
+    /**
+     * @param sections the sections to be applied, by path
+     * @param outputFile the file where the updated archive is written
+     * @param blobStore the store of the blobs referenced by the sections, or {@code null} if there is none
+     */
+    void apply(OperationRecorder recorder, Map<String, Section> sections, Path outputFile, @Nullable BlobStore blobStore) {
+        Map<String, Section> remainingSections = new LinkedHashMap<>(sections);
+        try (FileChannel source = FileChannel.open(m_archive)) {
+            Map<String, ZipRewriter.SourceEntry> entries = new LinkedHashMap<>();
+            for (ZipRewriter.SourceEntry entry : ZipRewriter.readEntries(source)) {
+                // a section could only be applied to one of the entries of a same path
+                if (entries.put(entry.getName(), entry) != null) {
+                    throw new IllegalArgumentException("Duplicate entry in " + m_archive + ": " + entry.getName());
+                }
+            }
+
+            try (ZipRewriter rewriter = new ZipRewriter(source, Files.newOutputStream(outputFile))) {
+                // the entries keep their order, the created files are appended
+                for (ZipRewriter.SourceEntry entry : entries.values()) {
+                    Section section = entry.isDirectory() ? null : remainingSections.remove(entry.getName());
+                    if (section != null) {
+                        processSection(recorder, rewriter, section, entries, blobStore);
+                    } else {
+                        rewriter.copyRaw(entry, entry.getName());
+                    }
+                }
+                for (Section section : remainingSections.values()) {
+                    processSection(recorder, rewriter, section, entries, blobStore);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void processSection(OperationRecorder recorder, ZipRewriter rewriter, Section section, Map<String, ZipRewriter.SourceEntry> entries,
+                                @Nullable BlobStore blobStore) throws IOException {
+        OperationRecorder.FileStart start = recorder.fileStart();
+        Diff diff = section.getDiff();
+        String path = section.getPath();
+        ZipRewriter.SourceEntry entry = entries.get(path);
+
+        if (section.hasImageHashes()) {
+            String hash;
+            if (entry != null) {
+                try (InputStream in = rewriter.open(entry)) {
+                    hash = ContentHashes.hash(in);
+                }
+            } else {
+                hash = ContentHashes.ABSENT;
+            }
+            if (hash.equals(section.getPostImageHash())) {
+                // already applied
+                if (entry != null) {
+                    rewriter.copyRaw(entry, path);
+                }
+                recorder.file(Paths.get(path), null, SKIPPED, entry != null ? entry.getSize() : 0, 0, start);
+                return;
+            }
+            if (!hash.equals(section.getPreImageHash())) {
+                throw new IllegalStateException(
+                        "Unexpected content of " + path + ": expected hash " + section.getPreImageHash() + " (or " + section.getPostImageHash() +
+                                " if already applied), found " + hash);
+            }
+        }
+
+        if (section.isCopy()) {
+            ZipRewriter.SourceEntry copySource = entries.get(section.getCopyFrom());
+            if (copySource == null) {
+                throw new IllegalArgumentException("Copy source not found in " + m_archive + ": " + section.getCopyFrom());
+            }
+            rewriter.copyRaw(copySource, path);
+            recorder.file(Paths.get(path), null, WRITTEN, copySource.getSize(), copySource.getSize(), start);
+        } else if (diff != null && BlobStore.isBlobReference(diff)) {
+            if (blobStore == null) {
+                throw new IllegalArgumentException("A blob store is required to apply the section: " + path);
+            }
+            byte[] content = Files.readAllBytes(blobStore.resolve(diff));
+            rewriter.write(path, content, entry);
+            recorder.file(Paths.get(path), null, WRITTEN, content.length, content.length, start);
+        } else if (diff != null) {
+            FileContentHandler fileContentHandler = m_fileHandlers.apply(Paths.get(path));
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            try (InputStream sourceInput = entry != null ? rewriter.open(entry) : null) {
+                fileContentHandler.apply(sourceInput, result, diff);
+            }
+            rewriter.write(path, result.toByteArray(), entry);
+            recorder.file(Paths.get(path), fileContentHandler, WRITTEN, entry != null ? entry.getSize() : 0, result.size(), start);
+        } else {
+            // the file is deleted: the entry is not written
+            recorder.file(Paths.get(path), null, DELETED, 0, 0, start);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.*;
+import javax.annotation.*;
+import io.github.xfournet.jconfig.FileEntry;
+
+import static io.github.xfournet.jconfig.impl.JConfigImpl.FileEntryImpl.*;
+
+/**
+ * Sequential reader of an archive stream. The ZIP, TAR and gzip compressed TAR formats are detected from the content, the stream doesn't need to be
+ * seekable. Other formats are rejected.<br>
+ * The content of an entry can only be read until the next call to {@link #nextEntry()}.
+ */
+abstract class ArchiveReader implements Closeable {
+    private static final int MAGIC_LENGTH = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @param input the archive stream, it is not closed when the reader is closed
+     * @return a reader for the archive
+     * @throws IOException in case of I/O error
+     */
+    static ArchiveReader open(InputStream input) throws IOException {
+        InputStream in = new BufferedInputStream(new NonClosingInputStream(input), BUFFER_SIZE);
+        // the first block is read to detect a TAR archive, the TAR headers of a compressed archive are validated when they are read
+        byte[] magic = readMagic(in, TarInputStream.BLOCK_SIZE);
+
+        if (isZipMagic(magic)) {
+            return new ZipArchiveReader(new ZipInputStream(in));
+        } else if (isGzipMagic(magic)) {
+            return new TarArchiveReader(new TarInputStream(new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE)));
+        } else if (magic.length == TarInputStream.BLOCK_SIZE && (TarInputStream.isTarHeader(magic) || TarInputStream.isZeroBlock(magic))) {
+            return new TarArchiveReader(new TarInputStream(in));
+        } else {
+            throw new IOException("Unknown archive format, only ZIP, TAR and gzip compressed TAR archives are supported");
+        }
+    }
+
+    /**
+     * @param file a regular file
+     * @return {@code true} if the file is a ZIP file
+     * @throws IOException in case of I/O error
+     */
+    static boolean isZipFile(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), MAGIC_LENGTH)) {
+            return isZipMagic(readMagic(in, MAGIC_LENGTH));
+        }
+    }
+
+    /**
+     * Move to the next entry.
+     *
+     * @return the next entry, or {@code null} if the end of the archive is reached
+     * @throws IOException in case of I/O error or if the archive is invalid
+     */
+    @Nullable
+    abstract FileEntry nextEntry() throws IOException;
+
+    /**
+     * @return the first bytes of the stream, less than {@code length} if the stream is shorter
+     */
+    private static byte[] readMagic(InputStream in, int length) throws IOException {
+        byte[] magic = new byte[length];
+        in.mark(length);
+        int offset = 0;
+        int read;
+        while (offset < magic.length && (read = in.read(magic, offset, magic.length - offset)) != -1) {
+            offset += read;
+        }
+        in.reset();
+        return offset < length ? Arrays.copyOf(magic, offset) : magic;
+    }
+
+    private static boolean isZipMagic(byte[] magic) {
+        return magic.length >= MAGIC_LENGTH && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4;
+    }
+
+    private static boolean isGzipMagic(byte[] magic) {
+        return magic.length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B;
+    }
+
+    private static final class ZipArchiveReader extends ArchiveReader {
+        private final ZipInputStream m_zipInputStream;
+
+        ZipArchiveReader(ZipInputStream zipInputStream) {
+            m_zipInputStream = zipInputStream;
+        }
+
+        @Nullable
+        @Override
+        FileEntry nextEntry() throws IOException {
+            ZipEntry zipEntry = m_zipInputStream.getNextEntry();
+            if (zipEntry == null) {
+                return null;
+            }
+
+            Path path = Paths.get(zipEntry.getName());
+            if (zipEntry.isDirectory()) {
+                return newDirectoryEntry(path);
+            } else {
+                return newRegularFileEntry(path, () -> new NonClosingInputStream(m_zipInputStream));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_zipInputStream.close();
+        }
+    }
+
+    private static final class TarArchiveReader extends ArchiveReader {
+        private final TarInputStream m_tarInputStream;
+
+        TarArchiveReader(TarInputStream tarInputStream) {
+            m_tarInputStream = tarInputStream;
+        }
+
+        @Nullable
+        @Override
+        FileEntry nextEntry() throws IOException {
+            TarInputStream.TarEntry tarEntry = m_tarInputStream.getNextEntry();
+            if (tarEntry == null) {
+                return null;
+            }
+
+            Path path = Paths.get(tarEntry.getName());
+            if (tarEntry.isDirectory()) {
+                return newDirectoryEntry(path);
+            } else {
+                return newRegularFileEntry(path, () -> new NonClosingInputStream(m_tarInputStream));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_tarInputStream.close();
+        }
+    }
+
+    private static final class NonClosingInputStream extends FilterInputStream {
+        NonClosingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // the wrapped stream is owned by someone else
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The default executor of the {@link AsyncJConfigImpl}.<br>
+ * The operations block on file I/O and on the lock of their target directory, they are run by a shared pool of daemon threads which grows with the
+ * number of concurrent operations and whose idle threads are released after a minute. The jar contains another implementation in
+ * {@code META-INF/versions/21} that runs each operation in a virtual thread on Java 21 and later.
+ */
+final class AsyncExecutors {
+    private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger m_threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jconfig-async-" + m_threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static Executor defaultExecutor() {
+        return DEFAULT_EXECUTOR;
+    }
+
+    private AsyncExecutors() {
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import javax.annotation.*;
+import io.github.xfournet.jconfig.ApplyOptions;
+import io.github.xfournet.jconfig.AsyncJConfig;
+import io.github.xfournet.jconfig.DiffOptions;
+import io.github.xfournet.jconfig.JConfig;
+
+public class AsyncJConfigImpl implements AsyncJConfig {
+    private final JConfig m_jConfig;
+    private final Executor m_executor;
+
+    /**
+     * @param executor the executor that runs the operations, or {@code null} for the default one, which uses virtual threads on Java 21 and later
+     */
+    public AsyncJConfigImpl(JConfig jConfig, @Nullable Executor executor) {
+        m_jConfig = jConfig;
+        m_executor = executor != null ? executor : AsyncExecutors.defaultExecutor();
+    }
+
+    @Override
+    public Path targetDir() {
+        return m_jConfig.targetDir();
+    }
+
+    @Override
+    public JConfig jConfig() {
+        return m_jConfig;
+    }
+
+    @Override
+    public CompletableFuture<Void> apply(Path diffFile) {
+        return run(() -> m_jConfig.apply(diffFile));
+    }
+
+    @Override
+    public CompletableFuture<Void> apply(Path diffFile, ApplyOptions options) {
+        return run(() -> m_jConfig.apply(diffFile, options));
+    }
+
+    @Override
+    public CompletableFuture<Void> diff(Path referenceDir, Path diffFile) {
+        return run(() -> m_jConfig.diff(referenceDir, diffFile));
+    }
+
+    @Override
+    public CompletableFuture<Void> diff(Path referenceDir, Path diffFile, DiffOptions options) {
+        return run(() -> m_jConfig.diff(referenceDir, diffFile, options));
+    }
+
+    @Override
+    public CompletableFuture<String> fingerprint() {
+        return CompletableFuture.supplyAsync(m_jConfig::fingerprint, m_executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> merge(Path source) {
+        return run(() -> m_jConfig.merge(source));
+    }
+
+    @Override
+    public CompletableFuture<Void> setEntries(Path file, List<String> entries) {
+        return run(() -> m_jConfig.setEntries(file, entries));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeEntries(Path file, List<String> entries) {
+        return run(() -> m_jConfig.removeEntries(file, entries));
+    }
+
+    @Override
+    public CompletableFuture<Void> batch(Consumer<JConfig> operations) {
+        return run(() -> m_jConfig.batch(operations));
+    }
+
+    private CompletableFuture<Void> run(Runnable operation) {
+        return CompletableFuture.runAsync(operation, m_executor);
+    }
+}
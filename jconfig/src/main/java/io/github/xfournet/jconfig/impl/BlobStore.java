@@ -0,0 +1,120 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import io.github.xfournet.jconfig.Diff;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * A local content-addressed store of file contents, used to reference binary payloads from diff files instead of embedding them.<br>
+ * A blob is stored once in {@code <store>/sha256/<2 first hex digits>/<hex digits>}, it's never modified once stored so it can be shared by hard links
+ * when it's {@link #isLinked() linked}. Several processes can use the same store concurrently.
+ */
+final class BlobStore {
+    /**
+     * The encoding of the overwrite diffs that reference a blob, the single line of such a diff is the blob hash.
+     */
+    static final String BLOB_ENCODING = "blob";
+
+    private static final String HASH_PREFIX = "sha256:";
+
+    private final Path m_storeDir;
+    private final boolean m_linked;
+
+    BlobStore(Path storeDir) {
+        this(storeDir, false);
+    }
+
+    /**
+     * @param linked {@code true} if the blobs are hard linked to the target files instead of being copied, see
+     * {@link io.github.xfournet.jconfig.ApplyOptions#setLinkBlobs(boolean)}
+     */
+    BlobStore(Path storeDir, boolean linked) {
+        m_storeDir = storeDir;
+        m_linked = linked;
+    }
+
+    boolean isLinked() {
+        return m_linked;
+    }
+
+    /**
+     * @param diff a diff
+     * @return {@code true} if the diff references a blob
+     */
+    static boolean isBlobReference(Diff diff) {
+        return diff.isOverwrite() && BLOB_ENCODING.equalsIgnoreCase(diff.getEncoding());
+    }
+
+    /**
+     * Store a content if it's not already stored. The content is read once, hashed while it's copied in the store.
+     *
+     * @param content the content to be stored
+     * @return an overwrite diff that references the stored content
+     */
+    Diff store(JConfigImpl.InputStreamSupplier content) {
+        String hash;
+        try {
+            Files.createDirectories(m_storeDir);
+            Path tmpFile = m_storeDir.resolve("blob." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                try (InputStream in = content.get(); OutputStream out = Files.newOutputStream(tmpFile)) {
+                    hash = ContentHashes.copy(in, out);
+                }
+
+                Path blobFile = blobFile(hash);
+                if (!Files.exists(blobFile)) {
+                    Files.createDirectories(blobFile.getParent());
+                    try {
+                        Files.move(tmpFile, blobFile, ATOMIC_MOVE);
+                    } catch (FileAlreadyExistsException e) {
+                        // stored concurrently
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Diff(true, BLOB_ENCODING, Collections.singletonList(hash));
+    }
+
+    /**
+     * @param diff a diff that references a blob
+     * @return the hash of the content of the blob
+     */
+    static String hash(Diff diff) {
+        List<String> lines = diff.getLines();
+        if (lines.size() != 1) {
+            throw new IllegalArgumentException("Invalid blob reference: " + lines);
+        }
+        return lines.get(0);
+    }
+
+    /**
+     * @param diff a diff that references a blob
+     * @return the file that holds the content of the blob
+     */
+    Path resolve(Diff diff) {
+        String hash = hash(diff);
+        Path blobFile = blobFile(hash);
+        if (!Files.isRegularFile(blobFile)) {
+            throw new IllegalArgumentException("Blob not found in store " + m_storeDir + ": " + hash);
+        }
+        return blobFile;
+    }
+
+    private Path blobFile(String hash) {
+        if (!hash.startsWith(HASH_PREFIX) || !hash.substring(HASH_PREFIX.length()).matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("Invalid blob hash: " + hash);
+        }
+        String hex = hash.substring(HASH_PREFIX.length());
+        return m_storeDir.resolve("sha256").resolve(hex.substring(0, 2)).resolve(hex);
+    }
+}
@@ -0,0 +1,131 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 hashes of file contents, formatted as {@code sha256:<hex>}.
+ */
+final class ContentHashes {
+    /**
+     * The hash of a file that doesn't exist.
+     */
+    static final String ABSENT = "none";
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final String PREFIX = "sha256:";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /**
+     * @param file a file
+     * @return the hash of the file content, or {@link #ABSENT} if the file doesn't exist
+     */
+    static String hash(Path file) {
+        if (!Files.exists(file)) {
+            return ABSENT;
+        }
+
+        try (InputStream in = Files.newInputStream(file)) {
+            return hash(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param in a content, it is read until its end but not closed
+     * @return the hash of the content
+     * @throws IOException in case of I/O error
+     */
+    static String hash(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return PREFIX + toHex(digest.digest());
+    }
+
+    /**
+     * Copy a content and compute its hash at the same time.
+     *
+     * @param in the content, it is read until its end but not closed
+     * @param out the output where the content is copied
+     * @return the hash of the content
+     * @throws IOException in case of I/O error
+     */
+    static String copy(InputStream in, OutputStream out) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            out.write(buffer, 0, read);
+        }
+        return PREFIX + toHex(digest.digest());
+    }
+
+    /**
+     * Hash a content without storing it, eg the result of the apply of a diff.
+     *
+     * @param writer writes the content, the output may be closed
+     * @return the hash of the content
+     * @throws IOException in case of I/O error
+     */
+    static String hash(ContentWriter writer) throws IOException {
+        MessageDigest digest = newDigest();
+        try (OutputStream out = new DigestOutputStream(NULL_OUTPUT, digest)) {
+            writer.write(out);
+        }
+        return PREFIX + toHex(digest.digest());
+    }
+
+    /**
+     * @param content a content
+     * @return the hash of the content
+     */
+    static String hash(byte[] content) {
+        return PREFIX + toHex(newDigest().digest(content));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 support is mandatory for every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private ContentHashes() {
+    }
+
+    @FunctionalInterface
+    interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+}
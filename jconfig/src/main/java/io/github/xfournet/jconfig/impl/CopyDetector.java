@@ -0,0 +1,71 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import javax.annotation.*;
+
+/**
+ * Find the files of a reference tree that have the same content as a given file.<br>
+ * Only the reference files that have the same size are hashed, and each of them is hashed at most once.
+ */
+final class CopyDetector {
+    private final DiffTree m_referenceTree;
+    private final Map<Path, String> m_hashes = new HashMap<>();
+    private Map<Long, List<Path>> m_referencePathsBySize;
+
+    /**
+     * @param referenceTree the tree of the candidate files
+     */
+    CopyDetector(DiffTree referenceTree) {
+        m_referenceTree = referenceTree;
+    }
+
+    /**
+     * @param size a file size
+     * @return the paths of the reference files that could be the source of a file of this size
+     * @throws IOException in case of I/O error
+     */
+    List<Path> candidates(long size) throws IOException {
+        return getReferencePathsBySize().getOrDefault(size, Collections.emptyList());
+    }
+
+    /**
+     * @param path the relative path of the file. The reference file with the same path is preferred when it has the same content
+     * @param tree the tree of the file
+     * @return the relative path of a reference file with the same content, or {@code null} if there is none
+     * @throws IOException in case of I/O error
+     */
+    @Nullable
+    Path findSource(Path path, DiffTree tree) throws IOException {
+        List<Path> candidates = candidates(tree.size(path));
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        String hash = tree.hash(path);
+        if (candidates.contains(path) && hash.equals(referenceHash(path))) {
+            return path;
+        }
+        for (Path candidate : candidates) {
+            if (hash.equals(referenceHash(candidate))) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private String referenceHash(Path referencePath) {
+        return m_hashes.computeIfAbsent(referencePath, m_referenceTree::hash);
+    }
+
+    private Map<Long, List<Path>> getReferencePathsBySize() throws IOException {
+        if (m_referencePathsBySize == null) {
+            m_referencePathsBySize = new HashMap<>();
+            for (Path referencePath : new TreeSet<>(m_referenceTree.paths())) {
+                m_referencePathsBySize.computeIfAbsent(m_referenceTree.size(referencePath), s -> new ArrayList<>()).add(referencePath);
+            }
+        }
+        return m_referencePathsBySize;
+    }
+}
@@ -0,0 +1,177 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+import io.github.xfournet.jconfig.Diff;
+import io.github.xfournet.jconfig.DiffOptions;
+import io.github.xfournet.jconfig.FileContentHandler;
+import io.github.xfournet.jconfig.FileEntry;
+
+import static io.github.xfournet.jconfig.FileStats.Action.*;
+
+/**
+ * Generate the sections of a diff file between a target directory and a reference directory, see {@link io.github.xfournet.jconfig.JConfig#diff(Path,
+ * Path, DiffOptions)}. Either of them may be an archive, see {@link DiffTree}.<br>
+ * The fingerprints prune the unchanged subtrees, the unchanged archive entries are skipped by comparing their size, CRC and content, then the handler
+ * of each remaining file compares it to its reference.
+ */
+final class DiffGenerator {
+    private final Path m_targetDir;
+    private final FileTreeWalker m_fileTreeWalker;
+    private final Predicate<FileEntry> m_entryFilter;
+    private final Function<Path, FileContentHandler> m_fileHandlers;
+
+    /**
+     * @param targetDir the compared directory or archive
+     * @param fileTreeWalker the walker of the directories
+     * @param entryFilter the filter of the archive entries, which are not walked
+     * @param fileHandlers the handler of each path
+     */
+    DiffGenerator(Path targetDir, FileTreeWalker fileTreeWalker, Predicate<FileEntry> entryFilter, Function<Path, FileContentHandler> fileHandlers) {
+        m_targetDir = targetDir;
+        m_fileTreeWalker = fileTreeWalker;
+        m_entryFilter = entryFilter;
+        m_fileHandlers = fileHandlers;
+    }
+
+    /**
+     * @param referenceDir the reference directory or archive
+     * @return the sections that update the reference into the target directory
+     */
+    List<Section> generateSections(OperationRecorder recorder, Path referenceDir, DiffOptions options) {
+        Fingerprints dirFingerprints = null;
+        Set<String> unchangedSubtrees = Collections.emptySet();
+        FileTreeWalker walker = m_fileTreeWalker;
+        if (options.isUseFingerprints() && Files.isDirectory(m_targetDir) && Files.isDirectory(referenceDir)) {
+            recorder.phase("fingerprint");
+            Path cacheFile = options.getFingerprintCache();
+            FingerprintCache cache = cacheFile != null ? FingerprintCache.load(cacheFile) : null;
+            dirFingerprints = Fingerprints.compute(m_targetDir, m_fileTreeWalker, cache);
+            Fingerprints refFingerprints = Fingerprints.compute(referenceDir, m_fileTreeWalker, cache);
+            if (cache != null) {
+                cache.save();
+            }
+
+            if (dirFingerprints.getRoot().equals(refFingerprints.getRoot())) {
+                return Collections.emptyList();
+            }
+            // the unchanged directories are not walked by the scan
+            Set<String> unchangedPaths = dirFingerprints.unchangedSubtrees(refFingerprints);
+            unchangedSubtrees = unchangedPaths;
+            walker = m_fileTreeWalker.withDirectoryFilter(directory -> !unchangedPaths.contains(directory.toString().replace('\\', '/')));
+        }
+
+        recorder.phase("scan");
+        try (DiffTree dirTree = DiffTree.open(m_targetDir, walker, m_entryFilter);
+             DiffTree refTree = DiffTree.open(referenceDir, walker, m_entryFilter)) {
+            recorder.phase("compare");
+            Set<Path> dirPaths = dirTree.paths();
+            Set<Path> refPaths = refTree.paths();
+
+            Set<Path> allPaths = new TreeSet<>();
+            allPaths.addAll(dirPaths);
+            allPaths.addAll(refPaths);
+            recorder.remainingFiles(allPaths.size());
+
+            if (dirFingerprints != null) {
+                // the files of the unchanged subtrees are skipped, only the unchanged files at the top of a subtree have been listed
+                for (String unchangedPath : unchangedSubtrees) {
+                    dirFingerprints.forEachFile(unchangedPath, filePath -> {
+                        Path path = Paths.get(filePath);
+                        allPaths.remove(path);
+                        recorder.file(path, null, SKIPPED, 0, 0, recorder.fileStart());
+                    });
+                }
+            }
+
+            // the unchanged archive entries don't run the handlers, most changed ones are told apart by their size and CRC without being read
+            boolean compareContents = dirTree.isArchive() || refTree.isArchive();
+            CopyDetector copyDetector = options.isDetectCopies() ? new CopyDetector(refTree) : null;
+            BlobStore blobStore = options.getBlobStore() != null ? new BlobStore(options.getBlobStore()) : null;
+
+            // archives that can only be read sequentially load the content of the compared files
+            List<Path> dirNeededPaths = allPaths.stream().filter(dirPaths::contains).collect(Collectors.toList());
+            Set<Path> refNeededPaths = allPaths.stream().filter(refPaths::contains).collect(Collectors.toSet());
+            if (copyDetector != null) {
+                for (Path path : dirNeededPaths) {
+                    refNeededPaths.addAll(copyDetector.candidates(dirTree.size(path)));
+                }
+            }
+            dirTree.prepare(dirNeededPaths);
+            refTree.prepare(refNeededPaths);
+
+            return allPaths.stream().
+                    map(path -> {
+                        OperationRecorder.FileStart start = recorder.fileStart();
+                        String filePath = path.toString().replace("\\", "/");
+                        Section section;
+                        // the post-image is the result of the apply of the section to the reference, which is not always the content of the directory
+                        // eg a merge keeps the order of the keys of the reference
+                        String postImageHash = ContentHashes.ABSENT;
+                        if (dirPaths.contains(path)) {
+                            try {
+                                if (compareContents && refPaths.contains(path) && dirTree.sameContent(path, refTree)) {
+                                    recorder.file(path, null, SKIPPED, 0, 0, start);
+                                    return null; // unchanged, will be filtered in the stream filter below
+                                }
+                                Path copySource = copyDetector != null ? copyDetector.findSource(path, dirTree) : null;
+                                if (copySource != null) {
+                                    recorder.file(path, null, READ, recorder.isEnabled() ? dirTree.size(path) : 0, 0, start);
+                                    if (copySource.equals(path)) {
+                                        return null; // same content, will be filtered in the stream filter below
+                                    }
+                                    section = Section.copySection(filePath, copySource.toString().replace("\\", "/"));
+                                    if (options.isRecordImageHashes()) {
+                                        postImageHash = refTree.hash(copySource);
+                                    }
+                                } else {
+                                    FileContentHandler fileContentHandler = m_fileHandlers.apply(path);
+                                    try (InputStream source = dirTree.open(path);
+                                         InputStream referenceSource = refPaths.contains(path) ? refTree.open(path) : null) {
+                                        Diff diff = fileContentHandler.diff(source, referenceSource);
+                                        if (recorder.isEnabled()) {
+                                            long bytesRead = dirTree.size(path) + (refPaths.contains(path) ? refTree.size(path) : 0);
+                                            recorder.file(path, fileContentHandler, READ, bytesRead, 0, start);
+                                        }
+                                        if (diff == null) {
+                                            return null; // no diff, will be filtered in the stream filter below
+                                        }
+                                        if (blobStore != null && diff.isOverwrite() && "base64".equalsIgnoreCase(diff.getEncoding())) {
+                                            diff = blobStore.store(() -> dirTree.open(path));
+                                            postImageHash = BlobStore.hash(diff);
+                                        } else if (options.isRecordImageHashes()) {
+                                            Diff appliedDiff = diff;
+                                            postImageHash = ContentHashes.hash(result -> {
+                                                try (InputStream reference = refPaths.contains(path) ? refTree.open(path) : null) {
+                                                    fileContentHandler.apply(reference, result, appliedDiff);
+                                                }
+                                            });
+                                        }
+                                        section = new Section(filePath, diff);
+                                    }
+                                }
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        } else {
+                            // file deleted
+                            section = new Section(filePath, null);
+                        }
+
+                        if (options.isRecordImageHashes()) {
+                            return section.withImageHashes(refTree.hash(path), postImageHash);
+                        }
+                        return section;
+                    }).
+                    filter(Objects::nonNull).
+                    collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.*;
+import java.util.zip.*;
+import javax.annotation.*;
+import io.github.xfournet.jconfig.FileEntry;
+
+/**
+ * One side of a diff: a directory, or an archive read in place without being extracted.<br>
+ * ZIP files are read through their central directory, which gives the size and CRC of each entry. TAR files (optionally gzip compressed), and ZIP files
+ * that are not on the default file system, can only be read sequentially: they are scanned once to know their entries, then the content of the entries
+ * that are needed is loaded by {@link #prepare(Collection)}, in memory for the small entries and in temporary files for the large ones.<br>
+ * The relative paths of the files are paths of the default file system, so that trees located on different file systems can be compared.
+ */
+abstract class DiffTree implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @param path a directory or an archive file
+     * @param walker the walker used to list the files of a directory
+     * @param entryFilter the filter of the archive entries
+     * @return the tree
+     */
+    static DiffTree open(Path path, FileTreeWalker walker, Predicate<FileEntry> entryFilter) {
+        try {
+            if (Files.isDirectory(path)) {
+                return new DirectoryTree(path, walker);
+            } else if (JConfigImpl.isDefaultFileSystem(path) && ArchiveReader.isZipFile(path)) {
+                return new ZipTree(path, entryFilter);
+            } else {
+                return new StreamedTree(path, entryFilter);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return {@code true} if the tree is an archive
+     */
+    abstract boolean isArchive();
+
+    /**
+     * @return the relative paths of the files of the tree
+     */
+    abstract Set<Path> paths();
+
+    /**
+     * @param path the relative path of a file of the tree
+     * @return the size of the file
+     * @throws IOException in case of I/O error
+     */
+    abstract long size(Path path) throws IOException;
+
+    /**
+     * @param path the relative path of a file of the tree
+     * @return the CRC-32 of the file content, it's only read from the file content if the tree is a directory
+     * @throws IOException in case of I/O error
+     */
+    abstract long crc(Path path) throws IOException;
+
+    /**
+     * Load the content of some files, must be called before the files are opened.
+     *
+     * @param paths the relative paths of the files to be opened
+     * @throws IOException in case of I/O error
+     */
+    void prepare(Collection<Path> paths) throws IOException {
+    }
+
+    /**
+     * @param path the relative path of a file of the tree
+     * @return the content of the file
+     * @throws IOException in case of I/O error
+     */
+    abstract InputStream open(Path path) throws IOException;
+
+    /**
+     * @param path the relative path of a file of the tree, or of a missing file
+     * @return the hash of the file content, see {@link ContentHashes}
+     */
+    String hash(Path path) {
+        if (!paths().contains(path)) {
+            return ContentHashes.ABSENT;
+        }
+        try (InputStream in = open(path)) {
+            return ContentHashes.hash(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A different size or CRC-32 is a change known without reading the archive entries. Equal ones are confirmed by comparing the contents, since
+     * different contents may have the same CRC-32.
+     *
+     * @param path the relative path of a file of both trees, prepared in both of them
+     * @param other the other tree
+     * @return {@code true} if the file has the same content in both trees
+     * @throws IOException in case of I/O error
+     */
+    boolean sameContent(Path path, DiffTree other) throws IOException {
+        if (size(path) != other.size(path) || crc(path) != other.crc(path)) {
+            return false;
+        }
+        try (InputStream in = open(path); InputStream otherIn = other.open(path)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] otherBuffer = new byte[BUFFER_SIZE];
+            while (true) {
+                int read = readFully(in, buffer);
+                if (readFully(otherIn, otherBuffer) != read) {
+                    return false;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != otherBuffer[i]) {
+                        return false;
+                    }
+                }
+                if (read < BUFFER_SIZE) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int count = 0;
+        int read;
+        while (count < buffer.length && (read = in.read(buffer, count, buffer.length - count)) != -1) {
+            count += read;
+        }
+        return count;
+    }
+
+    private static long crc(InputStream in) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            crc.update(buffer, 0, read);
+        }
+        return crc.getValue();
+    }
+
+    private static final class DirectoryTree extends DiffTree {
+        private final Map<Path, Path> m_files = new HashMap<>();
+        private final Map<Path, Long> m_sizes = new HashMap<>();
+
+        DirectoryTree(Path dir, FileTreeWalker walker) throws IOException {
+            walker.walk(dir, false, (relativePath, path, attributes) -> {
+                Path defaultRelativePath = JConfigImpl.resolve(Paths.get(""), relativePath);
+                m_files.put(defaultRelativePath, path);
+                m_sizes.put(defaultRelativePath, attributes.size());
+            });
+        }
+
+        @Override
+        boolean isArchive() {
+            return false;
+        }
+
+        @Override
+        Set<Path> paths() {
+            return m_sizes.keySet();
+        }
+
+        @Override
+        long size(Path path) {
+            return m_sizes.get(path);
+        }
+
+        @Override
+        long crc(Path path) throws IOException {
+            try (InputStream in = open(path)) {
+                return DiffTree.crc(in);
+            }
+        }
+
+        @Override
+        InputStream open(Path path) throws IOException {
+            return Files.newInputStream(m_files.get(path));
+        }
+    }
+
+    private static final class ZipTree extends DiffTree {
+        private final ZipFile m_zipFile;
+        private final Map<Path, ZipEntry> m_entries = new HashMap<>();
+
+        ZipTree(Path file, Predicate<FileEntry> entryFilter) throws IOException {
+            m_zipFile = new ZipFile(file.toFile());
+            try {
+                Enumeration<? extends ZipEntry> entries = m_zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!entry.isDirectory()) {
+                        Path path = Paths.get(entry.getName());
+                        if (entryFilter.test(JConfigImpl.FileEntryImpl.newRegularFileEntry(path, () -> m_zipFile.getInputStream(entry)))) {
+                            m_entries.put(path, entry);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                m_zipFile.close();
+                throw e;
+            }
+        }
+
+        @Override
+        boolean isArchive() {
+            return true;
+        }
+
+        @Override
+        Set<Path> paths() {
+            return m_entries.keySet();
+        }
+
+        @Override
+        long size(Path path) throws IOException {
+            long size = m_entries.get(path).getSize();
+            if (size == -1) {
+                try (CountingInputStream in = new CountingInputStream(open(path))) {
+                    DiffTree.crc(in);
+                    size = in.m_count;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        long crc(Path path) throws IOException {
+            long crc = m_entries.get(path).getCrc();
+            if (crc == -1) {
+                try (InputStream in = open(path)) {
+                    crc = DiffTree.crc(in);
+                }
+            }
+            return crc;
+        }
+
+        @Override
+        InputStream open(Path path) throws IOException {
+            return m_zipFile.getInputStream(m_entries.get(path));
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_zipFile.close();
+        }
+    }
+
+    private static final class StreamedTree extends DiffTree {
+        // entries larger than this, or loaded once the memory budget is used, are spilled to temporary files
+        private static final long MAX_MEMORY_ENTRY_SIZE = 1024 * 1024;
+        private static final long MAX_MEMORY_SIZE = 32 * 1024 * 1024;
+
+        private final Path m_file;
+        private final Predicate<FileEntry> m_entryFilter;
+        private final Map<Path, long[]> m_sizesAndCrcs = new HashMap<>();
+        private final Map<Path, byte[]> m_contents = new HashMap<>();
+        private final Map<Path, Path> m_spilledContents = new HashMap<>();
+        private long m_memorySize;
+        @Nullable
+        private Path m_spillDir;
+
+        StreamedTree(Path file, Predicate<FileEntry> entryFilter) throws IOException {
+            m_file = file;
+            m_entryFilter = entryFilter;
+            scan((fileEntry, in) -> {
+                CountingInputStream countingInput = new CountingInputStream(in);
+                long crc = DiffTree.crc(countingInput);
+                m_sizesAndCrcs.put(fileEntry.path(), new long[]{countingInput.m_count, crc});
+            });
+        }
+
+        @Override
+        boolean isArchive() {
+            return true;
+        }
+
+        @Override
+        Set<Path> paths() {
+            return m_sizesAndCrcs.keySet();
+        }
+
+        @Override
+        long size(Path path) {
+            return m_sizesAndCrcs.get(path)[0];
+        }
+
+        @Override
+        long crc(Path path) {
+            return m_sizesAndCrcs.get(path)[1];
+        }
+
+        @Override
+        void prepare(Collection<Path> paths) throws IOException {
+            Set<Path> missingPaths = new HashSet<>(paths);
+            missingPaths.removeAll(m_contents.keySet());
+            missingPaths.removeAll(m_spilledContents.keySet());
+            missingPaths.retainAll(m_sizesAndCrcs.keySet());
+            if (!missingPaths.isEmpty()) {
+                scan((fileEntry, in) -> {
+                    Path path = fileEntry.path();
+                    if (missingPaths.contains(path)) {
+                        long size = size(path);
+                        if (size <= MAX_MEMORY_ENTRY_SIZE && m_memorySize + size <= MAX_MEMORY_SIZE) {
+                            ByteArrayOutputStream content = new ByteArrayOutputStream((int) size);
+                            Streams.copy(in, content);
+                            m_contents.put(path, content.toByteArray());
+                            m_memorySize += size;
+                        } else {
+                            if (m_spillDir == null) {
+                                m_spillDir = Files.createTempDirectory("jconfig-diff");
+                            }
+                            Path spilledFile = m_spillDir.resolve(m_spilledContents.size() + ".tmp");
+                            try (OutputStream out = Files.newOutputStream(spilledFile)) {
+                                Streams.copy(in, out);
+                            }
+                            m_spilledContents.put(path, spilledFile);
+                        }
+                    }
+                });
+            }
+        }
+
+        @Override
+        InputStream open(Path path) throws IOException {
+            byte[] content = m_contents.get(path);
+            if (content != null) {
+                return new ByteArrayInputStream(content);
+            }
+            Path spilledFile = m_spilledContents.get(path);
+            if (spilledFile == null) {
+                throw new IllegalStateException("Archive entry not prepared: " + path);
+            }
+            return Files.newInputStream(spilledFile);
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_contents.clear();
+            if (m_spillDir != null) {
+                for (Path spilledFile : m_spilledContents.values()) {
+                    Files.deleteIfExists(spilledFile);
+                }
+                m_spilledContents.clear();
+                Files.deleteIfExists(m_spillDir);
+                m_spillDir = null;
+            }
+        }
+
+        private void scan(EntryConsumer consumer) throws IOException {
+            try (InputStream archive = Files.newInputStream(m_file); ArchiveReader reader = ArchiveReader.open(archive)) {
+                FileEntry fileEntry;
+                while ((fileEntry = reader.nextEntry()) != null) {
+                    if (!fileEntry.isDirectory() && m_entryFilter.test(fileEntry)) {
+                        try (InputStream in = fileEntry.open()) {
+                            consumer.accept(fileEntry, in);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntryConsumer {
+        void accept(FileEntry fileEntry, InputStream in) throws IOException;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long m_count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                m_count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read != -1) {
+                m_count += read;
+            }
+            return read;
+        }
+    }
+}
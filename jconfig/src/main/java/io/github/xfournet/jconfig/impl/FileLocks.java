@@ -0,0 +1,221 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import io.github.xfournet.jconfig.Cancellation;
+
+import static java.nio.charset.StandardCharsets.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Striped file locks shared by all the {@link JConfigImpl} instances of the JVM that use the same lock file.<br>
+ * Each file is mapped to a stripe, a stripe is protected by an in-process {@link ReentrantLock} and by an advisory {@link FileLock} on a single byte region
+ * of the lock file, so independent files can be updated in parallel while conflicting writers (threads or processes) are serialized.<br>
+ * The file locks are acquired by polling with {@link FileChannel#tryLock(long, long, boolean)}: a blocking
+ * {@link FileChannel#lock(long, long, boolean)} is interruptible, and the interrupt of a waiting thread would close the shared channel, which
+ * releases the file locks held by all the threads of the JVM. The wait can be cancelled, see {@link Cancellation}.
+ */
+final class FileLocks {
+    private static final int STRIPES = 64;
+    private static final long MAX_POLL_MILLIS = 50;
+    private static final ConcurrentMap<Path, FileLocks> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Path m_lockFile;
+    private final ReentrantLock[] m_locks = new ReentrantLock[STRIPES];
+    private final FileLock[] m_fileLocks = new FileLock[STRIPES];
+    private FileChannel m_channel;
+
+    /**
+     * @param lockFile the lock file, created if it doesn't exist
+     * @return the {@link FileLocks} associated to the lock file
+     */
+    static FileLocks forLockFile(Path lockFile) {
+        return INSTANCES.computeIfAbsent(lockFile.toAbsolutePath().normalize(), FileLocks::new);
+    }
+
+    /**
+     * The default lock file is a sibling of the target directory named {@code .<directory name>.jconfig.lock}, so that all the processes updating the
+     * directory use it whatever their temporary directory or user, and the target directory itself is not modified. The users updating the directory
+     * must be allowed to create and write the lock file in its parent directory.<br>
+     * A root directory has no sibling, its lock file is located in the temporary directory and named with the SHA-256 hash of its path.
+     *
+     * @param targetDir the directory to be protected
+     * @return the default lock file for the directory
+     */
+    static Path defaultLockFile(Path targetDir) {
+        Path dir = targetDir.toAbsolutePath().normalize();
+        Path parent = dir.getParent();
+        Path fileName = dir.getFileName();
+        if (parent != null && fileName != null) {
+            return parent.resolve("." + fileName + ".jconfig.lock");
+        }
+        String hash = ContentHashes.hash(dir.toUri().toString().getBytes(UTF_8));
+        return Paths.get(System.getProperty("java.io.tmpdir"), "jconfig-" + hash.substring(hash.indexOf(':') + 1) + ".lock");
+    }
+
+    private FileLocks(Path lockFile) {
+        m_lockFile = lockFile;
+        for (int i = 0; i < STRIPES; i++) {
+            m_locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Lock the stripes of the given files. Stripes are always acquired in the same order to avoid dead locks.
+     *
+     * @param files the files to be locked
+     * @return the acquired lock
+     */
+    Lock lock(Collection<Path> files) {
+        BitSet stripes = new BitSet(STRIPES);
+        files.forEach(file -> stripes.set(stripe(file)));
+        return lock(stripes);
+    }
+
+    /**
+     * Lock all the stripes, to be used when the set of updated files is not known in advance.
+     *
+     * @return the acquired lock
+     */
+    Lock lockAll() {
+        BitSet stripes = new BitSet(STRIPES);
+        stripes.set(0, STRIPES);
+        return lock(stripes);
+    }
+
+    private Lock lock(BitSet stripes) {
+        List<Integer> acquired = new ArrayList<>();
+        Lock lock = new Lock() {
+            @Override
+            public void checkValid() {
+                acquired.forEach(FileLocks.this::checkValid);
+            }
+
+            @Override
+            public void close() {
+                // all the stripes are released even if a file lock was lost
+                Collections.reverse(acquired);
+                RuntimeException failure = null;
+                for (int stripe : acquired) {
+                    try {
+                        release(stripe);
+                    } catch (RuntimeException e) {
+                        if (failure == null) {
+                            failure = e;
+                        } else {
+                            failure.addSuppressed(e);
+                        }
+                    }
+                }
+                acquired.clear();
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        };
+
+        try {
+            stripes.stream().forEach(stripe -> {
+                acquire(stripe);
+                acquired.add(stripe);
+            });
+        } catch (RuntimeException e) {
+            lock.close();
+            throw e;
+        }
+
+        return lock;
+    }
+
+    private void acquire(int stripe) {
+        ReentrantLock lock = m_locks[stripe];
+        try {
+            while (!lock.tryLock(MAX_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                Cancellation.checkCancelled();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a lock of " + m_lockFile);
+        }
+        if (lock.getHoldCount() == 1) {
+            try {
+                m_fileLocks[stripe] = lockFile(stripe);
+            } catch (IOException | RuntimeException e) {
+                lock.unlock();
+                throw e instanceof IOException ? new UncheckedIOException("Cannot lock " + m_lockFile, (IOException) e) : (RuntimeException) e;
+            }
+        }
+    }
+
+    private FileLock lockFile(int stripe) throws IOException {
+        long pollMillis = 1;
+        while (true) {
+            FileLock fileLock = channel().tryLock(stripe, 1, false);
+            if (fileLock != null) {
+                return fileLock;
+            }
+            // held by another process
+            Cancellation.checkCancelled();
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for a lock of " + m_lockFile);
+            }
+            pollMillis = Math.min(pollMillis * 2, MAX_POLL_MILLIS);
+        }
+    }
+
+    private void checkValid(int stripe) {
+        FileLock fileLock = m_fileLocks[stripe];
+        if (fileLock != null && !fileLock.isValid()) {
+            throw new IllegalStateException("A lock of " + m_lockFile + " was lost, its channel was closed");
+        }
+    }
+
+    private void release(int stripe) {
+        ReentrantLock lock = m_locks[stripe];
+        try {
+            if (lock.getHoldCount() == 1) {
+                FileLock fileLock = m_fileLocks[stripe];
+                m_fileLocks[stripe] = null;
+                if (!fileLock.isValid()) {
+                    throw new IllegalStateException("A lock of " + m_lockFile + " was lost before being released, its channel was closed");
+                }
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot unlock " + m_lockFile, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        // the channel is never closed: on some systems closing a channel releases all the locks held by the JVM on the file
+        if (m_channel == null || !m_channel.isOpen()) {
+            m_channel = FileChannel.open(m_lockFile, CREATE, WRITE);
+        }
+        return m_channel;
+    }
+
+    private static int stripe(Path file) {
+        return Math.floorMod(file.toAbsolutePath().normalize().toString().hashCode(), STRIPES);
+    }
+
+    interface Lock extends AutoCloseable {
+        /**
+         * @throws IllegalStateException if a file lock was lost, eg its channel was closed, so other processes may update the locked files
+         */
+        void checkValid();
+
+        @Override
+        void close();
+    }
+}
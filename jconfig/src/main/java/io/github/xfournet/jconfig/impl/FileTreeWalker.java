@@ -0,0 +1,109 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.*;
+
+/**
+ * Walk a directory tree, skipping the directories rejected by the directory filter without listing their content.<br>
+ * The attributes read during the walk are given to the visitor so that paths don't have to be stat'ed again.
+ */
+final class FileTreeWalker {
+    private final Predicate<Path> m_pathFilter;
+    private final Predicate<Path> m_directoryFilter;
+
+    /**
+     * @param pathFilter the filter of the visited paths (relative to the walked directory)
+     * @param directoryFilter the filter of the directories (relative to the walked directory) which content has to be walked
+     */
+    FileTreeWalker(Predicate<Path> pathFilter, Predicate<Path> directoryFilter) {
+        m_pathFilter = pathFilter;
+        m_directoryFilter = directoryFilter;
+    }
+
+    /**
+     * @param directoryFilter a filter of the directories that is combined with the one of this walker
+     * @return a walker that also skips the directories rejected by {@code directoryFilter}
+     */
+    FileTreeWalker withDirectoryFilter(Predicate<Path> directoryFilter) {
+        return new FileTreeWalker(m_pathFilter, m_directoryFilter.and(directoryFilter));
+    }
+
+    /**
+     * Walk a directory tree. The root directory itself is visited with an empty relative path.
+     *
+     * @param root the directory to walk
+     * @param includeDirectories whether directories must be visited or only files
+     * @param visitor the visitor of the accepted paths
+     * @throws IOException in case of I/O error
+     */
+    void walk(Path root, boolean includeDirectories, Visitor visitor) throws IOException {
+        Object event = JConfigEvents.beginWalk();
+        int[] fileCount = {0};
+        int[] skippedDirectoryCount = {0};
+        boolean succeeded = false;
+        try {
+            walk(root, includeDirectories, visitor, fileCount, skippedDirectoryCount);
+            succeeded = true;
+        } finally {
+            JConfigEvents.endWalk(event, root, fileCount[0], skippedDirectoryCount[0], succeeded);
+        }
+    }
+
+    private void walk(Path root, boolean includeDirectories, Visitor visitor, int[] fileCount, int[] skippedDirectoryCount) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                Path relativePath = root.relativize(dir);
+                boolean isRoot = relativePath.toString().isEmpty();
+                if (!isRoot && !m_directoryFilter.test(relativePath)) {
+                    skippedDirectoryCount[0]++;
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                if (includeDirectories && m_pathFilter.test(relativePath)) {
+                    visitor.visit(relativePath, dir, attributes);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                BasicFileAttributes fileAttributes = attributes;
+                if (fileAttributes.isSymbolicLink()) {
+                    // links are not followed by the walk, but the linked file is processed as a regular one, broken links are ignored
+                    try {
+                        fileAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                }
+
+                if (fileAttributes.isDirectory() ? includeDirectories : fileAttributes.isRegularFile()) {
+                    Path relativePath = root.relativize(file);
+                    if (m_pathFilter.test(relativePath)) {
+                        fileCount[0]++;
+                        visitor.visit(relativePath, file, fileAttributes);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @FunctionalInterface
+    interface Visitor {
+        /**
+         * @param relativePath the path relative to the walked directory
+         * @param path the visited path
+         * @param attributes the attributes of the visited path
+         * @throws IOException in case of I/O error
+         */
+        void visit(Path relativePath, Path path, BasicFileAttributes attributes) throws IOException;
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.annotation.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+
+/**
+ * A persistent cache of file content hashes, keyed by the absolute path of the file and validated by its size and last modification time.<br>
+ * The cache file is a text file with one {@code <hash> <size> <last modified millis> <path>} line per file.
+ */
+final class FingerprintCache {
+    /**
+     * Files modified less than this delay before the cache is written could be modified again without changing their modification time.
+     */
+    private static final long RACY_DELAY_MILLIS = 2000;
+
+    private final Path m_cacheFile;
+    private final Map<String, Entry> m_entries = new ConcurrentHashMap<>();
+
+    private FingerprintCache(Path cacheFile) {
+        m_cacheFile = cacheFile;
+    }
+
+    /**
+     * @param cacheFile the cache file, it may not exist
+     * @return the cache loaded from the file
+     */
+    static FingerprintCache load(Path cacheFile) {
+        FingerprintCache cache = new FingerprintCache(cacheFile);
+        if (Files.exists(cacheFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(cacheFile, UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] elements = line.split(" ", 4);
+                    if (elements.length == 4) {
+                        cache.m_entries.put(elements[3], new Entry(elements[0], Long.parseLong(elements[1]), Long.parseLong(elements[2])));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // the cache is only an optimization, an unreadable cache is ignored
+                cache.m_entries.clear();
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @param file a file
+     * @param attributes the attributes of the file
+     * @return the cached hash of the file, or {@code null} if the file is not in the cache or has been modified
+     */
+    @Nullable
+    String get(Path file, BasicFileAttributes attributes) {
+        Entry entry = m_entries.get(key(file));
+        if (entry != null && entry.m_size == attributes.size() && entry.m_lastModified == attributes.lastModifiedTime().toMillis()) {
+            return entry.m_hash;
+        }
+        return null;
+    }
+
+    void put(Path file, BasicFileAttributes attributes, String hash) {
+        m_entries.put(key(file), new Entry(hash, attributes.size(), attributes.lastModifiedTime().toMillis()));
+    }
+
+    /**
+     * Write the cache file. The file is replaced atomically so that concurrent readers never see a partial cache.
+     */
+    void save() {
+        long racyLimit = System.currentTimeMillis() - RACY_DELAY_MILLIS;
+        Path tmpFile = m_cacheFile.resolveSibling(m_cacheFile.getFileName() + "." + ThreadLocalRandom.current().nextLong() + ".tmp");
+        try {
+            Path parent = m_cacheFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, UTF_8)) {
+                for (Map.Entry<String, Entry> entry : new TreeMap<>(m_entries).entrySet()) {
+                    Entry value = entry.getValue();
+                    if (value.m_lastModified < racyLimit) {
+                        writer.write(value.m_hash + " " + value.m_size + " " + value.m_lastModified + " " + entry.getKey());
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(tmpFile, m_cacheFile, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(tmpFile);
+            } catch (IOException e) {
+                // ignore, the temporary file is only left behind
+            }
+        }
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static final class Entry {
+        private final String m_hash;
+        private final long m_size;
+        private final long m_lastModified;
+
+        Entry(String hash, long size, long lastModified) {
+            m_hash = hash;
+            m_size = size;
+            m_lastModified = lastModified;
+        }
+    }
+}
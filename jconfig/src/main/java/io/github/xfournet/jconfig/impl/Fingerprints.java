@@ -0,0 +1,159 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.*;
+import javax.annotation.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Merkle tree fingerprints of a directory: the fingerprint of a file is the hash of its content, the fingerprint of a directory is the hash of the names
+ * and fingerprints of its children. Two directories have the same fingerprint if and only if they contain the same files (with the same content), so a
+ * whole tree can be compared with a single value, and subtrees with the same fingerprint don't need to be compared further.<br>
+ * Computing the fingerprints hashes all the files, unless their hashes are in a {@link FingerprintCache}: comparing two directories by their
+ * fingerprints pays off when the cache is warm, or when the files are compared many times.<br>
+ * Paths are relative to the fingerprinted directory and use {@code /} as separator, the root directory is the empty path. Empty directories are
+ * ignored.
+ */
+final class Fingerprints {
+    private final Map<String, String> m_fingerprints;
+    private final Map<String, SortedMap<String, String>> m_directoryChildren;
+
+    private Fingerprints(Map<String, String> fingerprints, Map<String, SortedMap<String, String>> directoryChildren) {
+        m_fingerprints = fingerprints;
+        m_directoryChildren = directoryChildren;
+    }
+
+    /**
+     * @param dir the directory to fingerprint
+     * @param walker the walker that selects the files of the directory
+     * @param cache the cache of the file hashes, or {@code null} to hash all the files
+     * @return the fingerprints of the directory
+     */
+    static Fingerprints compute(Path dir, FileTreeWalker walker, @Nullable FingerprintCache cache) {
+        Map<String, String> fingerprints = new HashMap<>();
+        Map<String, SortedMap<String, String>> directoryChildren = new HashMap<>();
+        directoryChildren.put("", new TreeMap<>());
+
+        try {
+            walker.walk(dir, false, (relativePath, path, attributes) -> {
+                String hash = cache != null ? cache.get(path, attributes) : null;
+                if (hash == null) {
+                    hash = ContentHashes.hash(path);
+                    if (cache != null) {
+                        cache.put(path, attributes, hash);
+                    }
+                }
+
+                String filePath = relativePath.toString().replace('\\', '/');
+                fingerprints.put(filePath, hash);
+
+                // register the file in its parent, and each directory in its own parent
+                String childPath = filePath;
+                String childName = childPath.substring(childPath.lastIndexOf('/') + 1);
+                while (true) {
+                    String parentPath = parentPath(childPath);
+                    SortedMap<String, String> children = directoryChildren.get(parentPath);
+                    boolean newParent = children == null;
+                    if (newParent) {
+                        children = new TreeMap<>();
+                        directoryChildren.put(parentPath, children);
+                    }
+                    children.put(childName, childPath);
+                    if (!newParent || parentPath.isEmpty()) {
+                        break;
+                    }
+                    childPath = parentPath;
+                    childName = childPath.substring(childPath.lastIndexOf('/') + 1) + "/";
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // deepest directories first so that the fingerprints of the children are known
+        List<String> directories = new ArrayList<>(directoryChildren.keySet());
+        directories.sort(Comparator.comparingInt(Fingerprints::depth).reversed());
+        for (String directory : directories) {
+            StringBuilder content = new StringBuilder();
+            directoryChildren.get(directory).forEach((name, path) -> content.append(name).append('\0').append(fingerprints.get(path)).append('\n'));
+            fingerprints.put(directory, ContentHashes.hash(content.toString().getBytes(UTF_8)));
+        }
+
+        return new Fingerprints(fingerprints, directoryChildren);
+    }
+
+    /**
+     * @return the fingerprint of the whole directory
+     */
+    String getRoot() {
+        return m_fingerprints.get("");
+    }
+
+    /**
+     * @param path the relative path of a file or a directory
+     * @return the fingerprint, or {@code null} if there is no such file or directory
+     */
+    @Nullable
+    String get(String path) {
+        return m_fingerprints.get(path);
+    }
+
+    /**
+     * Compare the fingerprints top-down: the children of a directory are only compared when the directory fingerprints differ.
+     *
+     * @param other the fingerprints of another directory
+     * @return the paths of the largest subtrees (directories or files) that have the same fingerprint in both directories
+     */
+    Set<String> unchangedSubtrees(Fingerprints other) {
+        Set<String> unchangedSubtrees = new HashSet<>();
+        Deque<String> pendingPaths = new ArrayDeque<>();
+        pendingPaths.add("");
+        while (!pendingPaths.isEmpty()) {
+            String path = pendingPaths.poll();
+            String fingerprint = get(path);
+            if (fingerprint != null && fingerprint.equals(other.get(path))) {
+                unchangedSubtrees.add(path);
+            } else {
+                SortedMap<String, String> children = m_directoryChildren.get(path);
+                if (children != null) {
+                    pendingPaths.addAll(children.values());
+                }
+            }
+        }
+        return unchangedSubtrees;
+    }
+
+    /**
+     * @param path the relative path of a file or a directory
+     * @param action the action to be run on the path of the file, or of each file of the directory
+     */
+    void forEachFile(String path, Consumer<String> action) {
+        SortedMap<String, String> children = m_directoryChildren.get(path);
+        if (children != null) {
+            children.values().forEach(childPath -> forEachFile(childPath, action));
+        } else if (m_fingerprints.containsKey(path)) {
+            action.accept(path);
+        }
+    }
+
+    private static String parentPath(String path) {
+        int index = path.lastIndexOf('/');
+        return index != -1 ? path.substring(0, index) : "";
+    }
+
+    private static int depth(String path) {
+        if (path.isEmpty()) {
+            return 0;
+        }
+        int depth = 1;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+}
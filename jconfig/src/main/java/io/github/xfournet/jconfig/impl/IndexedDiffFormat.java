@@ -0,0 +1,178 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.*;
+import javax.annotation.*;
+import io.github.xfournet.jconfig.Diff;
+
+import static java.nio.charset.StandardCharsets.*;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A binary diff file format that starts with an index of the sections, so that sections can be read selectively without scanning the whole file.<br>
+ * The sections are the same than the ones of the {@link TextDiffFormat}, so both formats can be converted to each other without loss.
+ * <pre>
+ * magic          8 bytes, "JCDIFFIX"
+ * version        int
+ * index size     int, the size in bytes of the index
+ * index          section count (int), then for each section: path (UTF), header (UTF), comment (UTF, empty if none),
+ *                content offset (long), content length (long)
+ * contents       the sections content, offsets are relative to the start of the contents. Each line is UTF-8 encoded and terminated by '\n'
+ * </pre>
+ */
+final class IndexedDiffFormat {
+    private static final byte[] MAGIC = "JCDIFFIX".getBytes(US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 4 + 4;
+    private static final int MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * @param diffFile a diff file
+     * @return {@code true} if the diff file uses the indexed format
+     */
+    static boolean isIndexed(Path diffFile) {
+        byte[] magic = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(diffFile)) {
+            int offset = 0;
+            int read;
+            while (offset < magic.length && (read = in.read(magic, offset, magic.length - offset)) != -1) {
+                offset += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Read the sections of a diff file. Only the content of the accepted sections is read.
+     *
+     * @param diffFile the diff file
+     * @param pathFilter the filter of the section paths
+     * @return the accepted sections
+     */
+    static List<Section> read(Path diffFile, Predicate<String> pathFilter) {
+        List<Section> sections = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(diffFile, READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IllegalArgumentException("Not an indexed diff file: " + diffFile);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported indexed diff file version " + version + ": " + diffFile);
+            }
+            long contentsStart = HEADER_SIZE + (long) in.readInt();
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                String header = in.readUTF();
+                String comment = in.readUTF();
+                long offset = in.readLong();
+                long length = in.readLong();
+
+                if (pathFilter.test(path)) {
+                    List<String> lines = decodeLines(readContent(channel, contentsStart + offset, length));
+                    sections.add(Section.parse(header, comment.isEmpty() ? null : comment, lines));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sections;
+    }
+
+    /**
+     * Write sections to a diff file.
+     *
+     * @param sections the sections to be written
+     * @param outputFile the diff file
+     */
+    static void write(List<Section> sections, Path outputFile) {
+        List<byte[]> contents = new ArrayList<>();
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try {
+            DataOutputStream indexOutput = new DataOutputStream(index);
+            indexOutput.writeInt(sections.size());
+            long offset = 0;
+            for (Section section : sections) {
+                byte[] content = encodeLines(section.getDiff());
+                contents.add(content);
+
+                indexOutput.writeUTF(section.getPath());
+                indexOutput.writeUTF(section.getHeader());
+                String comment = section.getComment();
+                indexOutput.writeUTF(comment != null ? comment : "");
+                indexOutput.writeLong(offset);
+                indexOutput.writeLong(content.length);
+                offset += content.length;
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(outputFile)))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(index.size());
+                index.writeTo(out);
+                for (byte[] content : contents) {
+                    out.write(content);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ByteBuffer readContent(FileChannel channel, long position, long length) throws IOException {
+        if (length >= MAP_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("Truncated indexed diff file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static List<String> decodeLines(ByteBuffer content) {
+        CharBuffer chars = UTF_8.decode(content);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < chars.limit(); i++) {
+            if (chars.get(i) == '\n') {
+                lines.add(chars.subSequence(start, i).toString());
+                start = i + 1;
+            }
+        }
+        return lines;
+    }
+
+    private static byte[] encodeLines(@Nullable Diff diff) {
+        if (diff == null) {
+            return new byte[0];
+        }
+
+        StringBuilder content = new StringBuilder();
+        for (String line : diff.getLines()) {
+            content.append(line).append('\n');
+        }
+        return content.toString().getBytes(UTF_8);
+    }
+
+    private IndexedDiffFormat() {
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.nio.file.Path;
+import javax.annotation.*;
+
+/**
+ * Java Flight Recorder events of the operations: an event per operation, per processed file, per directory walk and per transaction commit or
+ * rollback.<br>
+ * This implementation does nothing since JFR is not available in Java 8, the jar contains another implementation in {@code META-INF/versions/11} that
+ * is used on Java 11 and later. A {@code begin} method returns {@code null} when its event is not enabled in a recording, the corresponding
+ * {@code end} method then does nothing, so the events cost nothing when JFR doesn't record them.
+ */
+final class JConfigEvents {
+    static final String COMMIT = "commit";
+    static final String ROLLBACK = "rollback";
+
+    /**
+     * @return {@code true} if the file events are recorded, in which case the file statistics must be computed
+     */
+    static boolean isFileEventEnabled() {
+        return false;
+    }
+
+    @Nullable
+    static Object beginOperation() {
+        return null;
+    }
+
+    /**
+     * @param event the event returned by {@link #beginOperation()}
+     */
+    static void endOperation(@Nullable Object event, String operation, boolean succeeded, int fileCount, long bytesRead, long bytesWritten) {
+    }
+
+    @Nullable
+    static Object beginFile() {
+        return null;
+    }
+
+    /**
+     * @param event the event returned by {@link #beginFile()}
+     * @param operation the operation that processed the file
+     * @param path the path of the file
+     * @param handler the simple class name of the handler that processed the file, or {@code null} if there is none
+     * @param action the action done on the file, see {@link io.github.xfournet.jconfig.FileStats.Action}
+     */
+    static void endFile(@Nullable Object event, String operation, Path path, @Nullable String handler, String action, long bytesRead,
+                        long bytesWritten) {
+    }
+
+    @Nullable
+    static Object beginWalk() {
+        return null;
+    }
+
+    /**
+     * @param event the event returned by {@link #beginWalk()}
+     * @param root the walked directory
+     * @param fileCount the number of visited files
+     * @param skippedDirectoryCount the number of directories rejected by the directory filter
+     */
+    static void endWalk(@Nullable Object event, Path root, int fileCount, int skippedDirectoryCount, boolean succeeded) {
+    }
+
+    @Nullable
+    static Object beginTransaction() {
+        return null;
+    }
+
+    /**
+     * @param event the event returned by {@link #beginTransaction()}
+     * @param action {@link #COMMIT} or {@link #ROLLBACK}
+     * @param operationCount the number of file operations run
+     */
+    static void endTransaction(@Nullable Object event, String action, int operationCount, boolean succeeded) {
+    }
+
+    private JConfigEvents() {
+    }
+}
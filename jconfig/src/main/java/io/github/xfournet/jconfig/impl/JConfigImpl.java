@@ -1,40 +1,81 @@
 package io.github.xfournet.jconfig.impl;
 
 import java.io.*;
-import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
-import java.util.regex.*;
 import java.util.stream.*;
 import java.util.zip.*;
 import javax.annotation.*;
+import io.github.xfournet.jconfig.ApplyOptions;
+import io.github.xfournet.jconfig.ApplyResult;
 import io.github.xfournet.jconfig.Diff;
+import io.github.xfournet.jconfig.DiffFormat;
+import io.github.xfournet.jconfig.DiffOptions;
 import io.github.xfournet.jconfig.FileContentHandler;
 import io.github.xfournet.jconfig.FileEntry;
+import io.github.xfournet.jconfig.FileStats;
 import io.github.xfournet.jconfig.JConfig;
+import io.github.xfournet.jconfig.JConfigListener;
+import io.github.xfournet.jconfig.OperationStats;
+import io.github.xfournet.jconfig.PathFilter;
+import io.github.xfournet.jconfig.raw.RawFileContentHandler;
 
+import static io.github.xfournet.jconfig.ApplyOptions.applyOptions;
+import static io.github.xfournet.jconfig.DiffOptions.diffOptions;
+import static io.github.xfournet.jconfig.FileStats.Action.*;
 import static io.github.xfournet.jconfig.impl.JConfigImpl.FileEntryImpl.*;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class JConfigImpl implements JConfig {
-    private static final Charset DIFF_CHARSET = UTF_8;
-    private static final Pattern SECTION_MARKER = Pattern.compile("^\\[(.+)]( +#.*)?$");
-
-    private static final String SECTION_OVERWRITE = "overwrite";
-    private static final String SECTION_MERGE = "merge";
-    private static final String SECTION_DELETE = "delete";
 
     private final Path m_targetDir;
     private final Predicate<Path> m_pathFilter;
+    private final Predicate<Path> m_directoryFilter;
+    private final FileTreeWalker m_fileTreeWalker;
     private final Function<Path, FileContentHandler> m_fileHandlerResolver;
+    private final FileLocks m_fileLocks;
+    private final Workers m_workers;
+    private final List<JConfigListener> m_listeners;
+    @Nullable
+    private final Duration m_timeout;
+    @Nullable
+    private final Transaction m_batchTransaction;
+    private final Map<Path, PendingEntryUpdates> m_pendingEntryUpdates = new LinkedHashMap<>();
 
-    public JConfigImpl(Path targetDir, Predicate<Path> pathFilter, Function<Path, FileContentHandler> fileHandlerResolver) {
+    public JConfigImpl(Path targetDir, Predicate<Path> pathFilter, Function<Path, FileContentHandler> fileHandlerResolver, @Nullable Path lockFile,
+                       Workers workers, List<JConfigListener> listeners, @Nullable Duration timeout) {
         m_targetDir = targetDir;
         m_pathFilter = pathFilter;
+        m_directoryFilter = pathFilter instanceof PathFilter ? ((PathFilter) pathFilter)::acceptDirectory : directory -> true;
+        m_fileTreeWalker = new FileTreeWalker(m_pathFilter, m_directoryFilter);
         m_fileHandlerResolver = fileHandlerResolver;
+        m_fileLocks = FileLocks.forLockFile(lockFile != null ? lockFile : FileLocks.defaultLockFile(targetDir));
+        m_workers = workers;
+        m_listeners = new ArrayList<>(listeners);
+        m_timeout = timeout;
+        m_batchTransaction = null;
+    }
+
+    /**
+     * Create a view of a {@link JConfig} whose operations are part of a batch transaction.
+     */
+    private JConfigImpl(JConfigImpl jConfig, Transaction batchTransaction) {
+        m_targetDir = jConfig.m_targetDir;
+        m_pathFilter = jConfig.m_pathFilter;
+        m_directoryFilter = jConfig.m_directoryFilter;
+        m_fileTreeWalker = jConfig.m_fileTreeWalker;
+        m_fileHandlerResolver = jConfig.m_fileHandlerResolver;
+        m_fileLocks = jConfig.m_fileLocks;
+        m_workers = jConfig.m_workers;
+        m_listeners = jConfig.m_listeners;
+        m_timeout = jConfig.m_timeout;
+        m_batchTransaction = batchTransaction;
     }
 
     @Override
@@ -44,52 +85,265 @@ public class JConfigImpl implements JConfig {
 
     @Override
     public void apply(Path diffFile) {
-        List<String> diffFileLines;
+        apply(diffFile, applyOptions());
+    }
+
+    @Override
+    public void apply(Path diffFile, ApplyOptions options) {
+        record("apply", recorder -> apply(recorder, diffFile, options));
+    }
+
+    private void apply(OperationRecorder recorder, Path diffFile, ApplyOptions options) {
+        flushEntryUpdates(recorder);
+        recorder.phase("parse");
+        Predicate<Path> pathFilter = options.getPathFilter();
+        List<Section> sections = readSections(recorder, diffFile, path -> pathFilter.test(Paths.get(path)));
+        recorder.remainingFiles(sections.size() + (options.getUndoFile() != null ? 1 : 0));
+        applySections(recorder, sections, IndexedDiffFormat.isIndexed(diffFile) ? DiffFormat.INDEXED : DiffFormat.TEXT, options, null);
+    }
+
+    /**
+     * @param partiallyCommitted receives whether the commit failed after some files were updated, or {@code null}
+     */
+    private void applySections(OperationRecorder recorder, List<Section> sections, DiffFormat diffFormat, ApplyOptions options,
+                               @Nullable boolean[] partiallyCommitted) {
+        Set<String> updatedPaths = sections.stream().map(Section::getPath).collect(Collectors.toSet());
+        try (Transaction tx = beginTransaction()) {
+            recorder.phase("lock");
+            tx.lock(sections.stream().
+                    flatMap(section -> section.isCopy() ? Stream.of(section.getPath(), section.getCopyFrom()) : Stream.of(section.getPath())).
+                    map(path -> resolveTarget(Paths.get(path))).
+                    collect(Collectors.toList()));
+
+            recorder.phase("process");
+            // copies refer to the content before the diff file is applied
+            Map<String, Path> copySources = new HashMap<>();
+            sections.stream().filter(Section::isCopy).map(Section::getCopyFrom).
+                    forEach(copyFrom -> copySources.put(copyFrom, tx.currentFile(resolveTarget(Paths.get(copyFrom)))));
+
+            Path undoFile = options.getUndoFile();
+            List<Section> undoSections = undoFile != null ? new ArrayList<>() : null;
+            BlobStore blobStore = options.getBlobStore() != null ? new BlobStore(options.getBlobStore(), options.isLinkBlobs()) : null;
+            sections.forEach(section -> processSection(recorder, tx, section, updatedPaths, copySources, blobStore, undoSections));
+
+            if (undoFile != null) {
+                writeSections(recorder, undoSections, undoFile, tx.updateFile(undoFile), diffFormat);
+            }
+            recorder.phase("commit");
+            try {
+                tx.commit();
+            } finally {
+                if (partiallyCommitted != null) {
+                    partiallyCommitted[0] = tx.isPartiallyCommitted();
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a diff file to several target directories, see {@link io.github.xfournet.jconfig.JConfigBuilder#applyToTargets(Path, List, ApplyOptions)}.
+     * The diff file is parsed once, then each target is updated in its own transaction by the workers. A failure doesn't stop
+     * the apply to the other targets, it's reported in the result of its target.
+     *
+     * @param jConfigs the {@link JConfigImpl} of each target directory
+     * @return the result of each target directory, in the order of {@code jConfigs}
+     */
+    public static List<ApplyResult> applyToTargets(List<JConfigImpl> jConfigs, Path diffFile, ApplyOptions options, Workers workers) {
+        if (options.getUndoFile() != null) {
+            throw new IllegalArgumentException("An undo file cannot be generated when applying to several targets");
+        }
+
+        Predicate<Path> pathFilter = options.getPathFilter();
+        List<Section> sections = OperationRecorder.record("applyToTargets", Collections.emptyList(), null,
+                                                          recorder -> readSections(recorder, diffFile, path -> pathFilter.test(Paths.get(path))));
+        DiffFormat diffFormat = IndexedDiffFormat.isIndexed(diffFile) ? DiffFormat.INDEXED : DiffFormat.TEXT;
+
+        ApplyResult[] results = new ApplyResult[jConfigs.size()];
+        workers.forEach(IntStream.range(0, jConfigs.size()).boxed().collect(Collectors.toList()), index -> {
+            JConfigImpl jConfig = jConfigs.get(index);
+            // the statistics of each target are always collected for its result
+            OperationStats[] stats = new OperationStats[1];
+            boolean[] partiallyCommitted = new boolean[1];
+            List<JConfigListener> listeners = new ArrayList<>(jConfig.m_listeners);
+            listeners.add(operationStats -> stats[0] = operationStats);
+            RuntimeException failure = null;
+            try {
+                OperationRecorder.record("apply", listeners, jConfig.m_timeout, recorder -> {
+                    recorder.remainingFiles(sections.size());
+                    jConfig.applySections(recorder, sections, diffFormat, options, partiallyCommitted);
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            results[index] = new ApplyResult(jConfig.m_targetDir, failure, partiallyCommitted[0], stats[0]);
+        });
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public void applyToArchive(Path diffFile, Path outputArchive, ApplyOptions options) {
+        record("applyToArchive", recorder -> applyToArchive(recorder, diffFile, outputArchive, options));
+    }
+
+    private void applyToArchive(OperationRecorder recorder, Path diffFile, Path outputArchive, ApplyOptions options) {
+        flushEntryUpdates(recorder);
+        if (options.getUndoFile() != null) {
+            throw new IllegalArgumentException("An undo file cannot be generated when applying to an archive");
+        }
         try {
-            diffFileLines = Files.readAllLines(diffFile, DIFF_CHARSET);
+            if (!Files.isRegularFile(m_targetDir) || !ArchiveReader.isZipFile(m_targetDir)) {
+                throw new IllegalArgumentException("Not a ZIP file: " + m_targetDir);
+            }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
 
-        List<Section> sections = parseSections(diffFileLines, diffFile);
-        try (Transaction tx = new Transaction()) {
-            sections.forEach(section -> processSection(tx, section));
+        recorder.phase("parse");
+        Predicate<Path> pathFilter = options.getPathFilter();
+        Map<String, Section> sections = new LinkedHashMap<>();
+        for (Section section : readSections(recorder, diffFile, path -> pathFilter.test(Paths.get(path)))) {
+            sections.put(section.getPath(), section);
+        }
+        // the sections and the rewritten archive
+        recorder.remainingFiles(sections.size() + 1);
+        BlobStore blobStore = options.getBlobStore() != null ? new BlobStore(options.getBlobStore()) : null;
+
+        try (Transaction tx = beginTransaction()) {
+            recorder.phase("lock");
+            tx.lock(Collections.singletonList(outputArchive));
+            recorder.phase("process");
+            OperationRecorder.FileStart start = recorder.fileStart();
+            Path outputFile = tx.updateFile(outputArchive);
+            new ArchiveApplier(m_targetDir, this::retrieveFileHandler).apply(recorder, sections, outputFile, blobStore);
+            // the sections are recorded on their own, the archive accounts for the whole rewrite
+            recorder.file(outputArchive, null, WRITTEN, recorder.size(m_targetDir), recorder.size(outputFile), start);
+            recorder.phase("commit");
             tx.commit();
         }
     }
 
     @Override
     public void diff(Path referenceDir, Path diffFile) {
-        try (Transaction tx = new Transaction()) {
-            List<Section> sections = generateSections(referenceDir);
-            writeSections(sections, tx.updateFile(diffFile));
+        diff(referenceDir, diffFile, diffOptions());
+    }
+
+    @Override
+    public void diff(Path referenceDir, Path diffFile, DiffOptions options) {
+        record("diff", recorder -> {
+            flushEntryUpdates(recorder);
+            try (Transaction tx = beginTransaction()) {
+                List<Section> sections = new DiffGenerator(m_targetDir, m_fileTreeWalker, this::isAccepted, this::retrieveFileHandler).
+                        generateSections(recorder, referenceDir, options);
+                recorder.phase("write");
+                writeSections(recorder, sections, diffFile, tx.updateFile(diffFile), options.getFormat());
+                recorder.phase("commit");
+                tx.commit();
+            }
+        });
+    }
+
+    @Override
+    public void convertDiff(Path diffFile, Path outputFile, DiffFormat format) {
+        record("convertDiff", recorder -> {
+            flushEntryUpdates(recorder);
+            recorder.phase("parse");
+            List<Section> sections = readSections(recorder, diffFile, path -> true);
+            try (Transaction tx = beginTransaction()) {
+                recorder.phase("write");
+                writeSections(recorder, sections, outputFile, tx.updateFile(outputFile), format);
+                recorder.phase("commit");
+                tx.commit();
+            }
+        });
+    }
+
+    @Override
+    public void composeDiffs(List<Path> diffFiles, Path outputFile, DiffFormat format) {
+        record("composeDiffs", recorder -> composeDiffs(recorder, diffFiles, outputFile, format));
+    }
+
+    private void composeDiffs(OperationRecorder recorder, List<Path> diffFiles, Path outputFile, DiffFormat format) {
+        flushEntryUpdates(recorder);
+        Map<String, Section> composedSections = new TreeMap<>();
+        for (Path diffFile : diffFiles) {
+            recorder.phase("parse");
+            // copies refer to the content before the diff file is applied, they are resolved before the sections of the diff file are composed
+            List<Section> sections = readSections(recorder, diffFile, path -> true).stream().
+                    map(section -> section.isCopy() ? resolveCopySection(section, composedSections) : section).
+                    collect(Collectors.toList());
+            recorder.phase("compose");
+            for (Section section : sections) {
+                composedSections.merge(section.getPath(), section, this::composeSections);
+            }
+        }
+
+        try (Transaction tx = beginTransaction()) {
+            recorder.phase("write");
+            writeSections(recorder, new ArrayList<>(composedSections.values()), outputFile, tx.updateFile(outputFile), format);
+            recorder.phase("commit");
             tx.commit();
         }
     }
 
+    @Override
+    public String fingerprint() {
+        return recordResult("fingerprint", recorder -> {
+            recorder.phase("fingerprint");
+            return Fingerprints.compute(m_targetDir, m_fileTreeWalker, null).getRoot();
+        });
+    }
+
+    @Override
+    public String fingerprint(Path cacheFile) {
+        return recordResult("fingerprint", recorder -> {
+            recorder.phase("fingerprint");
+            FingerprintCache cache = FingerprintCache.load(cacheFile);
+            String fingerprint = Fingerprints.compute(m_targetDir, m_fileTreeWalker, cache).getRoot();
+            cache.save();
+            return fingerprint;
+        });
+    }
+
     @Override
     public void merge(Path source) {
+        record("merge", recorder -> merge(recorder, source));
+    }
+
+    private void merge(OperationRecorder recorder, Path source) {
         if (Files.isDirectory(source)) {
-            try (Stream<Path> walk = Files.walk(source)) {
-                merge(walk.
-                        map(path -> {
-                            Path relativePath = source.relativize(path);
-                            if (Files.isDirectory(path)) {
-                                return newDirectoryEntry(relativePath);
-                            } else {
-                                return newRegularFileEntry(relativePath, () -> Files.newInputStream(path));
-                            }
-                        }).
-                        filter(fileEntry -> m_pathFilter.test(fileEntry.path())));
+            recorder.phase("scan");
+            List<FileEntry> fileEntries = new ArrayList<>();
+            try {
+                m_fileTreeWalker.walk(source, true, (relativePath, path, attributes) -> {
+                    if (attributes.isDirectory()) {
+                        fileEntries.add(newDirectoryEntry(relativePath));
+                    } else {
+                        fileEntries.add(newRegularFileEntry(relativePath, () -> newInputStream(path)));
+                    }
+                });
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
+            recorder.remainingFiles((int) fileEntries.stream().filter(fileEntry -> !fileEntry.isDirectory()).count());
+            merge(recorder, fileEntries.stream());
         } else {
-            try (ZipFile zipFile = new ZipFile(source.toFile())) {
-                Set<Path> directories = new HashSet<>();
-                merge(zipFile.stream().
-                        flatMap(zipEntry -> createZipFileAndParentDirectoryEntries(directories, zipFile, zipEntry).stream()).
-                        filter(fileEntry -> m_pathFilter.test(fileEntry.path())));
+            try {
+                if (isDefaultFileSystem(source) && ArchiveReader.isZipFile(source)) {
+                    try (ZipFile zipFile = new ZipFile(source.toFile())) {
+                        Set<Path> directories = new HashSet<>();
+                        // entries are inflated in parallel, ZipFile only synchronizes the reads of the compressed data
+                        recorder.phase("scan");
+                        mergeParallel(recorder, zipFile.stream().
+                                flatMap(zipEntry -> createFileAndParentDirectoryEntries(directories, newZipFileEntry(zipFile, zipEntry)).stream()).
+                                filter(this::isAccepted).
+                                collect(Collectors.toList()));
+                    }
+                } else {
+                    try (InputStream archive = Files.newInputStream(source)) {
+                        merge(recorder, archive);
+                    }
+                }
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
@@ -97,48 +351,139 @@ public class JConfigImpl implements JConfig {
     }
 
     @Override
-    public void merge(Stream<? extends FileEntry> sourceFileEntries) {
-        try (Transaction tx = new Transaction()) {
-            sourceFileEntries.forEach(fileEntry -> {
-                Path destinationFile = m_targetDir.resolve(fileEntry.path());
+    public void merge(InputStream archive) {
+        record("merge", recorder -> merge(recorder, archive));
+    }
 
-                if (fileEntry.isDirectory()) {
-                    tx.ensureDirectory(destinationFile);
-                } else {
-                    Path outputFile = tx.updateFile(destinationFile);
-                    if (Files.exists(destinationFile)) {
-                        try (InputStream update = fileEntry.open(); InputStream reference = Files.newInputStream(destinationFile);
-                             OutputStream resultOutput = Files.newOutputStream(outputFile)) {
-                            retrieveFileHandler(fileEntry.path()).merge(update, reference, resultOutput);
-                        } catch (IOException e) {
-                            throw new UncheckedIOException(e);
-                        }
-                    } else {
-                        try (InputStream update = fileEntry.open()) {
-                            Files.copy(update, outputFile);
-                        } catch (IOException e) {
-                            throw new UncheckedIOException(e);
-                        }
+    private void merge(OperationRecorder recorder, InputStream archive) {
+        try (ArchiveReader archiveReader = ArchiveReader.open(archive)) {
+            Set<Path> directories = new HashSet<>();
+            Spliterator<FileEntry> archiveEntries = new Spliterators.AbstractSpliterator<FileEntry>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super FileEntry> action) {
+                    FileEntry fileEntry;
+                    try {
+                        fileEntry = archiveReader.nextEntry();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
+
+                    if (fileEntry == null) {
+                        return false;
+                    }
+                    action.accept(fileEntry);
+                    return true;
                 }
-            });
+            };
+
+            // entries are merged one by one while the archive is read, the content of an entry is only available until the next one is read
+            merge(recorder, StreamSupport.stream(archiveEntries, false).
+                    flatMap(fileEntry -> createFileAndParentDirectoryEntries(directories, fileEntry).stream()).
+                    filter(this::isAccepted));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void merge(Stream<? extends FileEntry> sourceFileEntries) {
+        record("merge", recorder -> merge(recorder, sourceFileEntries));
+    }
+
+    private void merge(OperationRecorder recorder, Stream<? extends FileEntry> sourceFileEntries) {
+        flushEntryUpdates(recorder);
+        try (Transaction tx = beginTransaction()) {
+            recorder.phase("lock");
+            tx.lockAll();
+            recorder.phase("process");
+            sourceFileEntries.forEach(fileEntry -> mergeFileEntry(recorder, tx, fileEntry));
+            recorder.phase("commit");
             tx.commit();
         }
     }
 
+    private void mergeParallel(OperationRecorder recorder, List<FileEntry> sourceFileEntries) {
+        // the entries of a same file would be written concurrently to the same temporary file
+        Set<Path> filePaths = new HashSet<>();
+        for (FileEntry fileEntry : sourceFileEntries) {
+            if (!fileEntry.isDirectory() && !filePaths.add(fileEntry.path().normalize())) {
+                throw new IllegalArgumentException("Duplicate entry: " + fileEntry.path());
+            }
+        }
+
+        flushEntryUpdates(recorder);
+        try (Transaction tx = beginTransaction()) {
+            recorder.phase("lock");
+            tx.lockAll();
+
+            recorder.phase("process");
+            Map<Boolean, List<FileEntry>> entriesByType = sourceFileEntries.stream().collect(Collectors.partitioningBy(FileEntry::isDirectory));
+            recorder.remainingFiles(entriesByType.get(false).size());
+            entriesByType.get(true).forEach(fileEntry -> mergeFileEntry(recorder, tx, fileEntry));
+            m_workers.forEach(entriesByType.get(false), fileEntry -> mergeFileEntry(recorder, tx, fileEntry));
+
+            recorder.phase("commit");
+            tx.commit();
+        }
+    }
+
+    private void mergeFileEntry(OperationRecorder recorder, Transaction tx, FileEntry fileEntry) {
+        Path destinationFile = resolveTarget(fileEntry.path());
+
+        if (fileEntry.isDirectory()) {
+            tx.ensureDirectory(destinationFile);
+        } else {
+            OperationRecorder.FileStart start = recorder.fileStart();
+            Path currentFile = tx.currentFile(destinationFile);
+            Path outputFile = tx.updateFile(destinationFile);
+            if (currentFile != null && Files.exists(currentFile)) {
+                FileContentHandler fileContentHandler = retrieveFileHandler(fileEntry.path());
+                try (InputStream update = fileEntry.open(); InputStream reference = Files.newInputStream(currentFile);
+                     OutputStream resultOutput = newOutputStream(outputFile)) {
+                    mergeContent(fileContentHandler, update, reference, resultOutput);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                recorder.file(fileEntry.path(), fileContentHandler, WRITTEN, recorder.size(currentFile), recorder.size(outputFile), start);
+            } else {
+                try (InputStream update = fileEntry.open(); OutputStream resultOutput = newOutputStream(outputFile)) {
+                    Streams.copy(update, resultOutput);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                // the bytes copied from the entry are the written ones
+                long size = recorder.size(outputFile);
+                recorder.file(fileEntry.path(), null, WRITTEN, size, size, start);
+            }
+        }
+    }
+
     @Override
     public void merge(Path destinationFile, Path sourceFile) {
+        record("merge", recorder -> merge(recorder, destinationFile, sourceFile));
+    }
+
+    private void merge(OperationRecorder recorder, Path destinationFile, Path sourceFile) {
+        flushEntryUpdates(recorder);
         FileContentHandler fileContentHandler = retrieveFileHandler(destinationFile);
-        Path resolvedDestinationFile = m_targetDir.resolve(destinationFile);
+        Path resolvedDestinationFile = resolveTarget(destinationFile);
 
-        try (Transaction tx = new Transaction()) {
+        try (Transaction tx = beginTransaction()) {
+            recorder.phase("lock");
+            tx.lock(Collections.singleton(resolvedDestinationFile));
+            recorder.phase("process");
+            OperationRecorder.FileStart start = recorder.fileStart();
+            Path currentFile = existingCurrentFile(tx, resolvedDestinationFile);
             Path outputFile = tx.updateFile(resolvedDestinationFile);
-            try (InputStream source1Input = Files.newInputStream(sourceFile); InputStream source2Input = Files.newInputStream(resolvedDestinationFile);
-                 OutputStream resultOutput = Files.newOutputStream(outputFile)) {
-                fileContentHandler.merge(source1Input, source2Input, resultOutput);
+            try (InputStream source1Input = newInputStream(sourceFile); InputStream source2Input = Files.newInputStream(currentFile);
+                 OutputStream resultOutput = newOutputStream(outputFile)) {
+                mergeContent(fileContentHandler, source1Input, source2Input, resultOutput);
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
+            long bytesRead = recorder.size(sourceFile) + recorder.size(currentFile);
+            recorder.file(destinationFile, fileContentHandler, WRITTEN, bytesRead, recorder.size(outputFile), start);
+            recorder.phase("commit");
             tx.commit();
         }
     }
@@ -146,51 +491,150 @@ public class JConfigImpl implements JConfig {
     @Override
     public void setEntries(Path file, List<String> entries) {
         FileContentHandler fileContentHandler = retrieveFileHandler(file);
-        Path resolvedFile = m_targetDir.resolve(file);
-
-        try (Transaction tx = new Transaction()) {
-            Path outputFile = tx.updateFile(resolvedFile);
-            try (InputStream sourceInput = Files.newInputStream(resolvedFile); OutputStream resultOutput = Files.newOutputStream(outputFile)) {
-                fileContentHandler.setEntries(sourceInput, resultOutput, entries);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
-            tx.commit();
-        }
+        EntryUpdate update = (sourceInput, resultOutput) -> fileContentHandler.setEntries(sourceInput, resultOutput, entries);
+        record("setEntries", recorder -> updateEntries(recorder, file, fileContentHandler, update));
     }
 
     @Override
     public void removeEntries(Path file, List<String> entries) {
         FileContentHandler fileContentHandler = retrieveFileHandler(file);
-        Path resolvedFile = m_targetDir.resolve(file);
-
-        try (Transaction tx = new Transaction()) {
-            Path outputFile = tx.updateFile(resolvedFile);
-            try (InputStream sourceInput = Files.newInputStream(resolvedFile); OutputStream resultOutput = Files.newOutputStream(outputFile)) {
-                fileContentHandler.removeEntries(sourceInput, resultOutput, entries);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
-            tx.commit();
-        }
+        EntryUpdate update = (sourceInput, resultOutput) -> fileContentHandler.removeEntries(sourceInput, resultOutput, entries);
+        record("removeEntries", recorder -> updateEntries(recorder, file, fileContentHandler, update));
     }
 
     @Override
     public void filter(Path file, UnaryOperator<String> expressionProcessor) {
         FileContentHandler fileContentHandler = retrieveFileHandler(file);
-        Path resolvedFile = m_targetDir.resolve(file);
+        EntryUpdate update = (sourceInput, resultOutput) -> fileContentHandler.filter(sourceInput, resultOutput, expressionProcessor);
+        record("filter", recorder -> updateEntries(recorder, file, fileContentHandler, update));
+    }
 
-        try (Transaction tx = new Transaction()) {
-            Path outputFile = tx.updateFile(resolvedFile);
-            try (InputStream sourceInput = Files.newInputStream(resolvedFile); OutputStream resultOutput = Files.newOutputStream(outputFile)) {
-                fileContentHandler.filter(sourceInput, resultOutput, expressionProcessor);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+    @Override
+    public void batch(Consumer<JConfig> operations) {
+        if (m_batchTransaction != null) {
+            operations.accept(this);
+            return;
+        }
+
+        record("batch", recorder -> {
+            try (Transaction tx = new Transaction(m_fileLocks)) {
+                recorder.phase("lock");
+                tx.lockAll();
+                recorder.phase("operations");
+                JConfigImpl batch = new JConfigImpl(this, tx);
+                operations.accept(batch);
+                batch.flushEntryUpdates(recorder);
+                recorder.phase("commit");
+                tx.commit();
+            }
+        });
+    }
+
+    /**
+     * Run an operation, its statistics are given to the listeners.
+     */
+    private void record(String operation, Consumer<OperationRecorder> action) {
+        recordResult(operation, recorder -> {
+            action.accept(recorder);
+            return null;
+        });
+    }
+
+    private <T> T recordResult(String operation, Function<OperationRecorder, T> action) {
+        return OperationRecorder.record(operation, m_listeners, m_timeout, action);
+    }
+
+    private Transaction beginTransaction() {
+        return m_batchTransaction != null ? m_batchTransaction.join() : new Transaction(m_fileLocks);
+    }
+
+    private void updateEntries(OperationRecorder recorder, Path file, FileContentHandler fileContentHandler, EntryUpdate update) {
+        Path resolvedFile = resolveTarget(file);
+        if (m_batchTransaction != null) {
+            // the updates of a file are grouped, so that the file is read and written once per batch
+            synchronized (m_pendingEntryUpdates) {
+                m_pendingEntryUpdates.computeIfAbsent(resolvedFile, f -> new PendingEntryUpdates(file, fileContentHandler)).m_updates.add(update);
             }
+            return;
+        }
+
+        try (Transaction tx = beginTransaction()) {
+            recorder.phase("lock");
+            tx.lock(Collections.singleton(resolvedFile));
+            recorder.phase("process");
+            writeEntryUpdates(recorder, tx, resolvedFile, new PendingEntryUpdates(file, fileContentHandler, update));
+            recorder.phase("commit");
             tx.commit();
         }
     }
 
+    /**
+     * Apply the pending entry updates of a batch, must be called before any other operation so that it sees the updated files.
+     */
+    private void flushEntryUpdates(OperationRecorder recorder) {
+        if (m_batchTransaction != null) {
+            synchronized (m_pendingEntryUpdates) {
+                if (!m_pendingEntryUpdates.isEmpty()) {
+                    recorder.phase("flush");
+                    m_pendingEntryUpdates.forEach((file, updates) -> writeEntryUpdates(recorder, m_batchTransaction, file, updates));
+                    m_pendingEntryUpdates.clear();
+                }
+            }
+        }
+    }
+
+    private static void writeEntryUpdates(OperationRecorder recorder, Transaction tx, Path file, PendingEntryUpdates pendingUpdates) {
+        OperationRecorder.FileStart start = recorder.fileStart();
+        List<EntryUpdate> updates = pendingUpdates.m_updates;
+        Path currentFile = existingCurrentFile(tx, file);
+        Path outputFile = tx.updateFile(file);
+        try {
+            // intermediate results are kept in memory
+            InputStreamSupplier input = () -> Files.newInputStream(currentFile);
+            for (Iterator<EntryUpdate> it = updates.iterator(); it.hasNext(); ) {
+                EntryUpdate update = it.next();
+                if (it.hasNext()) {
+                    ByteArrayOutputStream result = new ByteArrayOutputStream();
+                    try (InputStream sourceInput = input.get()) {
+                        update.apply(sourceInput, result);
+                    }
+                    byte[] content = result.toByteArray();
+                    input = () -> new ByteArrayInputStream(content);
+                } else {
+                    try (InputStream sourceInput = input.get(); OutputStream resultOutput = Files.newOutputStream(outputFile)) {
+                        update.apply(sourceInput, resultOutput);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        recorder.file(pendingUpdates.m_file, pendingUpdates.m_fileContentHandler, WRITTEN, recorder.size(currentFile), recorder.size(outputFile),
+                      start);
+    }
+
+    private static Path existingCurrentFile(Transaction tx, Path file) {
+        Path currentFile = tx.currentFile(file);
+        if (currentFile == null) {
+            throw new UncheckedIOException(new NoSuchFileException(file.toString()));
+        }
+        return currentFile;
+    }
+
+    /**
+     * Filter an archive entry, archive entries are not walked so the directory filter has to be checked on all the parent directories.
+     */
+    private boolean isAccepted(FileEntry fileEntry) {
+        Path path = fileEntry.path();
+        int directoryCount = fileEntry.isDirectory() ? path.getNameCount() : path.getNameCount() - 1;
+        for (int i = 1; i <= directoryCount; i++) {
+            if (!m_directoryFilter.test(path.subpath(0, i))) {
+                return false;
+            }
+        }
+        return m_pathFilter.test(path);
+    }
+
     private FileContentHandler retrieveFileHandler(Path path) {
         return Optional.of(path).
                 map(m_fileHandlerResolver).
@@ -198,17 +642,68 @@ public class JConfigImpl implements JConfig {
     }
 
     /**
-     * In a zip file you may or may not have entries for the directories. This method creates {@link FileEntry} instances for the file and for its parent
-     * directories that were never seen before.
+     * Open a file for reading. On the default file system a {@link FileInputStream} is returned so that handlers can use zero-copy transfers.
+     */
+    private static InputStream newInputStream(Path file) throws IOException {
+        return isDefaultFileSystem(file) ? new FileInputStream(file.toFile()) : Files.newInputStream(file);
+    }
+
+    /**
+     * Open a file for writing. On the default file system a {@link FileOutputStream} is returned so that handlers can use zero-copy transfers.
+     */
+    private static OutputStream newOutputStream(Path file) throws IOException {
+        return isDefaultFileSystem(file) ? new FileOutputStream(file.toFile()) : Files.newOutputStream(file);
+    }
+
+    static boolean isDefaultFileSystem(Path file) {
+        return file.getFileSystem() == FileSystems.getDefault();
+    }
+
+    /**
+     * Resolve a relative path against the target directory. The relative path may belong to another file system than the target directory, eg a path
+     * of a diff file or of an archive entry while the target is in a ZIP or in-memory file system, in which case it's resolved name by name.
+     */
+    private Path resolveTarget(Path relativePath) {
+        Path resolved = resolve(m_targetDir, relativePath);
+        // eg an archive entry or a diff file section with a ".." segment
+        if (!resolved.normalize().startsWith(m_targetDir.normalize())) {
+            throw new IllegalArgumentException("Path is outside of the target directory: " + relativePath);
+        }
+        return resolved;
+    }
+
+    static Path resolve(Path dir, Path relativePath) {
+        if (relativePath.getFileSystem() == dir.getFileSystem()) {
+            return dir.resolve(relativePath);
+        }
+
+        Path resolved = dir;
+        for (Path name : relativePath) {
+            resolved = resolved.resolve(name.toString());
+        }
+        return resolved;
+    }
+
+    private static FileEntry newZipFileEntry(ZipFile zipFile, ZipEntry zipEntry) {
+        Path path = Paths.get(zipEntry.getName());
+        if (zipEntry.isDirectory()) {
+            return newDirectoryEntry(path);
+        } else {
+            return newRegularFileEntry(path, () -> zipFile.getInputStream(zipEntry));
+        }
+    }
+
+    /**
+     * In an archive you may or may not have entries for the directories. This method creates {@link FileEntry} instances for the parent directories that
+     * were never seen before.
      *
      * @param directories List of all the directories previously seen
-     * @param zipFile Current zip file
-     * @param zipEntry Current zip entry
-     * @return Entries for the parent directories never seen before and for the file itself
+     * @param fileEntry Current archive entry
+     * @return Entries for the parent directories never seen before and for the archive entry itself
      */
-    private List<FileEntry> createZipFileAndParentDirectoryEntries(Set<Path> directories, ZipFile zipFile, ZipEntry zipEntry) {
+    private static List<FileEntry> createFileAndParentDirectoryEntries(Set<Path> directories, FileEntry fileEntry) {
         List<FileEntry> result = new ArrayList<>();
-        Path path = Paths.get(zipEntry.getName());
+        Path path = fileEntry.path();
 
         // Append parent directories if not already defined
         for (int i = 1; i < path.getNameCount(); i++) {
@@ -218,42 +713,23 @@ public class JConfigImpl implements JConfig {
             }
         }
 
-        // Append zip entry
+        // Append archive entry
         // Always add it if it's a file, if it's a directory we check if we don't already have it
-        if (!zipEntry.isDirectory()) {
-            result.add(newRegularFileEntry(path, () -> zipFile.getInputStream(zipEntry)));
-        } else if (directories.add(path)) {
-            result.add(newDirectoryEntry(path));
+        if (!fileEntry.isDirectory() || directories.add(path)) {
+            result.add(fileEntry);
         }
 
         return result;
     }
 
     //region apply related code
-    private List<Section> parseSections(List<String> diffFileContent, Path diffFile) {
-        List<Section> sections = new ArrayList<>();
-
-        String currentSection = null;
-        List<String> sectionLines = new ArrayList<>();
-        for (String line : diffFileContent) {
-            Matcher matcher = SECTION_MARKER.matcher(line);
-            if (matcher.matches()) {
-                if (currentSection != null) {
-                    sections.add(buildSection(currentSection, sectionLines));
-                }
-                currentSection = matcher.group(1);
-                sectionLines = new ArrayList<>();
-            } else {
-                if (currentSection != null) {
-                    sectionLines.add(line);
-                } else if (isContentLine(line)) {
-                    throw new IllegalArgumentException("Content outside section in " + diffFile);
-                }
-            }
-        }
-
-        if (currentSection != null) {
-            sections.add(buildSection(currentSection, sectionLines));
+    private static List<Section> readSections(OperationRecorder recorder, Path diffFile, Predicate<String> pathFilter) {
+        OperationRecorder.FileStart start = recorder.fileStart();
+        List<Section> sections;
+        if (IndexedDiffFormat.isIndexed(diffFile)) {
+            sections = IndexedDiffFormat.read(diffFile, pathFilter);
+        } else {
+            sections = TextDiffFormat.read(diffFile, pathFilter);
         }
 
         Set<String> duplicates = new HashSet<>();
@@ -263,68 +739,123 @@ public class JConfigImpl implements JConfig {
             }
         });
 
+        recorder.file(diffFile, null, READ, recorder.size(diffFile), 0, start);
         return sections;
     }
 
-    private static boolean isContentLine(String line) {
-        // traditional .ini file comment mark is ';' , add support of traditional '#' also
-        return !line.isEmpty() && !(line.startsWith("#") || line.startsWith(";"));
-    }
+    private Section composeSections(Section section, Section nextSection) {
+        Section composedSection = composeSectionDiffs(section, nextSection);
 
-    private Section buildSection(String currentSection, List<String> sectionLines) {
-        // trim section lines
-        while (!sectionLines.isEmpty() && sectionLines.get(sectionLines.size() - 1).isEmpty()) {
-            sectionLines.remove(sectionLines.size() - 1);
+        // the composed section goes from the pre-image of the first section to the post-image of the next one
+        if (section.hasImageHashes() && nextSection.hasImageHashes()) {
+            return composedSection.withImageHashes(section.getPreImageHash(), nextSection.getPostImageHash());
         }
+        return composedSection.withImageHashes(null, null);
+    }
 
-        String[] elements = currentSection.split(" +");
-        if (!(elements.length == 2 || elements.length == 3)) {
-            throw new IllegalArgumentException("Invalid section header : " + currentSection);
+    /**
+     * @param section a copy section
+     * @param previousSections the sections applied before the copy section
+     * @return a section that gives the same result if it's applied after the previous sections are composed
+     */
+    private static Section resolveCopySection(Section section, Map<String, Section> previousSections) {
+        Section sourceSection = previousSections.get(section.getCopyFrom());
+        Section resolvedSection;
+        if (sourceSection == null) {
+            return section;
+        } else if (sourceSection.isCopy()) {
+            resolvedSection = Section.copySection(section.getPath(), sourceSection.getCopyFrom());
+        } else if (sourceSection.isDelete()) {
+            throw new IllegalArgumentException("Section " + section.getPath() + " copies a deleted file: " + section.getCopyFrom());
+        } else if (sourceSection.getDiff().isOverwrite()) {
+            resolvedSection = new Section(section.getPath(), sourceSection.getDiff());
+        } else {
+            throw new IllegalArgumentException("Section " + section.getPath() + " copies a merged file, it cannot be composed: " + section.getCopyFrom());
         }
-
-        String fileName = elements[0];
-        String mode = elements[1];
-        String encoding = elements.length == 3 ? elements[2].substring(1) : null;
-
-        Diff diff = getDiff(currentSection, sectionLines, mode, encoding);
-        return new Section(fileName, diff);
+        return resolvedSection.withImageHashes(section.getPreImageHash(), section.getPostImageHash());
     }
 
-    @Nullable
-    private Diff getDiff(String currentSection, List<String> sectionLines, String mode, @Nullable String encoding) {
-        Diff diff;
-        switch (mode) {
-            case SECTION_OVERWRITE:
-                diff = new Diff(true, encoding, sectionLines);
-                break;
-
-            case SECTION_MERGE:
-                diff = new Diff(false, null, sectionLines);
-                break;
-
-            case SECTION_DELETE:
-                if (sectionLines.stream().anyMatch(JConfigImpl::isContentLine)) {
-                    throw new IllegalArgumentException("Delete section contains content");
-                }
+    private Section composeSectionDiffs(Section section, Section nextSection) {
+        Diff diff = section.getDiff();
+        Diff nextDiff = nextSection.getDiff();
+        if (nextDiff == null || nextDiff.isOverwrite()) {
+            return nextSection;
+        }
 
-                diff = null;
-                break;
+        if (section.isCopy()) {
+            throw new IllegalArgumentException("Section " + section.getPath() + " merges a copied file, it cannot be composed");
+        }
 
-            default:
-                throw new IllegalArgumentException("Invalid section header : " + currentSection);
+        FileContentHandler fileContentHandler = retrieveFileHandler(Paths.get(section.getPath()));
+        try {
+            Diff composedDiff;
+            if (diff == null) {
+                // a merge on a deleted file gives a new file
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                fileContentHandler.apply(null, result, nextDiff);
+                composedDiff = fileContentHandler.diff(new ByteArrayInputStream(result.toByteArray()), null);
+            } else {
+                composedDiff = fileContentHandler.compose(diff, nextDiff);
+            }
+            return new Section(section.getPath(), composedDiff);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return diff;
     }
 
-    private void processSection(Transaction tx, Section section) {
+    /**
+     * @param updatedPaths the paths of all the sections applied in the transaction
+     * @param blobStore the store of the blobs referenced by the section
+     * @param undoSections if not {@code null}, the section that reverts the processed one is added to this list
+     */
+    private void processSection(OperationRecorder recorder, Transaction tx, Section section, Set<String> updatedPaths, Map<String, Path> copySources,
+                                @Nullable BlobStore blobStore, @Nullable List<Section> undoSections) {
+        OperationRecorder.FileStart start = recorder.fileStart();
         Diff diff = section.getDiff();
         Path targetPath = Paths.get(section.getPath());
-        Path targetFile = m_targetDir.resolve(targetPath);
-        if (diff != null) {
-            FileContentHandler fileContentHandler = retrieveFileHandler(targetPath);
+        Path targetFile = resolveTarget(targetPath);
+        // the target file may have been updated by a previous operation of a batch
+        Path currentFile = tx.currentFile(targetFile);
 
-            Path outputFile = tx.updateFile(targetFile);
-            try (InputStream sourceInput = Files.exists(targetFile) ? Files.newInputStream(targetFile) : null;
+        if (section.hasImageHashes()) {
+            String hash = currentFile != null ? ContentHashes.hash(currentFile) : ContentHashes.ABSENT;
+            if (hash.equals(section.getPostImageHash())) {
+                // already applied
+                recorder.file(targetPath, null, SKIPPED, recorder.size(currentFile), 0, start);
+                return;
+            }
+            if (!hash.equals(section.getPreImageHash())) {
+                throw new IllegalStateException(
+                        "Unexpected content of " + targetFile + ": expected hash " + section.getPreImageHash() + " (or " + section.getPostImageHash() +
+                                " if already applied), found " + hash);
+            }
+        }
+        Path outputFile = null;
+        Path readFile = null;
+        FileContentHandler fileContentHandler = null;
+        if (section.isCopy()) {
+            outputFile = tx.updateFile(targetFile);
+            // the source is linked only if it's replaced or deleted by the transaction, so that further in place modifications of one of the files don't
+            // affect the other
+            Path copySource = copySources.get(section.getCopyFrom());
+            if (copySource == null) {
+                throw new UncheckedIOException(new NoSuchFileException(resolveTarget(Paths.get(section.getCopyFrom())).toString()));
+            }
+            copyFile(copySource, outputFile, updatedPaths.contains(section.getCopyFrom()));
+            readFile = copySource;
+        } else if (diff != null && BlobStore.isBlobReference(diff)) {
+            if (blobStore == null) {
+                throw new IllegalArgumentException("A blob store is required to apply the section: " + section.getPath());
+            }
+            outputFile = tx.updateFile(targetFile);
+            readFile = blobStore.resolve(diff);
+            copyFile(readFile, outputFile, blobStore.isLinked());
+        } else if (diff != null) {
+            fileContentHandler = retrieveFileHandler(targetPath);
+
+            outputFile = tx.updateFile(targetFile);
+            readFile = currentFile;
+            try (InputStream sourceInput = currentFile != null && Files.exists(currentFile) ? Files.newInputStream(currentFile) : null;
                  OutputStream resultOutput = Files.newOutputStream(outputFile)) {
                 fileContentHandler.apply(sourceInput, resultOutput, diff);
             } catch (IOException e) {
@@ -333,120 +864,142 @@ public class JConfigImpl implements JConfig {
         } else {
             tx.deleteFile(targetFile);
         }
+
+        if (undoSections != null) {
+            try {
+                Section undoSection = inverseSection(section.getPath(), currentFile, outputFile);
+                if (undoSection != null) {
+                    undoSections.add(undoSection);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        FileStats.Action action = outputFile != null ? WRITTEN : DELETED;
+        recorder.file(targetPath, fileContentHandler, action, recorder.size(readFile), recorder.size(outputFile), start);
     }
-    //endregion
 
-    //region diff related code
-    private List<Section> generateSections(Path referenceDir) {
-        Set<Path> dirPaths = listFiles(m_targetDir);
-        Set<Path> refPaths = listFiles(referenceDir);
-
-        Set<Path> allPaths = new TreeSet<>();
-        allPaths.addAll(dirPaths);
-        allPaths.addAll(refPaths);
-
-        return allPaths.stream().
-                map(path -> {
-                    Diff diff;
-                    if (dirPaths.contains(path)) {
-                        Path currentFile = m_targetDir.resolve(path);
-                        Path referenceFile = refPaths.contains(path) ? referenceDir.resolve(path) : null;
-                        FileContentHandler fileContentHandler = retrieveFileHandler(path);
-                        try (InputStream source = Files.newInputStream(currentFile);
-                             InputStream referenceSource = referenceFile != null ? Files.newInputStream(referenceFile) : null) {
-                            diff = fileContentHandler.diff(source, referenceSource);
-                            if (diff == null) {
-                                return null; // no diff, will be filtered in the stream filter below
-                            }
-                        } catch (IOException e) {
-                            throw new UncheckedIOException(e);
-                        }
-                    } else {
-                        // file deleted
-                        diff = null;
-                    }
-                    String filePath = path.toString().replace("\\", "/");
-                    return new Section(filePath, diff);
-                }).
-                filter(Objects::nonNull).
-                collect(Collectors.toList());
-    }
-
-    private Set<Path> listFiles(Path dir) {
-        try (Stream<Path> walk = Files.walk(dir)) {
-            return walk.
-                    filter(Files::isRegularFile).
-                    map(dir::relativize).
-                    filter(m_pathFilter).
-                    collect(Collectors.toSet());
+    private void copyFile(Path sourceFile, Path outputFile, boolean link) {
+        if (link && sourceFile.getFileSystem() == outputFile.getFileSystem()) {
+            try {
+                Files.createLink(outputFile, sourceFile);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // eg the file system doesn't support hard links, fall back to a copy
+            }
+        }
+
+        try (InputStream in = newInputStream(sourceFile); OutputStream out = newOutputStream(outputFile)) {
+            Streams.copy(in, out);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private void writeSections(List<Section> sections, Path outputFile) {
-        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(outputFile, DIFF_CHARSET))) {
-            sections.forEach(section -> {
-                Diff diff = section.getDiff();
+    private static void mergeContent(FileContentHandler fileContentHandler, InputStream contentToMerge, InputStream sourceToUpdate, OutputStream result)
+            throws IOException {
+        if (fileContentHandler.getClass() == RawFileContentHandler.class) {
+            // the raw merge is an overwrite, the content is copied here so that the files are transferred by the file system
+            Streams.copy(contentToMerge, result);
+        } else {
+            fileContentHandler.merge(contentToMerge, sourceToUpdate, result);
+        }
+    }
 
-                String mode;
-                String encoding;
-                if (diff != null) {
-                    if (diff.isOverwrite()) {
-                        mode = SECTION_OVERWRITE;
-                    } else {
-                        mode = SECTION_MERGE;
-                    }
-                    encoding = diff.getEncoding();
-                    if (encoding != null) {
-                        encoding = " @" + encoding.toLowerCase();
-                    } else {
-                        encoding = "";
-                    }
-                } else {
-                    mode = SECTION_DELETE;
-                    encoding = "";
-                }
+    /**
+     * Compute the section that reverts an update. The target file is not modified yet, it still holds the previous content.
+     *
+     * @param path the section path
+     * @param targetFile the file that holds the previous content, or {@code null} if there is none
+     * @param outputFile the file that holds the new content, or {@code null} if the target file is deleted
+     * @return the section that reverts the update, or {@code null} if the target file is unchanged
+     */
+    @Nullable
+    private Section inverseSection(String path, @Nullable Path targetFile, @Nullable Path outputFile) throws IOException {
+        if (targetFile == null || !Files.exists(targetFile)) {
+            return outputFile != null ? new Section(path, null) : null;
+        }
+
+        if (outputFile != null && sameContent(targetFile, outputFile)) {
+            return null;
+        }
 
-                pw.printf("[%s %s%s]%n", section.getPath(), mode, encoding);
-                if (diff != null) {
-                    diff.getLines().forEach(pw::println);
+        FileContentHandler fileContentHandler = retrieveFileHandler(Paths.get(path));
+        try (InputStream previousInput = Files.newInputStream(targetFile);
+             InputStream updatedInput = outputFile != null ? Files.newInputStream(outputFile) : null) {
+            Diff diff = fileContentHandler.diff(previousInput, updatedInput);
+            return diff != null ? new Section(path, diff) : null;
+        }
+    }
+
+    private static boolean sameContent(Path file1, Path file2) throws IOException {
+        if (Files.size(file1) != Files.size(file2)) {
+            return false;
+        }
+
+        try (InputStream in1 = new BufferedInputStream(Files.newInputStream(file1));
+             InputStream in2 = new BufferedInputStream(Files.newInputStream(file2))) {
+            int b;
+            while ((b = in1.read()) != -1) {
+                if (b != in2.read()) {
+                    return false;
                 }
-                pw.println();
-            });
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            }
         }
+        return true;
     }
     //endregion
 
-    private static final class Section {
-        private final String m_path;
-        @Nullable
-        private final Diff m_diff;
+    //region diff related code
+    /**
+     * @param diffFile the diff file to be written, used for the statistics
+     * @param outputFile the file where the diff file is written
+     */
+    private static void writeSections(OperationRecorder recorder, List<Section> sections, Path diffFile, Path outputFile, DiffFormat format) {
+        OperationRecorder.FileStart start = recorder.fileStart();
+        switch (format) {
+            case TEXT:
+                TextDiffFormat.write(sections, outputFile);
+                break;
 
-        Section(String path, @Nullable Diff diff) {
-            m_path = path;
-            m_diff = diff;
-        }
+            case INDEXED:
+                IndexedDiffFormat.write(sections, outputFile);
+                break;
 
-        String getPath() {
-            return m_path;
+            default:
+                throw new IllegalArgumentException("Unsupported diff format: " + format);
         }
+        recorder.file(diffFile, null, WRITTEN, 0, recorder.size(outputFile), start);
+    }
+    //endregion
+
+    interface InputStreamSupplier {
+        InputStream get() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface EntryUpdate {
+        void apply(InputStream sourceInput, OutputStream resultOutput) throws IOException;
+    }
+
+    /**
+     * The entry updates of a file, applied in order.
+     */
+    private static final class PendingEntryUpdates {
+        private final Path m_file;
+        private final FileContentHandler m_fileContentHandler;
+        private final List<EntryUpdate> m_updates = new ArrayList<>();
 
         /**
-         * @return {@code null} if the file has to be deleted else the {@link Diff} object
+         * @param file the path of the file relative to the target directory
          */
-        @Nullable
-        Diff getDiff() {
-            return m_diff;
+        PendingEntryUpdates(Path file, FileContentHandler fileContentHandler, EntryUpdate... updates) {
+            m_file = file;
+            m_fileContentHandler = fileContentHandler;
+            m_updates.addAll(Arrays.asList(updates));
         }
     }
 
-    private interface InputStreamSupplier {
-        InputStream get() throws IOException;
-    }
-
     static final class FileEntryImpl implements FileEntry {
         static FileEntryImpl newRegularFileEntry(Path path, InputStreamSupplier inputStreamSupplier) {
             return new FileEntryImpl(path, false, inputStreamSupplier);
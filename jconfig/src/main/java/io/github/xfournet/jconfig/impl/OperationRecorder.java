@@ -0,0 +1,259 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
+import javax.annotation.*;
+import io.github.xfournet.jconfig.Cancellation;
+import io.github.xfournet.jconfig.FileContentHandler;
+import io.github.xfournet.jconfig.FileStats;
+import io.github.xfournet.jconfig.JConfigListener;
+import io.github.xfournet.jconfig.OperationProgress;
+import io.github.xfournet.jconfig.OperationStats;
+
+/**
+ * Record the statistics of an operation for the {@link JConfigListener}s and the JFR events, see {@link JConfigEvents}. When no listener is enabled and
+ * no event is recorded nothing is recorded, so that the operations don't pay for the clock reads and the file sizes.<br>
+ * The phases are sequential, the files can be recorded concurrently by several threads.<br>
+ * The recorder also checks the {@link Cancellation} of the operation at the start of each phase and of each file.<br>
+ * A listener that throws doesn't change the outcome of the operation: its exceptions are added as suppressed to the exception of a failed operation,
+ * and ignored when the operation succeeded.
+ */
+final class OperationRecorder {
+    private final String m_operation;
+    private final List<JConfigListener> m_listeners;
+    private final Cancellation m_cancellation;
+    private final Progress m_progress;
+    private final boolean m_enabled;
+    private final boolean m_fileEventEnabled;
+    @Nullable
+    private final Object m_operationEvent;
+    private final long m_start;
+    private final Map<String, Long> m_phases = new LinkedHashMap<>();
+    private final List<FileStats> m_files = new ArrayList<>();
+    private final List<RuntimeException> m_listenerFailures = Collections.synchronizedList(new ArrayList<>());
+    @Nullable
+    private String m_currentPhase;
+    private long m_currentPhaseStart;
+
+    /**
+     * Run an operation with its {@link Cancellation}, its statistics are given to the listeners once it's completed.
+     *
+     * @param timeout the timeout of the operation, or {@code null} if there is none
+     * @return the result of the operation
+     */
+    static <T> T record(String operation, List<JConfigListener> listeners, @Nullable Duration timeout, Function<OperationRecorder, T> action) {
+        Cancellation cancellation = new Cancellation(timeout);
+        OperationRecorder recorder = new OperationRecorder(operation, listeners, cancellation);
+        Throwable failure = null;
+        try {
+            return cancellation.call(() -> action.apply(recorder));
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            recorder.completed(failure);
+        }
+    }
+
+    private OperationRecorder(String operation, List<JConfigListener> listeners, Cancellation cancellation) {
+        m_operation = operation;
+        m_listeners = listeners.stream().filter(JConfigListener::isEnabled).collect(Collectors.toList());
+        m_cancellation = cancellation;
+        m_progress = new Progress(operation);
+        m_operationEvent = JConfigEvents.beginOperation();
+        m_fileEventEnabled = JConfigEvents.isFileEventEnabled();
+        m_enabled = !m_listeners.isEmpty() || m_operationEvent != null || m_fileEventEnabled;
+        m_start = m_enabled ? System.nanoTime() : 0;
+        notifyListeners(listener -> listener.operationStarted(m_progress));
+    }
+
+    /**
+     * @return {@code true} if the statistics are recorded, to be checked before computing costly values
+     */
+    boolean isEnabled() {
+        return m_enabled;
+    }
+
+    /**
+     * End the current phase and start a new one. A phase that is started several times accumulates its durations.
+     *
+     * @param phase the name of the phase
+     */
+    void phase(String phase) {
+        m_cancellation.check();
+        if (m_enabled) {
+            long now = System.nanoTime();
+            endPhase(now);
+            m_currentPhase = phase;
+            m_currentPhaseStart = now;
+        }
+    }
+
+    /**
+     * @return the start of a file processing, to be given to {@link #file(Path, FileContentHandler, FileStats.Action, long, long, FileStart)}, or
+     * {@code null} if nothing is recorded
+     */
+    @Nullable
+    FileStart fileStart() {
+        m_cancellation.check();
+        return m_enabled ? new FileStart(System.nanoTime(), m_fileEventEnabled ? JConfigEvents.beginFile() : null) : null;
+    }
+
+    /**
+     * Record a processed file.
+     *
+     * @param path the path of the file, relative to the target directory
+     * @param handler the handler that processed the file, or {@code null} if there is none
+     * @param action what was done with the file
+     * @param bytesRead the number of bytes read, see {@link #size(Path)}
+     * @param bytesWritten the number of bytes written, see {@link #size(Path)}
+     * @param start the start returned by {@link #fileStart()}
+     */
+    void file(Path path, @Nullable FileContentHandler handler, FileStats.Action action, long bytesRead, long bytesWritten, @Nullable FileStart start) {
+        if (start != null) {
+            Duration duration = Duration.ofNanos(System.nanoTime() - start.m_nanos);
+            String handlerName = handler != null ? handler.getClass().getSimpleName() : null;
+            JConfigEvents.endFile(start.m_event, m_operation, path, handlerName, action.name(), bytesRead, bytesWritten);
+            FileStats fileStats = new FileStats(path, handlerName, action, bytesRead, bytesWritten, duration);
+            synchronized (m_files) {
+                m_files.add(fileStats);
+            }
+            if (!m_listeners.isEmpty()) {
+                m_progress.m_filesDone.incrementAndGet();
+                m_progress.m_bytesProcessed.addAndGet(bytesRead + bytesWritten);
+                notifyListeners(listener -> listener.operationProgress(m_progress));
+            }
+        }
+    }
+
+    /**
+     * Declare the number of files that remain to be processed, so that the progress of the operation has a total. The files recorded afterwards
+     * beyond this number increase the total.
+     *
+     * @param fileCount the number of files that will be recorded by the rest of the operation
+     */
+    void remainingFiles(int fileCount) {
+        m_progress.m_fileCount = m_progress.m_filesDone.get() + fileCount;
+    }
+
+    /**
+     * @param file a file that was read or written, or {@code null}
+     * @return the size of the file, {@code 0} if the file doesn't exist or if nothing is recorded
+     */
+    long size(@Nullable Path file) {
+        if (!m_enabled || file == null) {
+            return 0;
+        }
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * End the operation and notify the listeners.
+     *
+     * @param failure the exception of the operation, or {@code null} if it succeeded
+     */
+    private void completed(@Nullable Throwable failure) {
+        if (m_enabled) {
+            boolean succeeded = failure == null;
+            long now = System.nanoTime();
+            endPhase(now);
+
+            Map<String, Duration> phases = new LinkedHashMap<>();
+            m_phases.forEach((phase, duration) -> phases.put(phase, Duration.ofNanos(duration)));
+            List<FileStats> files;
+            synchronized (m_files) {
+                files = new ArrayList<>(m_files);
+            }
+            OperationStats stats = new OperationStats(m_operation, succeeded, Duration.ofNanos(now - m_start), phases, files);
+            JConfigEvents.endOperation(m_operationEvent, m_operation, succeeded, files.size(), stats.getBytesRead(), stats.getBytesWritten());
+            m_progress.m_completed = true;
+            notifyListeners(listener -> listener.operationProgress(m_progress));
+            notifyListeners(listener -> listener.operationCompleted(stats));
+            if (failure != null) {
+                m_listenerFailures.forEach(failure::addSuppressed);
+            }
+        }
+    }
+
+    private void notifyListeners(Consumer<JConfigListener> notification) {
+        for (JConfigListener listener : m_listeners) {
+            try {
+                notification.accept(listener);
+            } catch (RuntimeException e) {
+                m_listenerFailures.add(e);
+            }
+        }
+    }
+
+    private void endPhase(long now) {
+        if (m_currentPhase != null) {
+            m_phases.merge(m_currentPhase, now - m_currentPhaseStart, Long::sum);
+            m_currentPhase = null;
+        }
+    }
+
+    /**
+     * The progress given to the listeners, updated by the recorded files.
+     */
+    private static final class Progress implements OperationProgress {
+        private final String m_operation;
+        private final AtomicInteger m_filesDone = new AtomicInteger();
+        private final AtomicLong m_bytesProcessed = new AtomicLong();
+        private volatile int m_fileCount = -1;
+        private volatile boolean m_completed;
+
+        private Progress(String operation) {
+            m_operation = operation;
+        }
+
+        @Override
+        public String getOperation() {
+            return m_operation;
+        }
+
+        @Override
+        public int getFilesDone() {
+            return m_filesDone.get();
+        }
+
+        @Override
+        public int getFileCount() {
+            int fileCount = m_fileCount;
+            return fileCount >= 0 ? Math.max(fileCount, m_filesDone.get()) : -1;
+        }
+
+        @Override
+        public long getBytesProcessed() {
+            return m_bytesProcessed.get();
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return m_completed;
+        }
+    }
+
+    /**
+     * The start of a file processing.
+     */
+    static final class FileStart {
+        private final long m_nanos;
+        @Nullable
+        private final Object m_event;
+
+        private FileStart(long nanos, @Nullable Object event) {
+            m_nanos = nanos;
+            m_event = event;
+        }
+    }
+}
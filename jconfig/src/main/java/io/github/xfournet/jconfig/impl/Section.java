@@ -0,0 +1,224 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.util.*;
+import java.util.regex.*;
+import javax.annotation.*;
+import io.github.xfournet.jconfig.Diff;
+
+/**
+ * A section of a diff file, ie the instructions to be applied on a single file.
+ */
+final class Section {
+    private static final String SECTION_OVERWRITE = "overwrite";
+    private static final String SECTION_MERGE = "merge";
+    private static final String SECTION_DELETE = "delete";
+    private static final String SECTION_COPY_FROM = "copy-from";
+    private static final Pattern IMAGE_HASHES = Pattern.compile("^# *pre=(\\S+) +post=(\\S+)$");
+
+    private final String m_path;
+    @Nullable
+    private final Diff m_diff;
+    @Nullable
+    private final String m_copyFrom;
+    @Nullable
+    private final String m_preImageHash;
+    @Nullable
+    private final String m_postImageHash;
+
+    Section(String path, @Nullable Diff diff) {
+        this(path, diff, null, null, null);
+    }
+
+    /**
+     * @param preImageHash the expected hash of the file before the section is applied, see {@link ContentHashes}
+     * @param postImageHash the expected hash of the file after the section is applied, see {@link ContentHashes}
+     */
+    Section(String path, @Nullable Diff diff, @Nullable String preImageHash, @Nullable String postImageHash) {
+        this(path, diff, null, preImageHash, postImageHash);
+    }
+
+    private Section(String path, @Nullable Diff diff, @Nullable String copyFrom, @Nullable String preImageHash, @Nullable String postImageHash) {
+        if ((preImageHash == null) != (postImageHash == null)) {
+            throw new IllegalArgumentException("Both pre-image and post-image hashes must be specified");
+        }
+        m_path = path;
+        m_diff = diff;
+        m_copyFrom = copyFrom;
+        m_preImageHash = preImageHash;
+        m_postImageHash = postImageHash;
+    }
+
+    /**
+     * @param path the path of the file to be created or replaced
+     * @param copyFrom the path of the file to be copied, its content is the one before the diff file is applied
+     * @return a section that copies a file of the target directory
+     */
+    static Section copySection(String path, String copyFrom) {
+        return new Section(path, null, copyFrom, null, null);
+    }
+
+    String getPath() {
+        return m_path;
+    }
+
+    /**
+     * @return {@code null} if the file has to be deleted or copied else the {@link Diff} object
+     */
+    @Nullable
+    Diff getDiff() {
+        return m_diff;
+    }
+
+    boolean isCopy() {
+        return m_copyFrom != null;
+    }
+
+    boolean isDelete() {
+        return m_diff == null && m_copyFrom == null;
+    }
+
+    /**
+     * @return the path of the copied file if this section is a copy
+     */
+    @Nullable
+    String getCopyFrom() {
+        return m_copyFrom;
+    }
+
+    boolean hasImageHashes() {
+        return m_preImageHash != null;
+    }
+
+    @Nullable
+    String getPreImageHash() {
+        return m_preImageHash;
+    }
+
+    @Nullable
+    String getPostImageHash() {
+        return m_postImageHash;
+    }
+
+    /**
+     * @param preImageHash the pre-image hash, or {@code null} to remove the hashes
+     * @param postImageHash the post-image hash, or {@code null} to remove the hashes
+     * @return a copy of this section with other image hashes
+     */
+    Section withImageHashes(@Nullable String preImageHash, @Nullable String postImageHash) {
+        return new Section(m_path, m_diff, m_copyFrom, preImageHash, postImageHash);
+    }
+
+    /**
+     * @return the comment that follows the section header, eg {@code # pre=sha256:... post=none}, or {@code null} if there is no image hashes
+     */
+    @Nullable
+    String getComment() {
+        return m_preImageHash != null ? "# pre=" + m_preImageHash + " post=" + m_postImageHash : null;
+    }
+
+    /**
+     * @return the section header, eg {@code conf/jvm.conf merge} or {@code lib/plugin-2.jar copy-from lib/plugin-1.jar}
+     */
+    String getHeader() {
+        if (m_copyFrom != null) {
+            return m_path + " " + SECTION_COPY_FROM + " " + m_copyFrom;
+        }
+
+        String mode;
+        String encoding;
+        if (m_diff != null) {
+            if (m_diff.isOverwrite()) {
+                mode = SECTION_OVERWRITE;
+            } else {
+                mode = SECTION_MERGE;
+            }
+            encoding = m_diff.getEncoding();
+            if (encoding != null) {
+                encoding = " @" + encoding.toLowerCase();
+            } else {
+                encoding = "";
+            }
+        } else {
+            mode = SECTION_DELETE;
+            encoding = "";
+        }
+
+        return m_path + " " + mode + encoding;
+    }
+
+    /**
+     * Build a section from its header and its content.
+     *
+     * @param header the section header, as returned by {@link #getHeader()}
+     * @param comment the comment that follows the header, image hashes are read from it if it's formatted as returned by {@link #getComment()}
+     * @param sectionLines the section content
+     * @return the section
+     */
+    static Section parse(String header, @Nullable String comment, List<String> sectionLines) {
+        String[] elements = header.split(" +");
+        if (!(elements.length == 2 || elements.length == 3)) {
+            throw new IllegalArgumentException("Invalid section header : " + header);
+        }
+
+        String fileName = elements[0];
+        String mode = elements[1];
+
+        Diff diff;
+        String copyFrom;
+        if (SECTION_COPY_FROM.equals(mode)) {
+            if (elements.length != 3) {
+                throw new IllegalArgumentException("Invalid section header : " + header);
+            }
+            if (sectionLines.stream().anyMatch(Section::isContentLine)) {
+                throw new IllegalArgumentException("Copy section contains content");
+            }
+            diff = null;
+            copyFrom = elements[2];
+        } else {
+            String encoding = elements.length == 3 ? elements[2].substring(1) : null;
+            diff = getDiff(header, sectionLines, mode, encoding);
+            copyFrom = null;
+        }
+
+        Matcher imageHashes = comment != null ? IMAGE_HASHES.matcher(comment) : null;
+        if (imageHashes != null && imageHashes.matches()) {
+            return new Section(fileName, diff, copyFrom, imageHashes.group(1), imageHashes.group(2));
+        }
+        return new Section(fileName, diff, copyFrom, null, null);
+    }
+
+    /**
+     * @param line a line of a diff file
+     * @return {@code true} if the line is neither empty nor a comment
+     */
+    static boolean isContentLine(String line) {
+        // traditional .ini file comment mark is ';' , add support of traditional '#' also
+        return !line.isEmpty() && !(line.startsWith("#") || line.startsWith(";"));
+    }
+
+    @Nullable
+    private static Diff getDiff(String header, List<String> sectionLines, String mode, @Nullable String encoding) {
+        Diff diff;
+        switch (mode) {
+            case SECTION_OVERWRITE:
+                diff = new Diff(true, encoding, sectionLines);
+                break;
+
+            case SECTION_MERGE:
+                diff = new Diff(false, null, sectionLines);
+                break;
+
+            case SECTION_DELETE:
+                if (sectionLines.stream().anyMatch(Section::isContentLine)) {
+                    throw new IllegalArgumentException("Delete section contains content");
+                }
+
+                diff = null;
+                break;
+
+            default:
+                throw new IllegalArgumentException("Invalid section header : " + header);
+        }
+        return diff;
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import io.github.xfournet.jconfig.Cancellation;
+
+/**
+ * Copy of streams, checking the {@link Cancellation} of the current operation.
+ */
+final class Streams {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long TRANSFER_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private Streams() {
+    }
+
+    /**
+     * Copy a stream. When both streams are backed by files the data is transferred by the file system, see {@link #transfer(FileChannel,
+     * WritableByteChannel)}. Else (eg for ZIP entries), or for what the file system didn't transfer, the data is copied through a buffer.
+     *
+     * @param in the stream to be copied, read until its end
+     * @param out the stream to which the data is written
+     */
+    static void copy(InputStream in, OutputStream out) throws IOException {
+        if (in instanceof FileInputStream && out instanceof FileOutputStream) {
+            if (transfer(((FileInputStream) in).getChannel(), ((FileOutputStream) out).getChannel())) {
+                return;
+            }
+        }
+
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            Cancellation.checkCancelled();
+        }
+    }
+
+    /**
+     * Transfer a file from its current position with {@link FileChannel#transferTo} instead of copying it through the heap, by chunks so that the
+     * transfer of a large file can be cancelled. The transfer stops as soon as a chunk transfers nothing.
+     *
+     * @param in the file to be transferred, its position is moved after the transferred data
+     * @param out the channel to which the data is written
+     * @return {@code true} if the file was transferred until its end
+     */
+    static boolean transfer(FileChannel in, WritableByteChannel out) throws IOException {
+        long position = in.position();
+        long size = in.size();
+        while (position < size) {
+            Cancellation.checkCancelled();
+            long transferred = in.transferTo(position, Math.min(size - position, TRANSFER_CHUNK_SIZE), out);
+            if (transferred <= 0) {
+                // eg the file was truncated meanwhile
+                break;
+            }
+            position += transferred;
+        }
+        in.position(position);
+        return position >= size;
+    }
+}
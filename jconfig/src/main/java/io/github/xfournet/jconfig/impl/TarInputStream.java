@@ -0,0 +1,323 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import javax.annotation.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Sequential reader of a TAR stream, supporting the ustar, GNU long name and PAX path extensions.<br>
+ * Only regular files and directories are reported, other entries (links, devices, ...) are skipped. The headers are validated (ustar magic and
+ * checksum), and the entries whose name is absolute or contains a {@code ..} segment are rejected since they could be written outside the target
+ * directory.
+ */
+final class TarInputStream extends FilterInputStream {
+    static final int BLOCK_SIZE = 512;
+    private static final int CHECKSUM_OFFSET = 148;
+    private static final int CHECKSUM_LENGTH = 8;
+    private static final int MAGIC_OFFSET = 257;
+
+    private static final char TYPE_REGULAR = '0';
+    private static final char TYPE_REGULAR_OLD = '\0';
+    private static final char TYPE_CONTIGUOUS = '7';
+    private static final char TYPE_DIRECTORY = '5';
+    private static final char TYPE_GNU_LONG_NAME = 'L';
+    private static final char TYPE_PAX_HEADER = 'x';
+
+    private final byte[] m_header = new byte[BLOCK_SIZE];
+    private long m_remaining;
+    private long m_padding;
+
+    TarInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Move to the next entry, the remaining content of the current entry is skipped.
+     *
+     * @return the next entry or {@code null} if the end of the archive is reached
+     * @throws IOException in case of I/O error or if the archive is invalid
+     */
+    @Nullable
+    TarEntry getNextEntry() throws IOException {
+        String longName = null;
+        while (true) {
+            skipFully(m_remaining + m_padding);
+            m_remaining = 0;
+            m_padding = 0;
+
+            if (!readBlock(m_header) || isZeroBlock(m_header)) {
+                return null;
+            }
+            if (!isTarHeader(m_header)) {
+                throw new IOException("Invalid TAR header, the archive is corrupted or it's not a ustar archive");
+            }
+
+            char type = (char) m_header[156];
+            long size = parseSize(m_header);
+            m_remaining = size;
+            m_padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+
+            if (type == TYPE_GNU_LONG_NAME) {
+                longName = trimName(new String(readContent(size), UTF_8));
+            } else if (type == TYPE_PAX_HEADER) {
+                String path = parsePaxPath(readContent(size));
+                if (path != null) {
+                    longName = path;
+                }
+            } else {
+                String name = longName != null ? longName : parseName(m_header);
+                longName = null;
+
+                boolean directory = type == TYPE_DIRECTORY || name.endsWith("/");
+                boolean regular = type == TYPE_REGULAR || type == TYPE_REGULAR_OLD || type == TYPE_CONTIGUOUS;
+                name = stripName(name);
+                if ((directory || regular) && !name.isEmpty()) {
+                    return new TarEntry(name, directory);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (m_remaining <= 0) {
+            return -1;
+        }
+        int b = super.read();
+        if (b == -1) {
+            throw new EOFException("Truncated TAR entry");
+        }
+        m_remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (m_remaining <= 0) {
+            return -1;
+        }
+        int read = super.read(b, off, (int) Math.min(len, m_remaining));
+        if (read == -1) {
+            throw new EOFException("Truncated TAR entry");
+        }
+        m_remaining -= read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(Math.min(n, m_remaining));
+        m_remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(super.available(), m_remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private byte[] readContent(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("TAR extended header is too large: " + size);
+        }
+        byte[] content = new byte[(int) size];
+        int offset = 0;
+        while (offset < content.length) {
+            int read = read(content, offset, content.length - offset);
+            if (read == -1) {
+                throw new EOFException("Truncated TAR header");
+            }
+            offset += read;
+        }
+        return content;
+    }
+
+    private boolean readBlock(byte[] block) throws IOException {
+        int offset = 0;
+        while (offset < block.length) {
+            int read = in.read(block, offset, block.length - offset);
+            if (read == -1) {
+                if (offset == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated TAR header");
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    private void skipFully(long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Truncated TAR entry");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * @param block the first block of an archive, or of an entry
+     * @return {@code true} if the block is a ustar (POSIX or GNU) header with a valid checksum
+     */
+    static boolean isTarHeader(byte[] block) {
+        if (block.length < BLOCK_SIZE || !"ustar".equals(parseString(block, MAGIC_OFFSET, 6).trim())) {
+            return false;
+        }
+
+        String octal = parseString(block, CHECKSUM_OFFSET, CHECKSUM_LENGTH).trim();
+        long checksum;
+        try {
+            checksum = Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        // the checksum field is summed as spaces, some old implementations sum signed bytes
+        long unsignedSum = 0;
+        long signedSum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            byte b = i >= CHECKSUM_OFFSET && i < CHECKSUM_OFFSET + CHECKSUM_LENGTH ? (byte) ' ' : block[i];
+            unsignedSum += b & 0xFF;
+            signedSum += b;
+        }
+        return checksum == unsignedSum || checksum == signedSum;
+    }
+
+    static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String parseName(byte[] header) {
+        String name = parseString(header, 0, 100);
+        // the old GNU format stores other fields in place of the prefix, its magic is followed by a space instead of a NUL
+        if (header[MAGIC_OFFSET + 5] == 0) {
+            String prefix = parseString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String parseString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, UTF_8);
+    }
+
+    private static long parseSize(byte[] header) throws IOException {
+        int offset = 124;
+        int length = 12;
+        if ((header[offset] & 0x80) != 0) {
+            // GNU base-256 encoding for large files
+            long size = header[offset] & 0x7F;
+            for (int i = 1; i < length; i++) {
+                size = (size << 8) | (header[offset + i] & 0xFF);
+            }
+            return size;
+        }
+
+        String octal = parseString(header, offset, length).trim();
+        try {
+            return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid TAR entry size: " + octal, e);
+        }
+    }
+
+    @Nullable
+    private static String parsePaxPath(byte[] content) throws IOException {
+        // records are formatted as "<length> <key>=<value>\n", length being in bytes and including the whole record
+        String path = null;
+        int offset = 0;
+        while (offset < content.length) {
+            int space = offset;
+            while (space < content.length && content[space] != ' ') {
+                space++;
+            }
+            int recordLength;
+            try {
+                recordLength = Integer.parseInt(new String(content, offset, space - offset, UTF_8));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid PAX header", e);
+            }
+            if (recordLength <= 0 || offset + recordLength > content.length) {
+                throw new IOException("Invalid PAX header");
+            }
+
+            String record = new String(content, space + 1, offset + recordLength - space - 2, UTF_8);
+            if (record.startsWith("path=")) {
+                path = trimName(record.substring("path=".length()));
+            }
+            offset += recordLength;
+        }
+        return path;
+    }
+
+    private static String trimName(String name) {
+        int end = name.indexOf('\0');
+        return end != -1 ? name.substring(0, end) : name;
+    }
+
+    private static String stripName(String name) throws IOException {
+        if (name.startsWith("/") || name.startsWith("\\") || (name.length() > 1 && name.charAt(1) == ':')) {
+            throw new IOException("Invalid TAR entry name, it's absolute: " + name);
+        }
+        for (String segment : name.split("[/\\\\]")) {
+            if ("..".equals(segment)) {
+                throw new IOException("Invalid TAR entry name, it's outside of the archive: " + name);
+            }
+        }
+
+        String stripped = name;
+        while (stripped.startsWith("./")) {
+            stripped = stripped.substring("./".length());
+        }
+        while (stripped.endsWith("/")) {
+            stripped = stripped.substring(0, stripped.length() - 1);
+        }
+        return ".".equals(stripped) ? "" : stripped;
+    }
+
+    static final class TarEntry {
+        private final String m_name;
+        private final boolean m_directory;
+
+        private TarEntry(String name, boolean directory) {
+            m_name = name;
+            m_directory = directory;
+        }
+
+        String getName() {
+            return m_name;
+        }
+
+        boolean isDirectory() {
+            return m_directory;
+        }
+
+        @Override
+        public String toString() {
+            return m_name;
+        }
+    }
+}
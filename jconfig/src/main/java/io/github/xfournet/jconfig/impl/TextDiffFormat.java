@@ -0,0 +1,102 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.*;
+import java.util.regex.*;
+import javax.annotation.*;
+import io.github.xfournet.jconfig.Diff;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The {@code .ini} like diff file format, where each section is introduced by a {@code [path mode]} header.
+ */
+final class TextDiffFormat {
+    private static final Charset DIFF_CHARSET = UTF_8;
+    private static final Pattern SECTION_MARKER = Pattern.compile("^\\[(.+)]( +#.*)?$");
+
+    /**
+     * Read the sections of a diff file. The whole file has to be parsed, the filter only avoids to retain the rejected sections.
+     *
+     * @param diffFile the diff file
+     * @param pathFilter the filter of the section paths
+     * @return the accepted sections
+     */
+    static List<Section> read(Path diffFile, Predicate<String> pathFilter) {
+        List<String> diffFileContent;
+        try {
+            diffFileContent = Files.readAllLines(diffFile, DIFF_CHARSET);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<Section> sections = new ArrayList<>();
+
+        String currentSection = null;
+        String currentComment = null;
+        List<String> sectionLines = new ArrayList<>();
+        for (String line : diffFileContent) {
+            Matcher matcher = SECTION_MARKER.matcher(line);
+            if (matcher.matches()) {
+                if (currentSection != null) {
+                    sections.add(buildSection(currentSection, currentComment, sectionLines));
+                }
+                currentSection = matcher.group(1);
+                currentComment = matcher.group(2) != null ? matcher.group(2).trim() : null;
+                sectionLines = new ArrayList<>();
+            } else {
+                if (currentSection != null) {
+                    sectionLines.add(line);
+                } else if (Section.isContentLine(line)) {
+                    throw new IllegalArgumentException("Content outside section in " + diffFile);
+                }
+            }
+        }
+
+        if (currentSection != null) {
+            sections.add(buildSection(currentSection, currentComment, sectionLines));
+        }
+
+        sections.removeIf(section -> !pathFilter.test(section.getPath()));
+        return sections;
+    }
+
+    /**
+     * Write sections to a diff file.
+     *
+     * @param sections the sections to be written
+     * @param outputFile the diff file
+     */
+    static void write(List<Section> sections, Path outputFile) {
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(outputFile, DIFF_CHARSET))) {
+            sections.forEach(section -> {
+                Diff diff = section.getDiff();
+
+                String comment = section.getComment();
+                pw.printf("[%s]%s%n", section.getHeader(), comment != null ? " " + comment : "");
+                if (diff != null) {
+                    diff.getLines().forEach(pw::println);
+                }
+                pw.println();
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Section buildSection(String currentSection, @Nullable String currentComment, List<String> sectionLines) {
+        // trim section lines
+        while (!sectionLines.isEmpty() && sectionLines.get(sectionLines.size() - 1).isEmpty()) {
+            sectionLines.remove(sectionLines.size() - 1);
+        }
+
+        return Section.parse(currentSection, currentComment, sectionLines);
+    }
+
+    private TextDiffFormat() {
+    }
+}
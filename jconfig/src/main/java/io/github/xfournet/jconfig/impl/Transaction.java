@@ -1,31 +1,71 @@
 package io.github.xfournet.jconfig.impl;
 
 import java.io.*;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
+import javax.annotation.*;
 
 import static java.nio.file.StandardCopyOption.*;
 
+/**
+ * Stage file modifications so that they are applied all together on {@link #commit()}, or rolled back on {@link #close()}.<br>
+ * Staging methods can be called concurrently by several threads. A file can be staged several times, {@link #currentFile(Path)} gives its latest staged
+ * content.
+ */
 final class Transaction implements AutoCloseable {
-    private final String m_tmpFileSuffix = "." + System.currentTimeMillis() + ".tmp";
+    private final String m_tmpFileSuffix = String.format(".%d.%08x.tmp", System.currentTimeMillis(), ThreadLocalRandom.current().nextInt());
+    private final FileLocks m_fileLocks;
     private final List<FileOperation> m_commitOperations = new ArrayList<>();
     private final List<FileOperation> m_rollbackOperations = new ArrayList<>();
+    private final List<FileLocks.Lock> m_locks = new ArrayList<>();
+    private final Map<Path, Path> m_currentFiles = new HashMap<>();
+    private int m_stagingCount;
+    private int m_joinCount;
+    private boolean m_partiallyCommitted;
+
+    Transaction(FileLocks fileLocks) {
+        m_fileLocks = fileLocks;
+    }
+
+    /**
+     * Locks the given files until the transaction is closed. Must be called before reading the files that will be updated so that concurrent updates are
+     * not lost.
+     *
+     * @param files Files to lock
+     */
+    void lock(Collection<Path> files) {
+        m_locks.add(m_fileLocks.lock(files));
+    }
+
+    /**
+     * Locks all the files until the transaction is closed, to be used when the updated files are not known in advance.
+     */
+    void lockAll() {
+        m_locks.add(m_fileLocks.lockAll());
+    }
 
     /**
      * Ensures that the given directory exists. If it doesn't exist yet it's created and will be removed upon rollback
      *
      * @param path Directory to create
      */
-    void ensureDirectory(Path path) {
+    synchronized void ensureDirectory(Path path) {
         if (!Files.exists(path)) {
             Path parent = path.getParent();
             if (parent != null) {
                 ensureDirectory(parent);
             }
 
-            m_rollbackOperations.add(() -> Files.deleteIfExists(path));
+            m_rollbackOperations.add(() -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (DirectoryNotEmptyException e) {
+                    // a file was moved in the directory by a partial commit
+                }
+            });
             try {
                 Files.createDirectory(path);
             } catch (IOException e) {
@@ -41,8 +81,12 @@ final class Transaction implements AutoCloseable {
      * @param file File to update
      * @return Temporary file for writing in it
      */
-    Path updateFile(Path file) {
-        Path tmpFile = Paths.get(file.toString() + m_tmpFileSuffix);
+    synchronized Path updateFile(Path file) {
+        // resolved against the file so that it stays on the same file system, whatever the provider
+        Path key = key(file);
+        String staging = m_currentFiles.containsKey(key) ? "." + ++m_stagingCount : "";
+        Path tmpFile = file.resolveSibling(file.getFileName() + staging + m_tmpFileSuffix);
+        m_currentFiles.put(key, tmpFile);
         m_rollbackOperations.add(() -> Files.deleteIfExists(tmpFile));
 
         Path parent = tmpFile.getParent();
@@ -58,36 +102,124 @@ final class Transaction implements AutoCloseable {
      *
      * @param file File to delete
      */
-    void deleteFile(Path file) {
+    synchronized void deleteFile(Path file) {
+        m_currentFiles.put(key(file), null);
         m_commitOperations.add(() -> Files.deleteIfExists(file));
     }
 
     /**
-     * Commits the transaction. All file modifications are applied.
+     * Gives the current content of a file, as seen by the operations of the transaction. Must be called before the file is staged again with
+     * {@link #updateFile(Path)} to read its previous content.
+     *
+     * @param file File to read
+     * @return the latest temporary file staged for the file, the file itself if it's not staged, or {@code null} if the file is deleted by the
+     * transaction
+     */
+    @Nullable
+    synchronized Path currentFile(Path file) {
+        Path key = key(file);
+        return m_currentFiles.containsKey(key) ? m_currentFiles.get(key) : file;
+    }
+
+    /**
+     * Join the transaction, eg for an operation that is part of a larger batch. Until the joined transaction is closed, {@link #commit()} does nothing and
+     * {@link #close()} only leaves the transaction, so the modifications are only applied or rolled back by the outermost owner.
+     *
+     * @return this transaction
+     */
+    synchronized Transaction join() {
+        m_joinCount++;
+        return this;
+    }
+
+    /**
+     * Commits the transaction. All file modifications are applied, unless a lock was lost. When a modification fails, the ones already applied are
+     * kept, see {@link #isPartiallyCommitted()}.
      */
     void commit() {
+        synchronized (this) {
+            if (m_joinCount > 0) {
+                return;
+            }
+        }
+        m_locks.forEach(FileLocks.Lock::checkValid);
+        Object event = JConfigEvents.beginTransaction();
+        boolean succeeded = false;
+        int committedCount = 0;
         try {
-            m_commitOperations.forEach(FileOperation::safeRun);
+            for (FileOperation commitOperation : m_commitOperations) {
+                commitOperation.safeRun();
+                committedCount++;
+            }
+            succeeded = true;
         } finally {
+            m_partiallyCommitted = !succeeded && committedCount > 0;
+            JConfigEvents.endTransaction(event, JConfigEvents.COMMIT, m_commitOperations.size(), succeeded);
             m_commitOperations.clear();
-            m_rollbackOperations.clear();
+            // on failure, close() still removes the staged files that were not moved
+            if (succeeded) {
+                m_rollbackOperations.clear();
+            }
         }
     }
 
     /**
-     * Closes the transaction, performs a rollback if it's not committed (ie interrupted by an exception)
+     * @return {@code true} if {@link #commit()} failed after some file modifications were applied, they are not undone by {@link #close()} which
+     * only removes the staged files that were not moved and the created directories that are still empty
+     */
+    synchronized boolean isPartiallyCommitted() {
+        return m_partiallyCommitted;
+    }
+
+    /**
+     * Closes the transaction, performs a rollback if it's not committed (ie interrupted by an exception) and releases the locks
      */
     @Override
     public void close() {
+        synchronized (this) {
+            if (m_joinCount > 0) {
+                m_joinCount--;
+                return;
+            }
+        }
+        // nothing to roll back once committed
+        Object event = m_rollbackOperations.isEmpty() ? null : JConfigEvents.beginTransaction();
+        boolean succeeded = false;
         Collections.reverse(m_rollbackOperations);
         try {
             m_rollbackOperations.forEach(FileOperation::safeRun);
+            succeeded = true;
         } finally {
+            JConfigEvents.endTransaction(event, JConfigEvents.ROLLBACK, m_rollbackOperations.size(), succeeded);
             m_commitOperations.clear();
             m_rollbackOperations.clear();
+            m_currentFiles.clear();
+
+            Collections.reverse(m_locks);
+            List<FileLocks.Lock> locks = new ArrayList<>(m_locks);
+            m_locks.clear();
+            RuntimeException failure = null;
+            for (FileLocks.Lock lock : locks) {
+                try {
+                    lock.close();
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
         }
     }
 
+    private static Path key(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
     @FunctionalInterface
     private interface FileOperation {
         void run() throws IOException;
@@ -0,0 +1,130 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import io.github.xfournet.jconfig.Cancellation;
+
+/**
+ * The threads that process files in parallel, shared by the {@link JConfigImpl}s created by a {@link io.github.xfournet.jconfig.JConfigBuilder}.<br>
+ * The pool holds up to {@code parallelism - 1} daemon threads, they are started on demand and released after a minute of inactivity so the pool
+ * doesn't need to be closed. The calling thread takes part in the processing: an operation progresses even when all the threads of the pool are busy,
+ * eg when several operations run at once or when an operation is run by a thread of the pool.
+ */
+public final class Workers {
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final int m_parallelism;
+    private final ExecutorService m_executor;
+
+    /**
+     * @param parallelism the maximum number of threads that process the files of an operation, including the calling one
+     */
+    public Workers(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+        m_parallelism = parallelism;
+        int poolIndex = POOL_COUNT.getAndIncrement();
+        AtomicInteger threadCount = new AtomicInteger();
+        // the calling thread is the last one of an operation
+        int poolSize = Math.max(parallelism - 1, 1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "jconfig-worker-" + poolIndex + "-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        m_executor = executor;
+    }
+
+    /**
+     * Run an action on each element using up to {@code parallelism} threads. When an action fails, the pending ones are skipped and the running ones
+     * are awaited before the failure is propagated, so that the caller can safely rollback. The workers check the {@link Cancellation} of the caller.
+     */
+    <T> void forEach(List<T> elements, Consumer<T> action) {
+        int threadCount = Math.min(m_parallelism, elements.size());
+        if (threadCount <= 1) {
+            elements.forEach(action);
+            return;
+        }
+
+        AtomicInteger nextIndex = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        Cancellation cancellation = Cancellation.current();
+        Runnable worker = () -> {
+            int index;
+            while (!failed.get() && (index = nextIndex.getAndIncrement()) < elements.size()) {
+                try {
+                    action.accept(elements.get(index));
+                } catch (RuntimeException | Error e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }
+        };
+
+        // a worker is claimed either by the pool thread that runs it, or by the caller if it didn't start yet so that it's skipped: a Future can't
+        // tell whether its task is running
+        List<AtomicBoolean> claims = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        Throwable failure = null;
+        try {
+            for (int i = 1; i < threadCount; i++) {
+                AtomicBoolean claim = new AtomicBoolean();
+                claims.add(claim);
+                futures.add(m_executor.submit(() -> {
+                    if (!claim.compareAndSet(false, true)) {
+                        return;
+                    }
+                    if (cancellation != null) {
+                        cancellation.call(() -> {
+                            worker.run();
+                            return null;
+                        });
+                    } else {
+                        worker.run();
+                    }
+                }));
+            }
+            worker.run();
+        } catch (RuntimeException | Error e) {
+            failed.set(true);
+            failure = e;
+        }
+
+        // the workers that didn't start yet are skipped, the running ones are awaited
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            if (claims.get(i).compareAndSet(false, true)) {
+                continue;
+            }
+            while (true) {
+                try {
+                    futures.get(i).get();
+                    break;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            if (failure == null) {
+                failure = new CancellationException("Interrupted while waiting for workers");
+            }
+        }
+
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.zip.*;
+import javax.annotation.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Write a ZIP file from the entries of a source ZIP file and new contents, in a single pass.<br>
+ * The entries of the source are copied raw: their compressed data is not inflated nor deflated again. Only the name, compression method, sizes, CRC,
+ * modification time and external attributes of the entries are kept, extra fields and comments are dropped. ZIP64 archives are not supported.<br>
+ * The names are decoded as UTF-8 when the general purpose flag bit 11 is set, else as CP437 as specified by the ZIP format. The name of a copied
+ * entry is written with its original bytes and encoding, the new names are written in UTF-8.
+ */
+final class ZipRewriter implements Closeable {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int VERSION_DEFLATE = 20;
+    private static final long MAX_ZIP32 = 0xFFFFFFFFL;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset CP437 = Charset.forName("IBM437");
+
+    private final FileChannel m_source;
+    private final OutputStream m_output;
+    private final List<SourceEntry> m_writtenEntries = new ArrayList<>();
+    private long m_offset;
+
+    /**
+     * @param source the source ZIP file, used to copy the raw entries
+     * @param output the output of the new ZIP file, it's closed when the rewriter is closed
+     */
+    ZipRewriter(FileChannel source, OutputStream output) {
+        m_source = source;
+        m_output = new BufferedOutputStream(output, BUFFER_SIZE);
+    }
+
+    /**
+     * Read the central directory of a ZIP file.
+     *
+     * @param source the ZIP file
+     * @return the entries of the ZIP file, in the order of the central directory
+     * @throws IOException in case of I/O error
+     */
+    static List<SourceEntry> readEntries(FileChannel source) throws IOException {
+        long fileSize = source.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(source, fileSize - tailSize, tailSize);
+        int endPosition = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                endPosition = i;
+                break;
+            }
+        }
+        if (endPosition == -1) {
+            throw new IllegalArgumentException("Invalid ZIP file: end of central directory not found");
+        }
+
+        int count = tail.getShort(endPosition + 10) & 0xFFFF;
+        long centralSize = tail.getInt(endPosition + 12) & MAX_ZIP32;
+        long centralOffset = tail.getInt(endPosition + 16) & MAX_ZIP32;
+        if (count == 0xFFFF || centralSize == MAX_ZIP32 || centralOffset == MAX_ZIP32) {
+            throw new IllegalArgumentException("ZIP64 archives are not supported");
+        }
+
+        ByteBuffer central = read(source, centralOffset, (int) centralSize);
+        List<SourceEntry> entries = new ArrayList<>(count);
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (central.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IllegalArgumentException("Invalid ZIP file: bad central directory entry " + i);
+            }
+            int nameLength = central.getShort(position + 28) & 0xFFFF;
+            int extraLength = central.getShort(position + 30) & 0xFFFF;
+            int commentLength = central.getShort(position + 32) & 0xFFFF;
+            byte[] name = new byte[nameLength];
+            for (int j = 0; j < nameLength; j++) {
+                name[j] = central.get(position + CENTRAL_HEADER_SIZE + j);
+            }
+
+            entries.add(new SourceEntry(name, central.getShort(position + 4) & 0xFFFF, central.getShort(position + 6) & 0xFFFF,
+                                        central.getShort(position + 8) & 0xFFFF, central.getShort(position + 10) & 0xFFFF,
+                                        central.getInt(position + 12), central.getInt(position + 16) & MAX_ZIP32,
+                                        central.getInt(position + 20) & MAX_ZIP32, central.getInt(position + 24) & MAX_ZIP32,
+                                        central.getInt(position + 38), central.getInt(position + 42) & MAX_ZIP32));
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Copy an entry of the source without decompressing it.
+     *
+     * @param entry the source entry
+     * @param name the name of the entry in the new ZIP file
+     * @throws IOException in case of I/O error
+     */
+    void copyRaw(SourceEntry entry, String name) throws IOException {
+        long dataOffset = dataOffset(entry);
+        SourceEntry written = entry.rename(name, m_offset);
+        writeLocalHeader(written);
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = dataOffset;
+        long remaining = entry.m_compressedSize;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, remaining));
+            int read = m_source.read(buffer, position);
+            if (read == -1) {
+                throw new EOFException("Truncated ZIP entry " + entry.m_name);
+            }
+            m_output.write(buffer.array(), 0, read);
+            position += read;
+            remaining -= read;
+        }
+        m_offset += entry.m_compressedSize;
+        m_writtenEntries.add(written);
+    }
+
+    /**
+     * Read the content of an entry of the source. The source is read through its channel, so it can be located on any file system.
+     *
+     * @param entry the source entry
+     * @return the uncompressed content of the entry
+     * @throws IOException in case of I/O error
+     */
+    InputStream open(SourceEntry entry) throws IOException {
+        InputStream raw = new ChannelInputStream(m_source, dataOffset(entry), entry.m_compressedSize);
+        switch (entry.m_method) {
+            case ZipEntry.STORED:
+                return raw;
+
+            case ZipEntry.DEFLATED:
+                Inflater inflater = new Inflater(true);
+                // the inflater may need a dummy byte after the compressed data when the zlib header is omitted
+                return new InflaterInputStream(new SequenceInputStream(raw, new ByteArrayInputStream(new byte[1])), inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+
+            default:
+                throw new IllegalArgumentException("Unsupported compression method " + entry.m_method + " for entry " + entry.m_name);
+        }
+    }
+
+    /**
+     * Write a new entry, its content is deflated.
+     *
+     * @param name the name of the entry
+     * @param content the uncompressed content
+     * @param replacedEntry the source entry which the new entry replaces, its modification time and attributes are kept, or {@code null} for a new
+     * entry
+     * @throws IOException in case of I/O error
+     */
+    void write(String name, byte[] content, @Nullable SourceEntry replacedEntry) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+            out.write(content);
+        } finally {
+            deflater.end();
+        }
+
+        int dosTime;
+        int versionMadeBy;
+        int externalAttributes;
+        if (replacedEntry != null) {
+            dosTime = replacedEntry.m_dosTime;
+            versionMadeBy = replacedEntry.m_versionMadeBy;
+            externalAttributes = replacedEntry.m_externalAttributes;
+        } else {
+            dosTime = toDosTime(System.currentTimeMillis());
+            versionMadeBy = VERSION_DEFLATE;
+            externalAttributes = 0;
+        }
+
+        SourceEntry written = new SourceEntry(name.getBytes(UTF_8), versionMadeBy, VERSION_DEFLATE, FLAG_UTF8, ZipEntry.DEFLATED, dosTime,
+                                              crc.getValue(), compressed.size(), content.length, externalAttributes, m_offset);
+        writeLocalHeader(written);
+        compressed.writeTo(m_output);
+        m_offset += compressed.size();
+        m_writtenEntries.add(written);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (m_writtenEntries.size() >= 0xFFFF) {
+                throw new IllegalStateException("ZIP64 archives are not supported: too many entries");
+            }
+
+            long centralOffset = m_offset;
+            for (SourceEntry entry : m_writtenEntries) {
+                byte[] name = entry.m_rawName;
+                ByteBuffer header = newBuffer(CENTRAL_HEADER_SIZE);
+                header.putInt(CENTRAL_HEADER_SIGNATURE);
+                header.putShort((short) entry.m_versionMadeBy);
+                header.putShort((short) entry.m_versionNeeded);
+                header.putShort((short) entry.m_flags);
+                header.putShort((short) entry.m_method);
+                header.putInt(entry.m_dosTime);
+                header.putInt((int) entry.m_crc);
+                header.putInt((int) entry.m_compressedSize);
+                header.putInt((int) entry.m_size);
+                header.putShort((short) name.length);
+                header.putShort((short) 0); // extra length
+                header.putShort((short) 0); // comment length
+                header.putShort((short) 0); // disk number
+                header.putShort((short) 0); // internal attributes
+                header.putInt(entry.m_externalAttributes);
+                header.putInt((int) entry.m_localHeaderOffset);
+                writeBuffer(header);
+                m_output.write(name);
+                m_offset += name.length;
+            }
+            long centralSize = m_offset - centralOffset;
+            checkZip32(m_offset);
+
+            ByteBuffer end = newBuffer(END_SIZE);
+            end.putInt(END_SIGNATURE);
+            end.putShort((short) 0); // disk number
+            end.putShort((short) 0); // disk of the central directory
+            end.putShort((short) m_writtenEntries.size());
+            end.putShort((short) m_writtenEntries.size());
+            end.putInt((int) centralSize);
+            end.putInt((int) centralOffset);
+            end.putShort((short) 0); // comment length
+            writeBuffer(end);
+        } finally {
+            m_output.close();
+        }
+    }
+
+    private long dataOffset(SourceEntry entry) throws IOException {
+        ByteBuffer localHeader = read(m_source, entry.m_localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IllegalArgumentException("Invalid ZIP file: bad local header for entry " + entry.m_name);
+        }
+        return entry.m_localHeaderOffset + LOCAL_HEADER_SIZE + (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+    }
+
+    private void writeLocalHeader(SourceEntry entry) throws IOException {
+        checkZip32(entry.m_localHeaderOffset);
+        checkZip32(entry.m_compressedSize);
+        checkZip32(entry.m_size);
+
+        byte[] name = entry.m_rawName;
+        ByteBuffer header = newBuffer(LOCAL_HEADER_SIZE);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) entry.m_versionNeeded);
+        header.putShort((short) entry.m_flags);
+        header.putShort((short) entry.m_method);
+        header.putInt(entry.m_dosTime);
+        header.putInt((int) entry.m_crc);
+        header.putInt((int) entry.m_compressedSize);
+        header.putInt((int) entry.m_size);
+        header.putShort((short) name.length);
+        header.putShort((short) 0); // extra length
+        writeBuffer(header);
+        m_output.write(name);
+        m_offset += name.length;
+    }
+
+    private void writeBuffer(ByteBuffer buffer) throws IOException {
+        m_output.write(buffer.array(), 0, buffer.position());
+        m_offset += buffer.position();
+    }
+
+    private static void checkZip32(long value) {
+        if (value >= MAX_ZIP32) {
+            throw new IllegalStateException("ZIP64 archives are not supported: entry or archive too large");
+        }
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = newBuffer(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("Truncated ZIP file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int toDosTime(long time) {
+        Date date = new Date(time);
+        int year = date.getYear() + 1900;
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (date.getMonth() + 1) << 21 | date.getDate() << 16 | date.getHours() << 11 | date.getMinutes() << 5 |
+                date.getSeconds() >> 1;
+    }
+
+    private static final class ChannelInputStream extends InputStream {
+        private final FileChannel m_channel;
+        private long m_position;
+        private long m_remaining;
+
+        ChannelInputStream(FileChannel channel, long position, long length) {
+            m_channel = channel;
+            m_position = position;
+            m_remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (m_remaining <= 0) {
+                return -1;
+            }
+            int read = m_channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, m_remaining)), m_position);
+            if (read == -1) {
+                throw new EOFException("Truncated ZIP file");
+            }
+            m_position += read;
+            m_remaining -= read;
+            return read;
+        }
+    }
+
+    /**
+     * An entry of the central directory of a ZIP file.
+     */
+    static final class SourceEntry {
+        private final String m_name;
+        private final byte[] m_rawName;
+        private final int m_versionMadeBy;
+        private final int m_versionNeeded;
+        private final int m_flags;
+        private final int m_method;
+        private final int m_dosTime;
+        private final long m_crc;
+        private final long m_compressedSize;
+        private final long m_size;
+        private final int m_externalAttributes;
+        private final long m_localHeaderOffset;
+
+        private SourceEntry(byte[] rawName, int versionMadeBy, int versionNeeded, int flags, int method, int dosTime, long crc, long compressedSize,
+                            long size, int externalAttributes, long localHeaderOffset) {
+            m_name = new String(rawName, (flags & FLAG_UTF8) != 0 ? UTF_8 : CP437);
+            m_rawName = rawName;
+            m_versionMadeBy = versionMadeBy;
+            m_versionNeeded = versionNeeded;
+            m_flags = flags;
+            m_method = method;
+            m_dosTime = dosTime;
+            m_crc = crc;
+            m_compressedSize = compressedSize;
+            m_size = size;
+            m_externalAttributes = externalAttributes;
+            m_localHeaderOffset = localHeaderOffset;
+        }
+
+        String getName() {
+            return m_name;
+        }
+
+        boolean isDirectory() {
+            return m_name.endsWith("/");
+        }
+
+        /**
+         * @return the uncompressed size of the entry
+         */
+        long getSize() {
+            return m_size;
+        }
+
+        private SourceEntry rename(String name, long localHeaderOffset) {
+            // sizes and CRC are written in the local header, so there's no data descriptor after the copied data
+            int flags = m_flags & ~FLAG_DATA_DESCRIPTOR;
+            // an unchanged name keeps its encoding, eg CP437
+            byte[] rawName = m_rawName;
+            if (!name.equals(m_name)) {
+                rawName = name.getBytes(UTF_8);
+                flags |= FLAG_UTF8;
+            }
+            return new SourceEntry(rawName, m_versionMadeBy, m_versionNeeded, flags, m_method, m_dosTime, m_crc, m_compressedSize, m_size,
+                                   m_externalAttributes, localHeaderOffset);
+        }
+    }
+}
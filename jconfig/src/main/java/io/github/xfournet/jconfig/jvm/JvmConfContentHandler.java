@@ -11,7 +11,7 @@ public final class JvmConfContentHandler extends KVConfContentHandler<JvmConfEnt
         super(Charset.defaultCharset(), JvmConfContentHandler::parse, JvmConfContentHandler::format, JvmConfContentHandler::formatKey);
     }
 
-    private static KVEntry<JvmConfEntryKey> parse(String line) {
+    static KVEntry<JvmConfEntryKey> parse(String line) {
         for (JvmConfEntryType entryType : JvmConfEntryType.values()) {
             Matcher matcher = entryType.matcher(line);
             if (matcher.matches()) {
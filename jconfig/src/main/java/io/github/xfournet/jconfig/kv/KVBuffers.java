@@ -0,0 +1,283 @@
+package io.github.xfournet.jconfig.kv;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import javax.annotation.*;
+import io.github.xfournet.jconfig.Cancellation;
+
+/**
+ * Pooled buffers used to read and write the lines of the configuration files, so that the steady state reads and writes don't allocate readers,
+ * writers, decoders, encoders and their buffers. The lines are decoded and encoded directly from and to the pooled buffers, only the {@code String}
+ * of each read line is allocated.
+ * <p>
+ * The buffers are acquired by {@link #acquire()} and must be given back by {@link #release()}. The pool is shared by all the threads rather than per
+ * thread, so that it also works with short-lived virtual threads. It keeps up to one set of buffers per available processor, new buffers are
+ * allocated when it's empty and dropped when it's full. The line buffer is not retained once it grew beyond {@value #MAX_RETAINED_TEXT_SIZE}
+ * characters for a very long line.
+ * <p>
+ * The buffers are cleared, flipped and positioned through {@link Buffer}: the overrides of these methods in {@link ByteBuffer} and
+ * {@link CharBuffer} only exist since Java 9, so calling them would fail on Java 8.
+ */
+final class KVBuffers {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_RETAINED_TEXT_SIZE = 64 * 1024;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    // the last released buffers are reused first, they are the most likely to be in the CPU caches
+    private static final BlockingDeque<KVBuffers> POOL = new LinkedBlockingDeque<>(Runtime.getRuntime().availableProcessors());
+
+    private final byte[] m_bytes = new byte[BUFFER_SIZE];
+    private final ByteBuffer m_byteBuffer = ByteBuffer.wrap(m_bytes);
+    private final char[] m_chars = new char[BUFFER_SIZE];
+    private final CharBuffer m_charBuffer = CharBuffer.wrap(m_chars);
+    private StringBuilder m_text = new StringBuilder();
+    @Nullable
+    private CharsetDecoder m_decoder;
+    @Nullable
+    private CharsetEncoder m_encoder;
+    private boolean m_skipLineFeed;
+    @Nullable
+    private OutputStream m_output;
+
+    private KVBuffers() {
+    }
+
+    static KVBuffers acquire() {
+        return acquire(POOL);
+    }
+
+    /**
+     * @param pool the pool to take the buffers from, new buffers are allocated when it's empty
+     */
+    static KVBuffers acquire(BlockingDeque<KVBuffers> pool) {
+        KVBuffers buffers = pool.pollFirst();
+        return buffers != null ? buffers : new KVBuffers();
+    }
+
+    void release() {
+        release(POOL);
+    }
+
+    /**
+     * @param pool the pool the buffers were acquired from
+     */
+    void release(BlockingDeque<KVBuffers> pool) {
+        m_output = null;
+        if (m_text.capacity() > MAX_RETAINED_TEXT_SIZE) {
+            m_text = new StringBuilder();
+        } else {
+            m_text.setLength(0);
+        }
+        pool.offerFirst(this);
+    }
+
+    /**
+     * Read the lines of a stream, with the same line terminators than {@link BufferedReader#readLine()}. Malformed input is replaced like an
+     * {@link InputStreamReader} does.
+     *
+     * @param trim {@code true} to remove the leading and trailing whitespaces of the lines, like {@link String#trim()}
+     * @param lineConsumer receive the lines, without their terminator
+     */
+    void readLines(InputStream input, Charset charset, boolean trim, Consumer<String> lineConsumer) throws IOException {
+        CharsetDecoder decoder = decoder(charset);
+        ByteBuffer bytes = m_byteBuffer;
+        CharBuffer chars = m_charBuffer;
+        ((Buffer) bytes).clear();
+        m_text.setLength(0);
+        m_skipLineFeed = false;
+
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            Cancellation.checkCancelled();
+            int read = input.read(m_bytes, bytes.position(), bytes.remaining());
+            if (read == -1) {
+                endOfInput = true;
+            } else {
+                ((Buffer) bytes).position(bytes.position() + read);
+            }
+
+            ((Buffer) bytes).flip();
+            CoderResult result;
+            do {
+                ((Buffer) chars).clear();
+                result = decoder.decode(bytes, chars, endOfInput);
+                splitLines(chars.position(), trim, lineConsumer);
+            } while (result.isOverflow());
+            bytes.compact();
+        }
+
+        CoderResult result;
+        do {
+            ((Buffer) chars).clear();
+            result = decoder.flush(chars);
+            splitLines(chars.position(), trim, lineConsumer);
+        } while (result.isOverflow());
+
+        if (m_text.length() > 0) {
+            lineConsumer.accept(pendingLine(trim));
+        }
+    }
+
+    private void splitLines(int length, boolean trim, Consumer<String> lineConsumer) {
+        char[] chars = m_chars;
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (m_skipLineFeed) {
+                m_skipLineFeed = false;
+                if (c == '\n') {
+                    lineStart = i + 1;
+                    continue;
+                }
+            }
+
+            if (c == '\n' || c == '\r') {
+                String line;
+                if (m_text.length() > 0) {
+                    m_text.append(chars, lineStart, i - lineStart);
+                    line = pendingLine(trim);
+                } else {
+                    line = line(chars, lineStart, i, trim);
+                }
+                lineConsumer.accept(line);
+                m_skipLineFeed = c == '\r';
+                lineStart = i + 1;
+            }
+        }
+
+        // the end of the buffer is the beginning of the next line
+        m_text.append(chars, lineStart, length - lineStart);
+    }
+
+    private static String line(char[] chars, int start, int end, boolean trim) {
+        int lineStart = start;
+        int lineEnd = end;
+        if (trim) {
+            while (lineStart < lineEnd && chars[lineStart] <= ' ') {
+                lineStart++;
+            }
+            while (lineEnd > lineStart && chars[lineEnd - 1] <= ' ') {
+                lineEnd--;
+            }
+        }
+        return lineStart == lineEnd ? "" : new String(chars, lineStart, lineEnd - lineStart);
+    }
+
+    private String pendingLine(boolean trim) {
+        StringBuilder text = m_text;
+        int lineStart = 0;
+        int lineEnd = text.length();
+        if (trim) {
+            while (lineStart < lineEnd && text.charAt(lineStart) <= ' ') {
+                lineStart++;
+            }
+            while (lineEnd > lineStart && text.charAt(lineEnd - 1) <= ' ') {
+                lineEnd--;
+            }
+        }
+        String line = lineStart == lineEnd ? "" : text.substring(lineStart, lineEnd);
+        text.setLength(0);
+        return line;
+    }
+
+    /**
+     * Start writing lines to a stream. A line is written by appending it to the returned buffer, then calling {@link #endLine()}. The lines are
+     * encoded when enough of them are buffered, and by {@link #endWrite()}. Unmappable characters are replaced like an {@link OutputStreamWriter}
+     * does.
+     *
+     * @return the buffer where the lines are appended
+     */
+    StringBuilder startWrite(OutputStream output, Charset charset) {
+        m_output = output;
+        m_encoder = encoder(charset);
+        ((Buffer) m_byteBuffer).clear();
+        ((Buffer) m_charBuffer).clear();
+        m_text.setLength(0);
+        return m_text;
+    }
+
+    /**
+     * Terminate the line appended to the buffer returned by {@link #startWrite(OutputStream, Charset)}, with the system line separator like
+     * {@link BufferedWriter#newLine()}.
+     */
+    void endLine() throws IOException {
+        m_text.append(LINE_SEPARATOR);
+        if (m_text.length() >= BUFFER_SIZE) {
+            encode(false);
+        }
+    }
+
+    /**
+     * Write the buffered lines to the stream, which is not closed.
+     */
+    void endWrite() throws IOException {
+        CharsetEncoder encoder = requireWriting(m_encoder);
+        encode(true);
+        while (encoder.flush(m_byteBuffer).isOverflow()) {
+            writeBytes();
+        }
+        writeBytes();
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        CharsetEncoder encoder = requireWriting(m_encoder);
+        StringBuilder text = m_text;
+        CharBuffer chars = m_charBuffer;
+        int length = text.length();
+        int offset = 0;
+        boolean lastChunk;
+        do {
+            // the char buffer may still contain the first char of a surrogate pair split by the previous chunk
+            int count = Math.min(length - offset, chars.remaining());
+            text.getChars(offset, offset + count, m_chars, chars.position());
+            ((Buffer) chars).position(chars.position() + count);
+            offset += count;
+            lastChunk = offset == length;
+
+            ((Buffer) chars).flip();
+            while (encoder.encode(chars, m_byteBuffer, endOfInput && lastChunk).isOverflow()) {
+                writeBytes();
+            }
+            chars.compact();
+        } while (!lastChunk);
+        text.setLength(0);
+    }
+
+    private void writeBytes() throws IOException {
+        requireWriting(m_output).write(m_bytes, 0, m_byteBuffer.position());
+        ((Buffer) m_byteBuffer).clear();
+    }
+
+    private CharsetDecoder decoder(Charset charset) {
+        CharsetDecoder decoder = m_decoder;
+        if (decoder == null || !decoder.charset().equals(charset)) {
+            decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            m_decoder = decoder;
+        } else {
+            decoder.reset();
+        }
+        return decoder;
+    }
+
+    private CharsetEncoder encoder(Charset charset) {
+        CharsetEncoder encoder = m_encoder;
+        if (encoder == null || !encoder.charset().equals(charset)) {
+            encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            m_encoder = encoder;
+        } else {
+            encoder.reset();
+        }
+        return encoder;
+    }
+
+    private static <T> T requireWriting(@Nullable T value) {
+        if (value == null) {
+            throw new IllegalStateException("Not writing");
+        }
+        return value;
+    }
+}
@@ -17,13 +17,11 @@ class KVConf<K> {
         List<KVEntry<K>> entries = new ArrayList<>();
         Map<K, KVEntry<K>> entriesByKey = new HashMap<>();
 
-        List<String> comments = new ArrayList<>();
-
         if (input != null) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, charset))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    line = line.trim();
+            List<String> comments = new ArrayList<>();
+            KVBuffers buffers = KVBuffers.acquire();
+            try (InputStream in = input) {
+                buffers.readLines(in, charset, true, line -> {
                     if (line.isEmpty() || line.startsWith(COMMENT_MARK)) {
                         comments.add(line);
                     } else {
@@ -45,7 +43,9 @@ class KVConf<K> {
                         // comments has been associated to this entry, clear them for next round
                         comments.clear();
                     }
-                }
+                });
+            } finally {
+                buffers.release();
             }
         }
 
@@ -61,21 +61,30 @@ class KVConf<K> {
         source.m_entries.forEach(this::setEntry);
     }
 
-    void write(OutputStream output, Charset charset, Function<KVEntry<K>, String> entryFormatter) throws IOException {
+    /**
+     * Write the configuration, the entries are appended by the {@code entryWriter} directly to the buffer of the encoded lines. The output stream is
+     * closed.
+     */
+    void write(OutputStream output, Charset charset, BiConsumer<KVEntry<K>, StringBuilder> entryWriter) throws IOException {
         boolean firstLine = true;
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output, charset))) {
+        KVBuffers buffers = KVBuffers.acquire();
+        try (OutputStream out = output) {
+            StringBuilder text = buffers.startWrite(out, charset);
             for (KVEntry<K> entry : m_entries) {
                 for (String comment : entry.getComments()) {
                     if (!(firstLine && comment.isEmpty())) {
-                        writer.write(comment);
-                        writer.newLine();
+                        text.append(comment);
+                        buffers.endLine();
                         firstLine = false;
                     }
                 }
-                writer.write(entryFormatter.apply(entry));
-                writer.newLine();
+                entryWriter.accept(entry, text);
+                buffers.endLine();
                 firstLine = false;
             }
+            buffers.endWrite();
+        } finally {
+            buffers.release();
         }
     }
 
@@ -121,41 +130,67 @@ class KVConf<K> {
                 comments.add(instruction);
             } else {
                 processInstruction(entryParser, instruction, comments);
-                comments = new ArrayList<>();
+                comments.clear();
             }
         }
     }
 
     private void processInstruction(Function<String, KVEntry<K>> entryParser, String instruction, List<String> comments) {
-        int index = instruction.indexOf(' ');
-        if (index == -1) {
-            index = instruction.length();
+        Instruction<K> parsedInstruction = Instruction.parse(entryParser, instruction);
+        KVEntry<K> parsedEntry = parsedInstruction.m_entry;
+        parsedEntry.setComments(comments);
+        if (parsedInstruction.m_set) {
+            setEntry(parsedEntry);
+        } else {
+            removeEntry(parsedEntry.getKey());
         }
+    }
 
-        String word = instruction.substring(0, index);
+    /**
+     * Fold two successive lists of instructions key by key, so that applying the result is equivalent to applying {@code instructions} then
+     * {@code nextInstructions}.
+     */
+    static <K> List<String> composeInstructions(List<String> instructions, List<String> nextInstructions, Function<String, KVEntry<K>> entryParser) {
+        List<Instruction<K>> composed = new ArrayList<>();
+        Map<K, Instruction<K>> composedByKey = new HashMap<>();
 
-        boolean set;
-        if ("-set".equals(word)) {
-            set = true;
-        } else if ("-remove".equals(word)) {
-            set = false;
-        } else {
-            set = true;
-            index = -1;
-        }
+        List<String> comments = new ArrayList<>();
+        for (String line : concat(instructions, nextInstructions)) {
+            if (line.isEmpty() || line.startsWith(COMMENT_MARK)) {
+                comments.add(line);
+                continue;
+            }
+
+            Instruction<K> instruction = Instruction.parse(entryParser, line);
+            instruction.m_comments = comments;
+            comments = new ArrayList<>();
 
-        if (index < instruction.length()) {
-            index++;
+            K key = instruction.m_entry.getKey();
+            Instruction<K> previous = composedByKey.put(key, instruction);
+            if (previous == null || (instruction.m_set && !previous.m_set)) {
+                // a removed entry that is set again is appended at the end of the file, the remove instruction has to be kept
+                composed.add(instruction);
+            } else {
+                if (instruction.m_set && instruction.m_comments.isEmpty()) {
+                    instruction.m_comments = previous.m_comments;
+                }
+                composed.set(composed.indexOf(previous), instruction);
+            }
         }
 
-        String entry = instruction.substring(index);
-        KVEntry<K> parsedEntry = entryParser.apply(entry);
-        parsedEntry.setComments(comments);
-        if (set) {
-            setEntry(parsedEntry);
-        } else {
-            removeEntry(parsedEntry.getKey());
+        List<String> lines = new ArrayList<>();
+        for (Instruction<K> instruction : composed) {
+            lines.addAll(instruction.m_comments);
+            lines.add(instruction.m_line);
         }
+        return lines;
+    }
+
+    private static List<String> concat(List<String> first, List<String> second) {
+        List<String> lines = new ArrayList<>(first.size() + second.size());
+        lines.addAll(first);
+        lines.addAll(second);
+        return lines;
     }
 
     List<String> diffFrom(KVConf<K> refConf, Function<KVEntry<K>, String> entryFormatter, Function<K, String> keyFormatter) {
@@ -193,4 +228,43 @@ class KVConf<K> {
     void filter(UnaryOperator<String> expressionProcessor) {
         m_entries.forEach(e -> e.filter(expressionProcessor));
     }
+
+    private static final class Instruction<K> {
+        private final String m_line;
+        private final boolean m_set;
+        private final KVEntry<K> m_entry;
+        private List<String> m_comments = Collections.emptyList();
+
+        private Instruction(String line, boolean set, KVEntry<K> entry) {
+            m_line = line;
+            m_set = set;
+            m_entry = entry;
+        }
+
+        static <K> Instruction<K> parse(Function<String, KVEntry<K>> entryParser, String instruction) {
+            int index = instruction.indexOf(' ');
+            if (index == -1) {
+                index = instruction.length();
+            }
+
+            String word = instruction.substring(0, index);
+
+            boolean set;
+            if ("-set".equals(word)) {
+                set = true;
+            } else if ("-remove".equals(word)) {
+                set = false;
+            } else {
+                set = true;
+                index = -1;
+            }
+
+            if (index < instruction.length()) {
+                index++;
+            }
+
+            String entry = instruction.substring(index);
+            return new Instruction<>(instruction, set, entryParser.apply(entry));
+        }
+    }
 }
@@ -4,7 +4,6 @@ import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
 import java.util.function.*;
-import java.util.stream.*;
 import javax.annotation.*;
 import io.github.xfournet.jconfig.Diff;
 import io.github.xfournet.jconfig.FileContentHandler;
@@ -13,6 +12,7 @@ public abstract class KVConfContentHandler<K> implements FileContentHandler {
     private final Charset m_charset;
     private final Function<String, KVEntry<K>> m_entryParser;
     private final Function<KVEntry<K>, String> m_entryFormatter;
+    private final BiConsumer<KVEntry<K>, StringBuilder> m_entryWriter;
     private final Function<K, String> m_keyFormatter;
 
     protected KVConfContentHandler(Charset charset, Function<String, KVEntry<K>> entryParser, Function<KVEntry<K>, String> entryFormatter,
@@ -20,6 +20,23 @@ public abstract class KVConfContentHandler<K> implements FileContentHandler {
         m_charset = charset;
         m_entryParser = entryParser;
         m_entryFormatter = entryFormatter;
+        m_entryWriter = (entry, output) -> output.append(entryFormatter.apply(entry));
+        m_keyFormatter = keyFormatter;
+    }
+
+    /**
+     * @param entryWriter append an entry to the output buffer, this avoids to allocate a {@code String} per entry when a file is written
+     */
+    protected KVConfContentHandler(Charset charset, Function<String, KVEntry<K>> entryParser, BiConsumer<KVEntry<K>, StringBuilder> entryWriter,
+                                   Function<K, String> keyFormatter) {
+        m_charset = charset;
+        m_entryParser = entryParser;
+        m_entryFormatter = entry -> {
+            StringBuilder formattedEntry = new StringBuilder();
+            entryWriter.accept(entry, formattedEntry);
+            return formattedEntry.toString();
+        };
+        m_entryWriter = entryWriter;
         m_keyFormatter = keyFormatter;
     }
 
@@ -27,11 +44,16 @@ public abstract class KVConfContentHandler<K> implements FileContentHandler {
     public void apply(@Nullable InputStream source, OutputStream result, Diff diff) throws IOException {
         KVConf<K> conf;
         if (diff.isOverwrite()) {
-            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(result, m_charset))) {
+            KVBuffers buffers = KVBuffers.acquire();
+            try (OutputStream out = result) {
+                StringBuilder text = buffers.startWrite(out, m_charset);
                 for (String line : diff.getLines()) {
-                    writer.write(line);
-                    writer.newLine();
+                    text.append(line);
+                    buffers.endLine();
                 }
+                buffers.endWrite();
+            } finally {
+                buffers.release();
             }
         } else {
             conf = readConf(source);
@@ -46,7 +68,13 @@ public abstract class KVConfContentHandler<K> implements FileContentHandler {
 
         List<String> lines;
         if (overwrite) {
-            lines = new BufferedReader(new InputStreamReader(source, m_charset)).lines().collect(Collectors.toList());
+            lines = new ArrayList<>();
+            KVBuffers buffers = KVBuffers.acquire();
+            try {
+                buffers.readLines(source, m_charset, false, lines::add);
+            } finally {
+                buffers.release();
+            }
         } else {
             lines = generateDiff(source, referenceSource);
             if (lines.isEmpty()) {
@@ -57,6 +85,15 @@ public abstract class KVConfContentHandler<K> implements FileContentHandler {
         return new Diff(overwrite, null, lines);
     }
 
+    @Override
+    public Diff compose(Diff diff, Diff nextDiff) throws IOException {
+        if (diff.isOverwrite() || nextDiff.isOverwrite()) {
+            return FileContentHandler.super.compose(diff, nextDiff);
+        }
+
+        return new Diff(false, null, KVConf.composeInstructions(diff.getLines(), nextDiff.getLines(), m_entryParser));
+    }
+
     private List<String> generateDiff(InputStream file, InputStream referenceFile) throws IOException {
         KVConf<K> conf = readConf(file);
         KVConf<K> refConf = readConf(referenceFile);
@@ -110,6 +147,6 @@ public abstract class KVConfContentHandler<K> implements FileContentHandler {
     }
 
     private void writeConf(OutputStream result, KVConf<K> conf) throws IOException {
-        conf.write(result, m_charset, m_entryFormatter);
+        conf.write(result, m_charset, m_entryWriter);
     }
 }
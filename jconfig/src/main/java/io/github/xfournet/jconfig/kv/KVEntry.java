@@ -9,7 +9,7 @@ public class KVEntry<K> {
 
     private final K m_key;
     private String m_value;
-    private final List<String> m_comments = new ArrayList<>();
+    private List<String> m_comments = Collections.emptyList();
 
     public KVEntry(K key, String value) {
         m_key = key;
@@ -29,8 +29,8 @@ public class KVEntry<K> {
     }
 
     void setComments(List<String> comments) {
-        m_comments.clear();
-        m_comments.addAll(comments);
+        // most entries have no comment, they share the empty list
+        m_comments = comments.isEmpty() ? Collections.emptyList() : new ArrayList<>(comments);
     }
 
     void filter(UnaryOperator<String> expressionProcessor) {
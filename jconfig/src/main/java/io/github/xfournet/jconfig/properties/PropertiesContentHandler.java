@@ -10,7 +10,7 @@ import static java.util.function.UnaryOperator.*;
 public final class PropertiesContentHandler extends KVConfContentHandler<String> {
 
     public PropertiesContentHandler() {
-        super(ISO_8859_1, PropertiesContentHandler::parse, PropertiesContentHandler::format, identity());
+        super(ISO_8859_1, PropertiesContentHandler::parse, PropertiesContentHandler::write, identity());
     }
 
     private static KVEntry<String> parse(String line) {
@@ -37,7 +37,7 @@ public final class PropertiesContentHandler extends KVConfContentHandler<String>
         return new KVEntry<>(key, value);
     }
 
-    private static String format(KVEntry<String> entry) {
-        return entry.getKey() + "=" + entry.getValue();
+    private static void write(KVEntry<String> entry, StringBuilder output) {
+        output.append(entry.getKey()).append('=').append(entry.getValue());
     }
 }
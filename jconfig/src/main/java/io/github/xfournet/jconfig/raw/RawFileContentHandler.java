@@ -5,12 +5,14 @@ import java.nio.charset.Charset;
 import java.util.*;
 import java.util.stream.*;
 import javax.annotation.*;
+import io.github.xfournet.jconfig.Cancellation;
 import io.github.xfournet.jconfig.Diff;
 import io.github.xfournet.jconfig.FileContentHandler;
 
 import static java.nio.charset.StandardCharsets.*;
 
 public class RawFileContentHandler implements FileContentHandler {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
     @Override
     public void apply(@Nullable InputStream source, OutputStream result, Diff diff) throws IOException {
@@ -71,11 +73,11 @@ public class RawFileContentHandler implements FileContentHandler {
     }
 
     private void copy(InputStream in, OutputStream out) throws IOException {
-        byte[] buffer = new byte[4096];
-
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
         int read;
         while ((read = in.read(buffer)) != -1) {
             out.write(buffer, 0, read);
+            Cancellation.checkCancelled();
         }
     }
 
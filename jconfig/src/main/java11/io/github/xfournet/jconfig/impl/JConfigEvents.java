@@ -0,0 +1,245 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.nio.file.Path;
+import javax.annotation.*;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the operations: an event per operation, per processed file, per directory walk and per transaction commit or
+ * rollback.<br>
+ * This is the implementation used on Java 11 and later. A {@code begin} method returns {@code null} when its event is not enabled in a recording, the
+ * corresponding {@code end} method then does nothing, so the events cost nothing when JFR doesn't record them.
+ */
+final class JConfigEvents {
+    static final String COMMIT = "commit";
+    static final String ROLLBACK = "rollback";
+
+    // checked before an event is allocated
+    private static final EventType OPERATION_EVENT_TYPE = EventType.getEventType(OperationEvent.class);
+    private static final EventType FILE_EVENT_TYPE = EventType.getEventType(FileEvent.class);
+    private static final EventType WALK_EVENT_TYPE = EventType.getEventType(WalkEvent.class);
+    private static final EventType TRANSACTION_EVENT_TYPE = EventType.getEventType(TransactionEvent.class);
+
+    /**
+     * @return {@code true} if the file events are recorded, in which case the file statistics must be computed
+     */
+    static boolean isFileEventEnabled() {
+        return FILE_EVENT_TYPE.isEnabled();
+    }
+
+    @Nullable
+    static Object beginOperation() {
+        return OPERATION_EVENT_TYPE.isEnabled() ? begin(new OperationEvent()) : null;
+    }
+
+    /**
+     * @param event the event returned by {@link #beginOperation()}
+     */
+    static void endOperation(@Nullable Object event, String operation, boolean succeeded, int fileCount, long bytesRead, long bytesWritten) {
+        OperationEvent operationEvent = (OperationEvent) event;
+        if (operationEvent != null) {
+            operationEvent.end();
+            if (operationEvent.shouldCommit()) {
+                operationEvent.m_operation = operation;
+                operationEvent.m_succeeded = succeeded;
+                operationEvent.m_fileCount = fileCount;
+                operationEvent.m_bytesRead = bytesRead;
+                operationEvent.m_bytesWritten = bytesWritten;
+                operationEvent.commit();
+            }
+        }
+    }
+
+    @Nullable
+    static Object beginFile() {
+        return FILE_EVENT_TYPE.isEnabled() ? begin(new FileEvent()) : null;
+    }
+
+    /**
+     * @param event the event returned by {@link #beginFile()}
+     * @param operation the operation that processed the file
+     * @param path the path of the file
+     * @param handler the simple class name of the handler that processed the file, or {@code null} if there is none
+     * @param action the action done on the file, see {@link io.github.xfournet.jconfig.FileStats.Action}
+     */
+    static void endFile(@Nullable Object event, String operation, Path path, @Nullable String handler, String action, long bytesRead,
+                        long bytesWritten) {
+        FileEvent fileEvent = (FileEvent) event;
+        if (fileEvent != null) {
+            fileEvent.end();
+            if (fileEvent.shouldCommit()) {
+                fileEvent.m_operation = operation;
+                fileEvent.m_path = path.toString();
+                fileEvent.m_handler = handler;
+                fileEvent.m_action = action;
+                fileEvent.m_bytesRead = bytesRead;
+                fileEvent.m_bytesWritten = bytesWritten;
+                fileEvent.commit();
+            }
+        }
+    }
+
+    @Nullable
+    static Object beginWalk() {
+        return WALK_EVENT_TYPE.isEnabled() ? begin(new WalkEvent()) : null;
+    }
+
+    /**
+     * @param event the event returned by {@link #beginWalk()}
+     * @param root the walked directory
+     * @param fileCount the number of visited files
+     * @param skippedDirectoryCount the number of directories rejected by the directory filter
+     */
+    static void endWalk(@Nullable Object event, Path root, int fileCount, int skippedDirectoryCount, boolean succeeded) {
+        WalkEvent walkEvent = (WalkEvent) event;
+        if (walkEvent != null) {
+            walkEvent.end();
+            if (walkEvent.shouldCommit()) {
+                walkEvent.m_root = root.toString();
+                walkEvent.m_fileCount = fileCount;
+                walkEvent.m_skippedDirectoryCount = skippedDirectoryCount;
+                walkEvent.m_succeeded = succeeded;
+                walkEvent.commit();
+            }
+        }
+    }
+
+    @Nullable
+    static Object beginTransaction() {
+        return TRANSACTION_EVENT_TYPE.isEnabled() ? begin(new TransactionEvent()) : null;
+    }
+
+    /**
+     * @param event the event returned by {@link #beginTransaction()}
+     * @param action {@link #COMMIT} or {@link #ROLLBACK}
+     * @param operationCount the number of file operations run
+     */
+    static void endTransaction(@Nullable Object event, String action, int operationCount, boolean succeeded) {
+        TransactionEvent transactionEvent = (TransactionEvent) event;
+        if (transactionEvent != null) {
+            transactionEvent.end();
+            if (transactionEvent.shouldCommit()) {
+                transactionEvent.m_action = action;
+                transactionEvent.m_operationCount = operationCount;
+                transactionEvent.m_succeeded = succeeded;
+                transactionEvent.commit();
+            }
+        }
+    }
+
+    private static Event begin(Event event) {
+        event.begin();
+        return event;
+    }
+
+    @Name("io.github.xfournet.jconfig.Operation")
+    @Label("JConfig Operation")
+    @Category("JConfig")
+    @Description("An operation run by a JConfig, eg an apply or a diff")
+    static final class OperationEvent extends Event {
+        @Name("operation")
+        @Label("Operation")
+        String m_operation;
+
+        @Name("succeeded")
+        @Label("Succeeded")
+        boolean m_succeeded;
+
+        @Name("fileCount")
+        @Label("Files")
+        int m_fileCount;
+
+        @Name("bytesRead")
+        @Label("Bytes Read")
+        @DataAmount
+        long m_bytesRead;
+
+        @Name("bytesWritten")
+        @Label("Bytes Written")
+        @DataAmount
+        long m_bytesWritten;
+    }
+
+    @Name("io.github.xfournet.jconfig.File")
+    @Label("JConfig File")
+    @Category("JConfig")
+    @Description("A file processed by an operation, eg a section applied or a file compared by its handler")
+    @StackTrace(false)
+    static final class FileEvent extends Event {
+        @Name("operation")
+        @Label("Operation")
+        String m_operation;
+
+        @Name("path")
+        @Label("Path")
+        String m_path;
+
+        @Name("handler")
+        @Label("Handler")
+        String m_handler;
+
+        @Name("action")
+        @Label("Action")
+        String m_action;
+
+        @Name("bytesRead")
+        @Label("Bytes Read")
+        @DataAmount
+        long m_bytesRead;
+
+        @Name("bytesWritten")
+        @Label("Bytes Written")
+        @DataAmount
+        long m_bytesWritten;
+    }
+
+    @Name("io.github.xfournet.jconfig.Walk")
+    @Label("JConfig Walk")
+    @Category("JConfig")
+    @Description("A walk of a directory tree")
+    static final class WalkEvent extends Event {
+        @Name("root")
+        @Label("Root")
+        String m_root;
+
+        @Name("fileCount")
+        @Label("Files")
+        int m_fileCount;
+
+        @Name("skippedDirectoryCount")
+        @Label("Skipped Directories")
+        int m_skippedDirectoryCount;
+
+        @Name("succeeded")
+        @Label("Succeeded")
+        boolean m_succeeded;
+    }
+
+    @Name("io.github.xfournet.jconfig.Transaction")
+    @Label("JConfig Transaction")
+    @Category("JConfig")
+    @Description("The commit or the rollback of the file modifications of a transaction")
+    static final class TransactionEvent extends Event {
+        @Name("action")
+        @Label("Action")
+        String m_action;
+
+        @Name("operationCount")
+        @Label("File Operations")
+        int m_operationCount;
+
+        @Name("succeeded")
+        @Label("Succeeded")
+        boolean m_succeeded;
+    }
+
+    private JConfigEvents() {
+    }
+}
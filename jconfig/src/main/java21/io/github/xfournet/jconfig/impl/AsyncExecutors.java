@@ -0,0 +1,19 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.util.concurrent.*;
+
+/**
+ * The default executor of the {@link AsyncJConfigImpl}.<br>
+ * This is the implementation used on Java 21 and later: each operation is run in a new virtual thread, so that the operations blocked on file I/O or
+ * on the lock of their target directory don't hold a platform thread and many target directories can be updated at once.
+ */
+final class AsyncExecutors {
+    private static final Executor DEFAULT_EXECUTOR = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("jconfig-async-", 0).factory());
+
+    static Executor defaultExecutor() {
+        return DEFAULT_EXECUTOR;
+    }
+
+    private AsyncExecutors() {
+    }
+}
@@ -1,19 +1,45 @@
 package io.github.xfournet.jconfig.impl;
 
 import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
 import java.util.stream.*;
 import java.util.zip.*;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
+import io.github.xfournet.jconfig.ApplyOptions;
+import io.github.xfournet.jconfig.ApplyResult;
+import io.github.xfournet.jconfig.AsyncJConfig;
+import io.github.xfournet.jconfig.Cancellation;
+import io.github.xfournet.jconfig.DiffFormat;
+import io.github.xfournet.jconfig.FileContentHandler;
+import io.github.xfournet.jconfig.FileStats;
 import io.github.xfournet.jconfig.JConfig;
+import io.github.xfournet.jconfig.JConfigBuilder;
+import io.github.xfournet.jconfig.JConfigListener;
+import io.github.xfournet.jconfig.OperationProgress;
+import io.github.xfournet.jconfig.OperationStats;
+import io.github.xfournet.jconfig.PathFilter;
 import io.github.xfournet.jconfig.Util;
+import io.github.xfournet.jconfig.raw.RawFileContentHandler;
 
+import static io.github.xfournet.jconfig.ApplyOptions.applyOptions;
+import static io.github.xfournet.jconfig.DiffOptions.diffOptions;
 import static io.github.xfournet.jconfig.JConfigBuilder.jConfigBuilder;
+import static java.nio.charset.StandardCharsets.*;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Arrays.*;
 import static org.assertj.core.api.Assertions.*;
@@ -61,6 +87,861 @@ public class JConfigImplTest {
         assertSameDirectoryContent(testDir, expectedDir);
     }
 
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testIndexedDiffFormat(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_indexed");
+        Util.ensureCleanDirectory(root);
+
+        Path applyFile = deploy(root, scenario, "jconfig-apply.ini");
+        Path expectedDiffFile = deploy(root, scenario, "jconfig-diff.ini");
+
+        Path testDir = root.resolve("test");
+        Path partialDir = root.resolve("partial");
+        Path invalidDir = root.resolve("invalid");
+        Path sourceDir = root.resolve("source");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+            deploy(partialDir, sourcePrefix, sourceName);
+            deploy(invalidDir, sourcePrefix, sourceName);
+            deploy(sourceDir, sourcePrefix, sourceName);
+        }
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        // the indexed format must be converted back to the text format without loss
+        Path indexedDiffFile = root.resolve("diff.jcd");
+        Path textDiffFile = root.resolve("diff.ini");
+        JConfig jConfig = jConfigBuilder().build(expectedDir);
+        jConfig.diff(testDir, indexedDiffFile, diffOptions().setFormat(DiffFormat.INDEXED));
+        jConfig.convertDiff(indexedDiffFile, textDiffFile, DiffFormat.TEXT);
+
+        assertThat(textDiffFile).hasSameContentAs(expectedDiffFile);
+
+        Path indexedApplyFile = root.resolve("apply.jcd");
+        jConfig.convertDiff(applyFile, indexedApplyFile, DiffFormat.INDEXED);
+
+        jConfig = jConfigBuilder().build(testDir);
+        jConfig.apply(indexedApplyFile);
+
+        assertSameDirectoryContent(testDir, expectedDir);
+
+        // only the selected file is updated
+        Path selectedFile = Paths.get("conf", "jvm.conf");
+        jConfig = jConfigBuilder().build(partialDir);
+        jConfig.apply(indexedApplyFile, applyOptions().setPathFilter(selectedFile::equals));
+
+        assertThat(partialDir.resolve(selectedFile)).hasSameContentAs(expectedDir.resolve(selectedFile));
+        Path unselectedFile = Paths.get("conf", "platform.properties");
+        assertThat(partialDir.resolve(unselectedFile)).hasSameContentAs(sourceDir.resolve(unselectedFile));
+
+        // an unsupported version and a truncated file are rejected before anything is written
+        byte[] indexedContent = readAllBytes(indexedApplyFile);
+        byte[] futureVersion = indexedContent.clone();
+        futureVersion[11] = 2;
+        Path futureVersionFile = root.resolve("future.jcd");
+        Files.write(futureVersionFile, futureVersion);
+        Path truncatedFile = root.resolve("truncated.jcd");
+        Files.write(truncatedFile, Arrays.copyOf(indexedContent, indexedContent.length - 16));
+
+        JConfig invalidJConfig = jConfigBuilder().build(invalidDir);
+        assertThatThrownBy(() -> invalidJConfig.apply(futureVersionFile)).isInstanceOf(IllegalArgumentException.class).
+                hasMessageContaining("Unsupported indexed diff file version 2");
+        assertThatThrownBy(() -> invalidJConfig.apply(truncatedFile)).isInstanceOf(UncheckedIOException.class);
+        assertSameDirectoryContent(invalidDir, sourceDir);
+    }
+
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testApplyUndo(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_undo");
+        Util.ensureCleanDirectory(root);
+
+        Path applyFile = deploy(root, scenario, "jconfig-apply.ini");
+
+        Path testDir = root.resolve("test");
+        Path sourceDir = root.resolve("source");
+        Path failingDir = root.resolve("failing");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+            deploy(sourceDir, sourcePrefix, sourceName);
+            deploy(failingDir, sourcePrefix, sourceName);
+        }
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        Path undoFile = root.resolve("undo.ini");
+        JConfig jConfig = jConfigBuilder().build(testDir);
+        jConfig.apply(applyFile, applyOptions().setUndoFile(undoFile));
+
+        assertSameDirectoryContent(testDir, expectedDir);
+
+        // the undo file restores the previous entries, merged files may have their entries reordered
+        Path redoFile = root.resolve("redo.ini");
+        jConfig.apply(undoFile, applyOptions().setUndoFile(redoFile));
+
+        assertSameDirectoryEntries(testDir, sourceDir);
+
+        jConfig.apply(redoFile);
+
+        assertSameDirectoryEntries(testDir, expectedDir);
+
+        // no undo file is written when the apply fails
+        Files.delete(failingDir.resolve("conf/platform.properties"));
+        Files.createDirectories(failingDir.resolve("conf/platform.properties"));
+        Path failedUndoFile = root.resolve("failed-undo.ini");
+        assertThatThrownBy(() -> jConfigBuilder().build(failingDir).apply(applyFile, applyOptions().setUndoFile(failedUndoFile))).
+                isInstanceOf(UncheckedIOException.class);
+        assertThat(failedUndoFile).doesNotExist();
+        assertThat(failingDir.resolve("lib/plugin0.jar")).exists();
+    }
+
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testImageHashes(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_hashes");
+        Util.ensureCleanDirectory(root);
+
+        Path expectedDiffFile = deploy(root, scenario, "jconfig-diff.ini");
+
+        Path testDir = root.resolve("test");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+        }
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        Path diffFile = root.resolve("diff.ini");
+        jConfigBuilder().build(expectedDir).diff(testDir, diffFile, diffOptions().setRecordImageHashes(true));
+
+        List<String> diffLines = Files.readAllLines(diffFile);
+        assertThat(diffLines).filteredOn(line -> line.startsWith("[")).allMatch(line -> line.matches("^\\[.+] # pre=\\S+ post=\\S+$"));
+        assertThat(diffLines.stream().map(line -> line.replaceFirst(" # pre=.*$", "")).collect(Collectors.toList())).
+                isEqualTo(Files.readAllLines(expectedDiffFile));
+
+        JConfig jConfig = jConfigBuilder().build(testDir);
+        jConfig.apply(diffFile);
+        assertSameDirectoryContent(testDir, expectedDir);
+
+        // sections already applied are skipped
+        jConfig.apply(diffFile);
+        assertSameDirectoryContent(testDir, expectedDir);
+
+        // a file that is neither in the pre-image nor in the post-image state makes the apply fail
+        Path modifiedFile = testDir.resolve("conf/platform.properties");
+        Files.write(modifiedFile, Collections.singletonList("key=modified"), StandardOpenOption.APPEND);
+        byte[] modifiedContent = readAllBytes(modifiedFile);
+
+        assertThatThrownBy(() -> jConfig.apply(diffFile)).isInstanceOf(IllegalStateException.class).hasMessageContaining("platform.properties");
+        assertThat(modifiedFile).hasBinaryContent(modifiedContent);
+    }
+
+    @Test
+    public void testImageHashesOfReorderedKeys() throws Exception {
+        Path root = Paths.get("jconfig/hashes_reordered");
+        Util.ensureCleanDirectory(root);
+
+        // the apply of the section keeps the order of the keys of the reference, so its result differs from the directory content
+        Path referenceDir = root.resolve("reference");
+        Path dir = root.resolve("dir");
+        Files.createDirectories(referenceDir);
+        Files.createDirectories(dir);
+        Files.write(referenceDir.resolve("conf.properties"), asList("a=1", "b=2"));
+        Files.write(dir.resolve("conf.properties"), asList("b=2", "a=3"));
+
+        Path diffFile = root.resolve("diff.ini");
+        jConfigBuilder().build(dir).diff(referenceDir, diffFile, diffOptions().setRecordImageHashes(true));
+
+        JConfig jConfig = jConfigBuilder().build(referenceDir);
+        jConfig.apply(diffFile);
+        assertThat(Files.readAllLines(referenceDir.resolve("conf.properties"))).containsExactly("a=3", "b=2");
+
+        // applied again, the section is recognized as already applied
+        jConfig.apply(diffFile);
+        assertThat(Files.readAllLines(referenceDir.resolve("conf.properties"))).containsExactly("a=3", "b=2");
+    }
+
+    @Test
+    public void testDetectCopies() throws Exception {
+        Path root = Paths.get("jconfig/copies_1");
+        Util.ensureCleanDirectory(root);
+
+        List<String> sourceNames = asList("conf/jvm.conf", "conf/unmodified.properties", "lib/plugin0.jar", "var/data/default0.hash");
+        Path referenceDir = root.resolve("reference");
+        Path testDir = root.resolve("test");
+        Path expectedDir = root.resolve("expected");
+        for (String sourceName : sourceNames) {
+            deploy(referenceDir, "root_1", sourceName);
+            deploy(testDir, "root_1", sourceName);
+            deploy(expectedDir, "root_1", sourceName);
+        }
+
+        // a renamed jar and a copied file
+        Files.move(expectedDir.resolve("lib/plugin0.jar"), expectedDir.resolve("lib/plugin1.jar"));
+        Files.copy(expectedDir.resolve("conf/unmodified.properties"), expectedDir.resolve("conf/copy.properties"));
+
+        Path diffFile = root.resolve("diff.ini");
+        jConfigBuilder().build(expectedDir).diff(referenceDir, diffFile, diffOptions().setDetectCopies(true));
+
+        assertThat(Files.readAllLines(diffFile)).containsExactly( //
+                                                                   "[conf/copy.properties copy-from conf/unmodified.properties]", "", //
+                                                                   "[lib/plugin0.jar delete]", "", //
+                                                                   "[lib/plugin1.jar copy-from lib/plugin0.jar]", "");
+
+        Path undoFile = root.resolve("undo.ini");
+        JConfig jConfig = jConfigBuilder().build(testDir);
+        jConfig.apply(diffFile, applyOptions().setUndoFile(undoFile));
+
+        assertSameDirectoryContent(testDir, expectedDir);
+
+        jConfig.apply(undoFile);
+
+        assertSameDirectoryContent(testDir, referenceDir);
+    }
+
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testBlobStore(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_blobs");
+        Util.ensureCleanDirectory(root);
+
+        Path testDir = root.resolve("test");
+        Path sourceDir = root.resolve("source");
+        Path missingDir = root.resolve("missing");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+            deploy(sourceDir, sourcePrefix, sourceName);
+            deploy(missingDir, sourcePrefix, sourceName);
+        }
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        Path blobStore = root.resolve("blobs");
+        Path diffFile = root.resolve("diff.ini");
+        jConfigBuilder().build(expectedDir).diff(testDir, diffFile, diffOptions().setBlobStore(blobStore));
+
+        // the binary file is referenced, not embedded
+        List<String> diffLines = Files.readAllLines(diffFile);
+        int sectionIndex = diffLines.indexOf("[lib/plugin.jar overwrite @blob]");
+        assertThat(sectionIndex).isNotNegative();
+        String hash = diffLines.get(sectionIndex + 1);
+        Path blobFile = blobStore.resolve("sha256").resolve(hash.substring(7, 9)).resolve(hash.substring(7));
+        assertThat(blobFile).hasBinaryContent(readAllBytes(expectedDir.resolve("lib/plugin.jar")));
+
+        JConfig jConfig = jConfigBuilder().build(testDir);
+        assertThatThrownBy(() -> jConfig.apply(diffFile)).isInstanceOf(IllegalArgumentException.class);
+
+        jConfig.apply(diffFile, applyOptions().setBlobStore(blobStore));
+
+        assertSameDirectoryContent(testDir, expectedDir);
+
+        // the blob is copied, modifying the target file in place doesn't corrupt the store
+        Path targetFile = testDir.resolve("lib/plugin.jar");
+        assertThat(Files.isSameFile(targetFile, blobFile)).isFalse();
+        Files.write(targetFile, new byte[]{0}, StandardOpenOption.APPEND);
+        assertThat(blobFile).hasBinaryContent(readAllBytes(expectedDir.resolve("lib/plugin.jar")));
+
+        // unless linking is requested
+        Path linkedDir = root.resolve("linked");
+        for (String sourceName : sourceNames) {
+            deploy(linkedDir, sourcePrefix, sourceName);
+        }
+        jConfigBuilder().build(linkedDir).apply(diffFile, applyOptions().setBlobStore(blobStore).setLinkBlobs(true));
+        assertSameDirectoryContent(linkedDir, expectedDir);
+        assertThat(Files.isSameFile(linkedDir.resolve("lib/plugin.jar"), blobFile)).isTrue();
+
+        // a blob missing from the store fails the apply before anything is written
+        Path emptyStore = root.resolve("empty-blobs");
+        Files.createDirectories(emptyStore);
+        assertThatThrownBy(() -> jConfigBuilder().build(missingDir).apply(diffFile, applyOptions().setBlobStore(emptyStore))).
+                isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Blob not found").hasMessageContaining(hash);
+        assertSameDirectoryContent(missingDir, sourceDir);
+    }
+
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testFingerprints(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_fingerprints");
+        Util.ensureCleanDirectory(root);
+
+        Path expectedDiffFile = deploy(root, scenario, "jconfig-diff.ini");
+
+        Path testDir = root.resolve("test");
+        Path copyDir = root.resolve("copy");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+            deploy(copyDir, sourcePrefix, sourceName);
+        }
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        Path cacheFile = root.resolve("fingerprints.cache");
+        JConfig jConfig = jConfigBuilder().build(testDir);
+        String fingerprint = jConfig.fingerprint();
+        assertThat(fingerprint).startsWith("sha256:");
+        assertThat(jConfig.fingerprint(cacheFile)).isEqualTo(fingerprint);
+        assertThat(jConfig.fingerprint(cacheFile)).isEqualTo(fingerprint);
+        assertThat(jConfigBuilder().build(copyDir).fingerprint()).isEqualTo(fingerprint);
+        assertThat(jConfigBuilder().build(expectedDir).fingerprint()).isNotEqualTo(fingerprint);
+
+        // identical directories give an empty diff, and unchanged files are skipped
+        Path diffFile = root.resolve("diff.ini");
+        jConfig.diff(copyDir, diffFile, diffOptions().setUseFingerprints(true));
+        assertThat(diffFile).hasContent("");
+
+        jConfigBuilder().build(expectedDir).diff(testDir, diffFile, diffOptions().setUseFingerprints(true).setFingerprintCache(cacheFile));
+        assertThat(diffFile).hasSameContentAs(expectedDiffFile);
+
+        // an unreadable cache is ignored, then replaced
+        String invalidLine = "sha256:0 invalid 0 " + testDir.toAbsolutePath().resolve("conf/jvm.conf");
+        Files.write(cacheFile, Collections.singletonList(invalidLine));
+        assertThat(jConfig.fingerprint(cacheFile)).isEqualTo(fingerprint);
+        assertThat(Files.readAllLines(cacheFile)).doesNotContain(invalidLine);
+
+        Files.write(copyDir.resolve("conf/unmodified.properties"), Collections.singletonList("drift=true"), StandardOpenOption.APPEND);
+        assertThat(jConfigBuilder().build(copyDir).fingerprint(cacheFile)).isNotEqualTo(fingerprint);
+    }
+
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testDiffArchives(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_archives");
+        Util.ensureCleanDirectory(root);
+
+        Path applyFile = deploy(root, scenario, "jconfig-apply.ini");
+        Path expectedDiffFile = deploy(root, scenario, "jconfig-diff.ini");
+
+        Path testDir = root.resolve("test");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+        }
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        Path testZip = root.resolve("test.zip");
+        writeZip(testDir, sourceNames, testZip);
+        Path testTar = root.resolve("test.tar.gz");
+        writeTarGz(testDir, sourceNames, testTar);
+        Path expectedZip = root.resolve("expected.zip");
+        writeZip(expectedDir, resultNames, expectedZip);
+
+        // the reference is an archive
+        for (Path reference : asList(testZip, testTar)) {
+            Path diffFile = root.resolve("diff.ini");
+            jConfigBuilder().build(expectedDir).diff(reference, diffFile);
+            assertThat(diffFile).hasSameContentAs(expectedDiffFile);
+        }
+
+        // both sides are archives
+        Path diffFile = root.resolve("diff.ini");
+        jConfigBuilder().build(expectedZip).diff(testTar, diffFile);
+        assertThat(diffFile).hasSameContentAs(expectedDiffFile);
+
+        // identical archives give an empty diff
+        jConfigBuilder().build(testZip).diff(testTar, diffFile);
+        assertThat(diffFile).hasContent("");
+
+        // an entry with the same size and CRC-32 but another content is a change
+        Path collisionDir = root.resolve("collision");
+        Files.createDirectories(collisionDir);
+        byte[] content = "key=value1\nother=1\n".getBytes(UTF_8);
+        Files.write(collisionDir.resolve("collision.bin"), content);
+        Path collisionZip = root.resolve("collision.zip");
+        writeZip(collisionDir, asList("collision.bin"), collisionZip);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        byte[] collision = withCrc("key=value2\nothe".getBytes(UTF_8), crc.getValue());
+        assertThat(collision).hasSameSizeAs(content).isNotEqualTo(content);
+        Files.write(collisionDir.resolve("collision.bin"), collision);
+        jConfigBuilder().build(collisionDir).diff(collisionZip, diffFile);
+        assertThat(Files.readAllLines(diffFile)).anyMatch(line -> line.startsWith("[collision.bin "));
+
+        // a reference file that is not an archive, and a truncated archive
+        Path truncatedZip = root.resolve("truncated.zip");
+        byte[] testZipContent = readAllBytes(testZip);
+        Files.write(truncatedZip, Arrays.copyOf(testZipContent, testZipContent.length / 2));
+        Path failedDiffFile = root.resolve("failed-diff.ini");
+        assertThatThrownBy(() -> jConfigBuilder().build(expectedDir).diff(applyFile, failedDiffFile)).hasMessageContaining("Unknown archive format");
+        assertThatThrownBy(() -> jConfigBuilder().build(expectedDir).diff(truncatedZip, failedDiffFile)).isInstanceOf(UncheckedIOException.class);
+        assertThat(failedDiffFile).doesNotExist();
+    }
+
+    @Test
+    public void testDiffLargeTarEntries() throws Exception {
+        Path root = Paths.get("jconfig/diff_large_tar");
+        Util.ensureCleanDirectory(root);
+
+        // an entry larger than what is loaded in memory, the TAR archive can only be read sequentially
+        Path referenceDir = root.resolve("reference");
+        Files.createDirectories(referenceDir.resolve("lib"));
+        byte[] largeContent = new byte[3 * 1024 * 1024];
+        new Random(0).nextBytes(largeContent);
+        Files.write(referenceDir.resolve("lib/large.bin"), largeContent);
+        Files.write(referenceDir.resolve("small.txt"), asList("small"));
+        Path referenceTar = root.resolve("reference.tar.gz");
+        writeTarGz(referenceDir, asList("lib/large.bin", "small.txt"), referenceTar);
+
+        Path dir = root.resolve("dir");
+        Files.createDirectories(dir.resolve("lib"));
+        largeContent[largeContent.length / 2]++;
+        Files.write(dir.resolve("lib/large.bin"), largeContent);
+        Files.write(dir.resolve("small.txt"), asList("small"));
+
+        Path tmpDir = Paths.get(System.getProperty("java.io.tmpdir"));
+        Set<Path> spillDirs;
+        try (Stream<Path> files = Files.list(tmpDir)) {
+            spillDirs = files.filter(file -> file.getFileName().toString().startsWith("jconfig-diff")).collect(Collectors.toSet());
+        }
+
+        Path diffFile = root.resolve("diff.ini");
+        jConfigBuilder().build(dir).diff(referenceTar, diffFile);
+        assertThat(Files.readAllLines(diffFile)).contains("[lib/large.bin overwrite @base64]").doesNotContain("[small.txt]");
+
+        // the temporary files are deleted once the diff is done
+        try (Stream<Path> files = Files.list(tmpDir)) {
+            assertThat(files.filter(file -> file.getFileName().toString().startsWith("jconfig-diff"))).containsExactlyInAnyOrderElementsOf(spillDirs);
+        }
+
+        jConfigBuilder().build(referenceDir).apply(diffFile);
+        assertThat(referenceDir.resolve("lib/large.bin")).hasBinaryContent(largeContent);
+    }
+
+    @Test
+    public void testMergeRejectsInvalidArchives() throws Exception {
+        Path root = Paths.get("jconfig/merge_invalid_archives");
+        Util.ensureCleanDirectory(root);
+        Path testDir = root.resolve("test");
+        Files.createDirectories(testDir);
+        JConfig jConfig = jConfigBuilder().build(testDir);
+
+        // neither a ZIP nor a TAR archive
+        assertThatThrownBy(() -> jConfig.merge(new ByteArrayInputStream(new byte[]{1, 2, 3}))).isInstanceOf(UncheckedIOException.class);
+        byte[] text = String.join("\n", Collections.nCopies(100, "not an archive")).getBytes(UTF_8);
+        assertThatThrownBy(() -> jConfig.merge(new ByteArrayInputStream(text))).hasMessageContaining("Unknown archive format");
+
+        // a TAR header with an invalid checksum, eg a corrupted archive
+        byte[] corrupted = tar("file.txt");
+        corrupted[10] = 'x';
+        assertThatThrownBy(() -> jConfig.merge(new ByteArrayInputStream(corrupted))).hasMessageContaining("Unknown archive format");
+        byte[] corruptedSecondEntry = tar("file.txt", "other.txt");
+        corruptedSecondEntry[1024 + 10] = 'x';
+        assertThatThrownBy(() -> jConfig.merge(new ByteArrayInputStream(corruptedSecondEntry))).hasMessageContaining("Invalid TAR header");
+        assertThat(testDir.resolve("file.txt")).doesNotExist();
+
+        // entries that would be written outside of the target directory
+        for (String name : asList("../evil.txt", "dir/../../evil.txt", "/tmp/evil.txt")) {
+            assertThatThrownBy(() -> jConfig.merge(new ByteArrayInputStream(tar(name)))).hasMessageContaining("Invalid TAR entry name");
+        }
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("../evil.txt"));
+            out.write("evil".getBytes(UTF_8));
+        }
+        assertThatThrownBy(() -> jConfig.merge(new ByteArrayInputStream(zip.toByteArray()))).isInstanceOf(IllegalArgumentException.class).
+                hasMessageContaining("outside of the target directory");
+        assertThat(root.resolve("evil.txt")).doesNotExist();
+
+        // a valid archive
+        jConfig.merge(new ByteArrayInputStream(tar("./dir/file.txt")));
+        assertThat(testDir.resolve("dir/file.txt")).hasContent("./dir/file.txt");
+    }
+
+    /**
+     * @return an uncompressed TAR archive whose entries contain their name
+     */
+    private static byte[] tar(String... names) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String name : names) {
+            byte[] content = name.getBytes(UTF_8);
+            out.write(tarHeader(name, content.length));
+            out.write(content);
+            out.write(new byte[(512 - content.length % 512) % 512]);
+        }
+        out.write(new byte[1024]);
+        return out.toByteArray();
+    }
+
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testApplyToArchive(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_toarchive");
+        Util.ensureCleanDirectory(root);
+
+        Path applyFile = deploy(root, scenario, "jconfig-apply.ini");
+
+        Path testDir = root.resolve("test");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+        }
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        Path testZip = root.resolve("test.zip");
+        writeZip(testDir, sourceNames, testZip);
+        byte[] testZipContent = readAllBytes(testZip);
+
+        // the target must be a ZIP file, and the archive cannot be restored by an undo file
+        Path outputZip = root.resolve("output.zip");
+        assertThatThrownBy(() -> jConfigBuilder().build(testDir).applyToArchive(applyFile, outputZip, applyOptions())).
+                isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Not a ZIP file");
+        assertThatThrownBy(() -> jConfigBuilder().build(applyFile).applyToArchive(applyFile, outputZip, applyOptions())).
+                isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Not a ZIP file");
+        ApplyOptions undoOptions = applyOptions().setUndoFile(root.resolve("undo.ini"));
+        assertThatThrownBy(() -> jConfigBuilder().build(testZip).applyToArchive(applyFile, outputZip, undoOptions)).
+                isInstanceOf(IllegalArgumentException.class);
+        assertThat(outputZip).doesNotExist();
+
+        jConfigBuilder().build(testZip).applyToArchive(applyFile, outputZip, applyOptions());
+
+        assertThat(readAllBytes(testZip)).isEqualTo(testZipContent);
+
+        Path outputDir = root.resolve("output");
+        try (ZipFile sourceZipFile = new ZipFile(testZip.toFile()); ZipFile outputZipFile = new ZipFile(outputZip.toFile())) {
+            assertThat(outputZipFile.stream().map(ZipEntry::getName).sorted().collect(Collectors.toList())).isEqualTo(resultNames);
+
+            // unchanged entries are copied raw
+            ZipEntry sourceEntry = sourceZipFile.getEntry("conf/unmodified.properties");
+            ZipEntry outputEntry = outputZipFile.getEntry("conf/unmodified.properties");
+            assertThat(outputEntry.getCompressedSize()).isEqualTo(sourceEntry.getCompressedSize());
+            assertThat(outputEntry.getCrc()).isEqualTo(sourceEntry.getCrc());
+
+            for (ZipEntry entry : Collections.list(outputZipFile.entries())) {
+                Path file = outputDir.resolve(entry.getName());
+                Files.createDirectories(file.getParent());
+                try (InputStream in = outputZipFile.getInputStream(entry)) {
+                    Files.copy(in, file);
+                }
+            }
+        }
+        assertSameDirectoryContent(outputDir, expectedDir);
+    }
+
+    @Test
+    public void testApplyToArchiveEntryNames() throws Exception {
+        Path root = Paths.get("jconfig/toarchive_entry_names");
+        Util.ensureCleanDirectory(root);
+        Charset cp437 = Charset.forName("IBM437");
+        Path applyFile = root.resolve("jconfig-apply.ini");
+        Files.write(applyFile, asList("[other.txt overwrite]", "updated"), UTF_8);
+
+        // names without the UTF-8 flag are CP437
+        Path testZip = root.resolve("test.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(testZip), cp437)) {
+            for (String name : asList("café.txt", "other.txt")) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(name.getBytes(UTF_8));
+            }
+        }
+
+        Path outputZip = root.resolve("output.zip");
+        jConfigBuilder().build(testZip).applyToArchive(applyFile, outputZip, applyOptions());
+        try (ZipFile outputZipFile = new ZipFile(outputZip.toFile(), cp437)) {
+            // the copied entry keeps its CP437 name
+            assertThat(outputZipFile.stream().map(ZipEntry::getName).collect(Collectors.toList())).containsExactly("café.txt", "other.txt");
+            assertThat(readEntry(outputZipFile, "café.txt")).isEqualTo("café.txt");
+            assertThat(readEntry(outputZipFile, "other.txt")).isEqualTo("updated\n");
+        }
+        byte[] output = readAllBytes(outputZip);
+        assertThat(indexOf(output, "café.txt".getBytes(cp437))).isNotNegative();
+        assertThat(indexOf(output, "café.txt".getBytes(UTF_8))).isNegative();
+
+        // ZipOutputStream refuses duplicate entries, so the name of the second entry is patched
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            for (String name : asList("first.txt", "other.txt")) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write('x');
+            }
+        }
+        byte[] duplicate = zip.toByteArray();
+        byte[] otherName = "other.txt".getBytes(UTF_8);
+        for (int index; (index = indexOf(duplicate, otherName)) >= 0; ) {
+            System.arraycopy("first.txt".getBytes(UTF_8), 0, duplicate, index, otherName.length);
+        }
+        Path duplicateZip = root.resolve("duplicate.zip");
+        Files.write(duplicateZip, duplicate);
+        Files.delete(outputZip);
+        assertThatThrownBy(() -> jConfigBuilder().build(duplicateZip).applyToArchive(applyFile, outputZip, applyOptions())).
+                isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Duplicate entry");
+        assertThat(readAllBytes(duplicateZip)).isEqualTo(duplicate);
+        assertThat(outputZip).doesNotExist();
+    }
+
+    private static String readEntry(ZipFile zipFile, String name) throws IOException {
+        try (InputStream in = zipFile.getInputStream(zipFile.getEntry(name))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Streams.copy(in, out);
+            return new String(out.toByteArray(), UTF_8);
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] searched) {
+        for (int i = 0; i + searched.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + searched.length), searched)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testZipFileSystem(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_zipfs");
+        Util.ensureCleanDirectory(root);
+
+        Path applyFile = deploy(root, scenario, "jconfig-apply.ini");
+        Path expectedDiffFile = deploy(root, scenario, "jconfig-diff.ini");
+
+        Path testDir = root.resolve("test");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+        }
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        Path failingApplyFile = root.resolve("failing-apply.ini");
+        Files.write(failingApplyFile, asList("[conf/jvm.conf overwrite]", "-Xmx1g", //
+                                             "[conf/copy.properties copy-from conf/missing.properties]"), UTF_8);
+
+        Path zipFile = root.resolve("test.zip").toAbsolutePath();
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(URI.create("jar:" + zipFile.toUri()), Collections.singletonMap("create", "true"))) {
+            Path zipRoot = zipFileSystem.getPath("/");
+            for (String sourceName : sourceNames) {
+                Path file = zipRoot.resolve(sourceName);
+                Files.createDirectories(file.getParent());
+                Files.copy(testDir.resolve(sourceName), file);
+            }
+
+            // a failed apply is rolled back in the ZIP file system too
+            JConfig jConfig = jConfigBuilder().build(zipRoot);
+            assertThatThrownBy(() -> jConfig.apply(failingApplyFile)).isInstanceOf(UncheckedIOException.class);
+            assertThat(readAllBytes(zipRoot.resolve("conf/jvm.conf"))).isEqualTo(readAllBytes(testDir.resolve("conf/jvm.conf")));
+            List<String> confNames = sourceNames.stream().filter(name -> name.startsWith("conf/")).collect(Collectors.toList());
+            try (Stream<Path> files = Files.list(zipRoot.resolve("conf"))) {
+                assertThat(files.map(file -> "conf/" + file.getFileName()).collect(Collectors.toList())).containsExactlyInAnyOrderElementsOf(confNames);
+            }
+
+            // the diff is applied in the ZIP file system, then compared to a directory of the default file system
+            jConfig.apply(applyFile);
+
+            Path diffFile = root.resolve("diff.ini");
+            jConfig.diff(testDir, diffFile);
+            assertThat(diffFile).hasSameContentAs(expectedDiffFile);
+
+            // the diff file itself can be written in the ZIP file system
+            Path zipDiffFile = zipRoot.resolve("diff.ini");
+            jConfigBuilder().build(expectedDir).diff(testDir, zipDiffFile);
+            assertThat(readAllBytes(zipDiffFile)).isEqualTo(readAllBytes(expectedDiffFile));
+            Files.delete(zipDiffFile);
+        }
+
+        Path outputDir = root.resolve("output");
+        try (ZipFile outputZipFile = new ZipFile(zipFile.toFile())) {
+            for (ZipEntry entry : Collections.list(outputZipFile.entries())) {
+                if (!entry.isDirectory()) {
+                    Path file = outputDir.resolve(entry.getName());
+                    Files.createDirectories(file.getParent());
+                    try (InputStream in = outputZipFile.getInputStream(entry)) {
+                        Files.copy(in, file);
+                    }
+                }
+            }
+        }
+        assertSameDirectoryContent(outputDir, expectedDir);
+    }
+
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testBatch(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_batch");
+        Util.ensureCleanDirectory(root);
+
+        Path applyFile = deploy(root, scenario, "jconfig-apply.ini");
+
+        Path testDir = root.resolve("test");
+        Path sourceDir = root.resolve("source");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+            deploy(sourceDir, sourcePrefix, sourceName);
+        }
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        // a failed batch is rolled back, whether the failure comes from the caller or from one of the operations
+        JConfig jConfig = jConfigBuilder().build(testDir);
+        assertThatThrownBy(() -> jConfig.batch(batch -> {
+            batch.apply(applyFile);
+            batch.setEntries(Paths.get("conf/platform.properties"), asList("key=abc"));
+            throw new IllegalStateException("failure");
+        })).isInstanceOf(IllegalStateException.class);
+        assertSameDirectoryContent(testDir, sourceDir);
+
+        assertThatThrownBy(() -> jConfig.batch(batch -> {
+            batch.apply(applyFile);
+            batch.setEntries(Paths.get("conf/platform.properties"), asList("key=abc"));
+            batch.setEntries(Paths.get("conf/missing.properties"), asList("key=abc"));
+        })).isInstanceOf(UncheckedIOException.class);
+        assertSameDirectoryContent(testDir, sourceDir);
+
+        // the operations see the previous ones, and nothing is written before the end of the batch
+        Path platformFile = testDir.resolve("conf/platform.properties");
+        byte[] platformContent = readAllBytes(platformFile);
+        jConfig.batch(batch -> {
+            batch.apply(applyFile);
+            batch.setEntries(Paths.get("conf/platform.properties"), asList("key=abc", "https.port=443"));
+            batch.removeEntries(Paths.get("conf/platform.properties"), asList("key"));
+            batch.setEntries(Paths.get("conf/log4j.properties"), asList("batch=true"));
+            assertThat(readAllBytes(platformFile)).isEqualTo(platformContent);
+        });
+
+        Properties platformProperties = new Properties();
+        try (InputStream in = Files.newInputStream(platformFile)) {
+            platformProperties.load(in);
+        }
+        assertThat(platformProperties).doesNotContainKey("key").containsEntry("https.port", "443");
+        assertThat(new String(readAllBytes(testDir.resolve("conf/log4j.properties")), ISO_8859_1)).contains("batch=true");
+        assertThat(readAllBytes(testDir.resolve("lib/plugin.jar"))).isEqualTo(readAllBytes(expectedDir.resolve("lib/plugin.jar")));
+        assertThat(Files.exists(testDir.resolve("lib/plugin0.jar"))).isFalse();
+    }
+
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testStats(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_stats");
+        Util.ensureCleanDirectory(root);
+
+        Path applyFile = deploy(root, scenario, "jconfig-apply.ini");
+
+        Path testDir = root.resolve("test");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+        }
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        List<OperationStats> stats = new ArrayList<>();
+        JConfig jConfig = jConfigBuilder().addListener(stats::add).build(testDir);
+
+        jConfig.apply(applyFile);
+        assertThat(stats).hasSize(1);
+        OperationStats applyStats = stats.get(0);
+        assertThat(applyStats.getOperation()).isEqualTo("apply");
+        assertThat(applyStats.isSucceeded()).isTrue();
+        assertThat(applyStats.getPhases()).containsOnlyKeys("parse", "lock", "process", "commit");
+        Map<Path, FileStats> applyFiles = applyStats.getFiles().stream().collect(Collectors.toMap(FileStats::getPath, Function.identity()));
+        assertThat(applyFiles.get(applyFile).getAction()).isEqualTo(FileStats.Action.READ);
+        assertThat(applyFiles.get(applyFile).getBytesRead()).isEqualTo(Files.size(applyFile));
+        FileStats platformStats = applyFiles.get(Paths.get("conf/platform.properties"));
+        assertThat(platformStats.getAction()).isEqualTo(FileStats.Action.WRITTEN);
+        assertThat(platformStats.getHandler()).isEqualTo("PropertiesContentHandler");
+        assertThat(platformStats.getBytesWritten()).isEqualTo(Files.size(testDir.resolve("conf/platform.properties")));
+        assertThat(applyFiles.get(Paths.get("lib/plugin0.jar")).getAction()).isEqualTo(FileStats.Action.DELETED);
+        assertThat(applyStats.getFilesRewritten()).isGreaterThan(0);
+        assertThat(applyStats.getBytesWritten()).isGreaterThan(0);
+
+        // the compared files are read, the diff file is written
+        stats.clear();
+        Path diffFile = root.resolve("jconfig-diff.ini");
+        jConfig.diff(expectedDir, diffFile);
+        OperationStats diffStats = stats.get(0);
+        assertThat(diffStats.getPhases()).containsKeys("scan", "compare", "write", "commit");
+        assertThat(diffStats.getFiles()).filteredOn(file -> file.getAction() == FileStats.Action.READ).hasSize(resultNames.size());
+        assertThat(diffStats.getFilesRewritten()).isEqualTo(1);
+        assertThat(diffStats.getFilesSkipped()).isEqualTo(0);
+
+        // the unchanged files are skipped
+        Path platformFile = Paths.get("conf/platform.properties");
+        jConfig.setEntries(platformFile, asList("stats=true"));
+        stats.clear();
+        jConfig.diff(expectedDir, diffFile, diffOptions().setUseFingerprints(true));
+        assertThat(stats.get(0).getFilesSkipped()).isEqualTo(resultNames.size() - 1);
+        assertThat(stats.get(0).getFiles()).filteredOn(file -> file.getAction() == FileStats.Action.READ).extracting(FileStats::getPath).
+                containsExactly(platformFile);
+
+        // a failed operation is notified
+        stats.clear();
+        assertThatThrownBy(() -> jConfig.setEntries(Paths.get("conf/missing.properties"), asList("key=value"))).isInstanceOf(UncheckedIOException.class);
+        assertThat(stats).hasSize(1);
+        assertThat(stats.get(0).isSucceeded()).isFalse();
+
+        // the operations of a batch are notified, then the batch writes the grouped entry updates
+        stats.clear();
+        jConfig.batch(batch -> {
+            batch.setEntries(platformFile, asList("key=abc"));
+            batch.removeEntries(platformFile, asList("key"));
+        });
+        assertThat(stats).extracting(OperationStats::getOperation).containsExactly("setEntries", "removeEntries", "batch");
+        OperationStats batchStats = stats.get(2);
+        assertThat(batchStats.getPhases()).containsOnlyKeys("lock", "operations", "flush", "commit");
+        assertThat(batchStats.getFiles()).extracting(FileStats::getPath).containsExactly(platformFile);
+    }
+
+    @DataProvider(name = "composeDiffs")
+    public Object[][] providesComposeDiffs() {
+        return new Object[][]{ //
+                {"compose_1", "root_1", asList("jconfig-diff_1.ini", "jconfig-diff_2.ini"), "jconfig-composed.ini", //
+                        asList("conf/jvm.conf", "conf/log4j.properties", "conf/platform.properties", "conf/unmodified.properties", "lib/plugin0.jar",
+                               "var/data/default0.hash")}, //
+        };
+    }
+
+    @Test(dataProvider = "composeDiffs")
+    public void testComposeDiffs(String scenario, String sourcePrefix, List<String> diffNames, String composedName, List<String> sourceNames)
+            throws Exception {
+        Path root = Paths.get("jconfig/" + scenario);
+        Util.ensureCleanDirectory(root);
+
+        List<Path> diffFiles = new ArrayList<>();
+        for (String diffName : diffNames) {
+            diffFiles.add(deploy(root, scenario, diffName));
+        }
+        Path expectedComposedFile = deploy(root, scenario, composedName);
+
+        Path testDir = root.resolve("test");
+        Path expectedDir = root.resolve("expected");
+        for (String sourceName : sourceNames) {
+            deploy(testDir, sourcePrefix, sourceName);
+            deploy(expectedDir, sourcePrefix, sourceName);
+        }
+
+        Path composedFile = root.resolve("composed.ini");
+        JConfig jConfig = jConfigBuilder().build(testDir);
+        jConfig.composeDiffs(diffFiles, composedFile, DiffFormat.TEXT);
+
+        assertThat(composedFile).hasSameContentAs(expectedComposedFile);
+
+        // applying the composed diff must give the same result than applying the diffs one after the other
+        jConfig.apply(composedFile);
+
+        JConfig expectedJConfig = jConfigBuilder().build(expectedDir);
+        for (Path diffFile : diffFiles) {
+            expectedJConfig.apply(diffFile);
+        }
+
+        assertSameDirectoryContent(testDir, expectedDir);
+    }
+
     @DataProvider(name = "setEntries")
     public Object[][] providesSetEntries() {
         return new Object[][]{ //
@@ -85,6 +966,188 @@ public class JConfigImplTest {
         assertThat(sourceFile).hasSameContentAs(expectedFile);
     }
 
+    @Test
+    public void testConcurrentSetEntries() throws Exception {
+        Path root = Paths.get("jconfig/concurrent_setentries_1");
+        Util.ensureCleanDirectory(root);
+
+        Path testDir = root.resolve("test");
+        Path sourceFile = deploy(testDir, "root_1/conf", "platform.properties");
+        Path relativeFile = testDir.relativize(sourceFile);
+
+        int threadCount = 8;
+        int updateCount = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    // each thread uses its own JConfig instance as separate agents would do
+                    JConfig jConfig = jConfigBuilder().build(testDir);
+                    for (int i = 0; i < updateCount; i++) {
+                        jConfig.setEntries(relativeFile, Collections.singletonList("concurrent." + thread + "." + i + "=" + i));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(sourceFile)) {
+            properties.load(in);
+        }
+        for (int t = 0; t < threadCount; t++) {
+            for (int i = 0; i < updateCount; i++) {
+                assertThat(properties.getProperty("concurrent." + t + "." + i)).isEqualTo(String.valueOf(i));
+            }
+        }
+
+        try (Stream<Path> files = Files.list(testDir)) {
+            assertThat(files.map(path -> path.getFileName().toString())).containsExactly("platform.properties");
+        }
+    }
+
+    @Test(dataProvider = "applyAndDiffScenarios")
+    public void testApplyToTargets(String scenario, String sourcePrefix, List<String> sourceNames, List<String> resultNames) throws Exception {
+        Path root = Paths.get("jconfig/" + scenario + "_targets");
+        Util.ensureCleanDirectory(root);
+
+        Path applyFile = deploy(root, scenario, "jconfig-apply.ini");
+
+        Path expectedDir = root.resolve("expected");
+        for (String resultName : resultNames) {
+            deploy(expectedDir, scenario + "/expected", resultName);
+        }
+
+        List<Path> targetDirs = new ArrayList<>();
+        for (int t = 0; t < 5; t++) {
+            Path targetDir = root.resolve("target" + t);
+            for (String sourceName : sourceNames) {
+                deploy(targetDir, sourcePrefix, sourceName);
+            }
+            targetDirs.add(targetDir);
+        }
+        Path sourceDir = root.resolve("source");
+        for (String sourceName : sourceNames) {
+            deploy(sourceDir, sourcePrefix, sourceName);
+        }
+
+        // the third target cannot be updated since one of its files is a directory, it fails before its commit and is left unchanged
+        Path failingDir = targetDirs.get(2);
+        Files.delete(failingDir.resolve("conf/platform.properties"));
+        Files.createDirectories(failingDir.resolve("conf/platform.properties"));
+
+        List<ApplyResult> results = jConfigBuilder().setParallelism(3).applyToTargets(applyFile, targetDirs, applyOptions());
+
+        assertThat(results).extracting(ApplyResult::getTargetDir).isEqualTo(targetDirs);
+        for (int t = 0; t < targetDirs.size(); t++) {
+            ApplyResult result = results.get(t);
+            if (t == 2) {
+                assertThat(result.isSucceeded()).isFalse();
+                assertThat(result.isPartiallyCommitted()).isFalse();
+                assertThat(result.getFailure()).isInstanceOf(UncheckedIOException.class);
+                assertThat(result.getStats().isSucceeded()).isFalse();
+                assertThat(failingDir.resolve("conf/jvm.conf")).hasSameContentAs(sourceDir.resolve("conf/jvm.conf"));
+                assertThat(failingDir.resolve("lib/plugin0.jar")).exists();
+            } else {
+                assertThat(result.isSucceeded()).isTrue();
+                assertThat(result.getStats().getPhases()).doesNotContainKey("parse");
+                assertSameDirectoryContent(targetDirs.get(t), expectedDir);
+            }
+        }
+
+        assertThatThrownBy(() -> jConfigBuilder().applyToTargets(applyFile, targetDirs, applyOptions().setUndoFile(root.resolve("undo.ini")))).
+                isInstanceOf(IllegalArgumentException.class);
+
+        // the diff file is parsed before any target directory is updated
+        Path missingFile = root.resolve("missing.ini");
+        assertThatThrownBy(() -> jConfigBuilder().applyToTargets(missingFile, targetDirs, applyOptions())).isInstanceOf(UncheckedIOException.class);
+        assertThat(jConfigBuilder().applyToTargets(applyFile, Collections.emptyList(), applyOptions())).isEmpty();
+    }
+
+    @Test
+    public void testApplyToTargetsPartialCommit() throws Exception {
+        Path root = Paths.get("jconfig/targets_partial_commit");
+        Util.ensureCleanDirectory(root);
+        Path applyFile = root.resolve("jconfig-apply.ini");
+        Files.write(applyFile, asList("[a.txt overwrite]", "new a", "[b.txt overwrite]", "new b"), UTF_8);
+        Path targetDir = root.resolve("target");
+        Files.createDirectories(targetDir);
+        Files.write(targetDir.resolve("a.txt"), "old a".getBytes(UTF_8));
+        // b.txt cannot be replaced once a.txt was moved in place
+        Files.createDirectories(targetDir.resolve("b.txt/child"));
+
+        ApplyResult result = jConfigBuilder().applyToTargets(applyFile, Collections.singletonList(targetDir), applyOptions()).get(0);
+
+        assertThat(result.isSucceeded()).isFalse();
+        assertThat(result.isPartiallyCommitted()).isTrue();
+        assertThat(result.toString()).contains("partially committed");
+        assertThat(targetDir.resolve("a.txt")).hasContent("new a");
+        assertThat(targetDir.resolve("b.txt/child")).isDirectory();
+        try (Stream<Path> files = Files.list(targetDir)) {
+            assertThat(files.map(file -> file.getFileName().toString())).containsOnly("a.txt", "b.txt");
+        }
+    }
+
+    @Test
+    public void testAsyncSetEntries() throws Exception {
+        Path root = Paths.get("jconfig/async_setentries_1");
+        Util.ensureCleanDirectory(root);
+
+        int targetCount = 10;
+        List<Path> targetDirs = new ArrayList<>();
+        for (int t = 0; t < targetCount; t++) {
+            Path targetDir = root.resolve("target" + t);
+            deploy(targetDir, "root_1/conf", "platform.properties");
+            targetDirs.add(targetDir);
+        }
+
+        // the default executor
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < targetCount; t++) {
+            AsyncJConfig asyncJConfig = jConfigBuilder().buildAsync(targetDirs.get(t));
+            futures.add(asyncJConfig.setEntries(Paths.get("platform.properties"), Collections.singletonList("async.target=" + t)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+
+        // a caller-supplied executor
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            futures.clear();
+            for (int t = 0; t < targetCount; t++) {
+                AsyncJConfig asyncJConfig = jConfigBuilder().setExecutor(executor).buildAsync(targetDirs.get(t));
+                futures.add(asyncJConfig.batch(jConfig -> {
+                    jConfig.removeEntries(Paths.get("platform.properties"), Collections.singletonList("key"));
+                    jConfig.setEntries(Paths.get("platform.properties"), Collections.singletonList("async.batch=true"));
+                }));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+
+            // a failed operation completes the future exceptionally
+            CompletableFuture<Void> failed = jConfigBuilder().setExecutor(executor).buildAsync(targetDirs.get(0)).
+                    setEntries(Paths.get("missing.properties"), Collections.singletonList("key=value"));
+            assertThatThrownBy(failed::get).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(UncheckedIOException.class);
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int t = 0; t < targetCount; t++) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(targetDirs.get(t).resolve("platform.properties"))) {
+                properties.load(in);
+            }
+            assertThat(properties.getProperty("async.target")).isEqualTo(String.valueOf(t));
+            assertThat(properties.getProperty("async.batch")).isEqualTo("true");
+            assertThat(properties.getProperty("key")).isNull();
+        }
+        assertThat(jConfigBuilder().buildAsync(targetDirs.get(0)).fingerprint().get()).isEqualTo(jConfigBuilder().build(targetDirs.get(0)).fingerprint());
+    }
+
     @DataProvider(name = "removeEntries")
     public Object[][] providesRemoveEntries() {
         return new Object[][]{ //
@@ -155,18 +1218,314 @@ public class JConfigImplTest {
 
         Path testDir = root.resolve("test");
 
-        for (Path mergeSource : asList(mergeDir, mergeFile)) {
+        Path mergeTarFile = deploy(root, scenario, "merge.tar.gz");
 
-            Util.ensureCleanDirectory(testDir);
-            for (String sourceName : sourceNames) {
-                deploy(testDir, sourcePrefix, sourceName);
+        for (Path mergeSource : asList(mergeDir, mergeFile, mergeTarFile)) {
+            for (int parallelism : new int[]{1, 4}) {
+                for (boolean streamed : new boolean[]{false, true}) {
+                    if (streamed && Files.isDirectory(mergeSource)) {
+                        continue;
+                    }
+
+                    Util.ensureCleanDirectory(testDir);
+                    for (String sourceName : sourceNames) {
+                        deploy(testDir, sourcePrefix, sourceName);
+                    }
+
+                    Predicate<Path> pathFilter = p -> !".empty".equals(p.getFileName().toString()) && !p.toString().contains("will-be-ignored");
+                    JConfig jConfig = jConfigBuilder().setPathFilter(pathFilter).setParallelism(parallelism).build(testDir);
+                    if (streamed) {
+                        try (InputStream archive = Files.newInputStream(mergeSource)) {
+                            jConfig.merge(archive);
+                        }
+                    } else {
+                        jConfig.merge(mergeSource);
+                    }
+
+                    assertSameDirectoryContent(testDir, expectedDir);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelMerge() throws Exception {
+        Path root = Paths.get("jconfig/parallel_merge");
+        Util.ensureCleanDirectory(root);
+        Path zip = root.resolve("merge.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (int i = 0; i < 20; i++) {
+                out.putNextEntry(new ZipEntry("file" + i + ".txt"));
+                out.write(("content " + i).getBytes(UTF_8));
+            }
+        }
+
+        // the JConfigs of a builder share their worker threads, the calling thread takes part in the processing
+        Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        JConfigBuilder builder = jConfigBuilder().setParallelism(4).setFileContentHandlerResolver(path -> {
+            threadNames.add(Thread.currentThread().getName());
+            return new RawFileContentHandler();
+        });
+        for (String targetName : asList("target1", "target2")) {
+            Path targetDir = root.resolve(targetName);
+            Files.createDirectories(targetDir);
+            for (int i = 0; i < 20; i++) {
+                Files.write(targetDir.resolve("file" + i + ".txt"), "old".getBytes(UTF_8));
+            }
+            builder.build(targetDir).merge(zip);
+            assertThat(targetDir.resolve("file19.txt")).hasContent("content 19");
+        }
+        Set<String> workerPools = threadNames.stream().filter(name -> name.startsWith("jconfig-worker-")).
+                map(name -> name.substring(0, name.lastIndexOf('-'))).collect(Collectors.toSet());
+        assertThat(workerPools).hasSize(1);
+        assertThat(threadNames.size()).isLessThanOrEqualTo(4);
+        assertThat(threadNames).allMatch(name -> name.startsWith("jconfig-worker-") || name.equals(Thread.currentThread().getName()));
+
+        // two entries of the same file are rejected before any file is written
+        Path duplicateZip = root.resolve("duplicate.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(duplicateZip))) {
+            for (String name : asList("file1.txt", "file2.txt", "./file1.txt")) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(name.getBytes(UTF_8));
+            }
+        }
+        Path targetDir = root.resolve("target1");
+        assertThatThrownBy(() -> builder.build(targetDir).merge(duplicateZip)).isInstanceOf(IllegalArgumentException.class).
+                hasMessageContaining("Duplicate entry");
+        assertThat(targetDir.resolve("file2.txt")).hasContent("content 2");
+    }
+
+    @Test
+    public void testMergeSkipsRejectedDirectories() throws Exception {
+        Path root = Paths.get("jconfig/merge_pruning_1");
+        Util.ensureCleanDirectory(root);
+
+        Path mergeDir = root.resolve("merge");
+        for (String mergeName : asList("conf/jvm.conf", "var/will-be-ignored/some-file.txt", "var/will-be-ignored/some-directory/another-file.txt")) {
+            deploy(mergeDir, "merge_1/merge", mergeName);
+        }
+
+        Set<Path> filteredPaths = new HashSet<>();
+        PathFilter pathFilter = PathFilter.pathFilter(path -> {
+            filteredPaths.add(path);
+            return true;
+        }, directory -> !directory.endsWith("will-be-ignored"));
+
+        Path testDir = root.resolve("test");
+        jConfigBuilder().setPathFilter(pathFilter).build(testDir).merge(mergeDir);
+
+        assertThat(filteredPaths).noneMatch(path -> path.startsWith("var/will-be-ignored"));
+        assertThat(testDir.resolve("conf/jvm.conf")).isRegularFile();
+        assertThat(testDir.resolve("var")).isDirectory();
+        assertThat(testDir.resolve("var/will-be-ignored")).doesNotExist();
+
+        // the default filter keeps its Predicate signature, and still prunes the META-INF directories
+        assertThat(JConfigBuilder.defaultPathFilter()).isSameAs(JConfigBuilder.defaultPrunedPathFilter());
+        assertThat(JConfigBuilder.defaultPrunedPathFilter().acceptDirectory(Paths.get("META-INF/maven"))).isFalse();
+    }
+
+    @Test
+    public void testProgressAndCancellation() throws Exception {
+        Path root = Paths.get("jconfig/progress_1");
+        Util.ensureCleanDirectory(root);
+
+        int fileCount = 10;
+        Path mergeDir = root.resolve("merge");
+        Path testDir = root.resolve("test");
+        Files.createDirectories(mergeDir);
+        Files.createDirectories(testDir);
+        for (int i = 0; i < fileCount; i++) {
+            Files.write(mergeDir.resolve("file" + i + ".txt"), ("new content " + i).getBytes(UTF_8));
+            Files.write(testDir.resolve("file" + i + ".txt"), ("old content " + i).getBytes(UTF_8));
+        }
+
+        // the progress is given for each file then once completed, with the same instance
+        List<Integer> filesDone = Collections.synchronizedList(new ArrayList<>());
+        Set<OperationProgress> progresses = Collections.newSetFromMap(new IdentityHashMap<>());
+        JConfigListener progressListener = new JConfigListener() {
+            @Override
+            public void operationCompleted(OperationStats stats) {
+            }
+
+            @Override
+            public void operationProgress(OperationProgress progress) {
+                synchronized (progresses) {
+                    progresses.add(progress);
+                }
+                filesDone.add(progress.getFilesDone());
+            }
+        };
+        Path progressDir = root.resolve("progress");
+        jConfigBuilder().addListener(progressListener).build(progressDir).merge(mergeDir);
+
+        assertThat(progresses).hasSize(1);
+        OperationProgress progress = progresses.iterator().next();
+        assertThat(progress.getOperation()).isEqualTo("merge");
+        assertThat(progress.isCompleted()).isTrue();
+        assertThat(progress.getFilesDone()).isEqualTo(fileCount);
+        assertThat(progress.getFileCount()).isEqualTo(fileCount);
+        assertThat(progress.getBytesProcessed()).isGreaterThan(0);
+        assertThat(filesDone).hasSize(fileCount + 1).isSorted();
+
+        // a handler that never ends is cancelled by the timeout, the files already merged are rolled back
+        FileContentHandler endlessHandler = new RawFileContentHandler() {
+            @Override
+            public void merge(InputStream contentToMerge, InputStream sourceToUpdate, OutputStream result) throws IOException {
+                while (true) {
+                    Cancellation.checkCancelled();
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        };
+        JConfig jConfig = jConfigBuilder().
+                setFileContentHandlerResolver(path -> path.endsWith("file5.txt") ? endlessHandler : new RawFileContentHandler()).
+                setTimeout(Duration.ofMillis(200)).
+                build(testDir);
+        assertThatThrownBy(() -> jConfig.merge(mergeDir)).isInstanceOf(CancellationException.class).hasMessageContaining("timed out");
+        for (int i = 0; i < fileCount; i++) {
+            assertThat(testDir.resolve("file" + i + ".txt")).hasContent("old content " + i);
+        }
+
+        // an interrupted thread cancels the operation before any file is updated
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> jConfigBuilder().build(testDir).merge(mergeDir)).isInstanceOf(CancellationException.class);
+        } finally {
+            assertThat(Thread.interrupted()).isTrue();
+        }
+        assertThat(testDir.resolve("file0.txt")).hasContent("old content 0");
+
+        jConfigBuilder().setTimeout(Duration.ofMinutes(1)).build(testDir).merge(mergeDir);
+        assertThat(testDir.resolve("file5.txt")).hasContent("new content 5");
+
+        // a failing listener doesn't change the outcome of the operations, its exceptions are attached to the exception of a failed operation
+        JConfigListener failingListener = new JConfigListener() {
+            @Override
+            public void operationCompleted(OperationStats stats) {
+                throw new IllegalStateException("completed failure");
+            }
+
+            @Override
+            public void operationProgress(OperationProgress progress) {
+                throw new IllegalStateException("progress failure");
+            }
+        };
+        Path listenerDir = root.resolve("listener");
+        jConfigBuilder().addListener(failingListener).build(listenerDir).merge(mergeDir);
+        assertThat(listenerDir.resolve("file5.txt")).hasContent("new content 5");
+
+        Throwable failure = catchThrowable(() -> jConfigBuilder().addListener(failingListener).build(listenerDir).merge(root.resolve("missing")));
+        assertThat(failure).isNotNull();
+        assertThat(Arrays.stream(failure.getSuppressed()).map(Throwable::getMessage)).contains("progress failure", "completed failure");
+    }
+
+    @Test
+    public void testCopyStreams() throws Exception {
+        Path testDir = Paths.get("jconfig/copy_streams");
+        Util.ensureCleanDirectory(testDir);
+        Path source = testDir.resolve("source.bin");
+        byte[] content = new byte[300_000];
+        new Random(0).nextBytes(content);
+        Files.write(source, content);
+
+        // transferred by the file system, from the current position of the source
+        Path target = testDir.resolve("target.bin");
+        try (FileInputStream in = new FileInputStream(source.toFile()); FileOutputStream out = new FileOutputStream(target.toFile())) {
+            assertThat(in.skip(1000)).isEqualTo(1000);
+            Streams.copy(in, out);
+            assertThat(in.read()).isEqualTo(-1);
+        }
+        assertThat(Files.readAllBytes(target)).isEqualTo(Arrays.copyOfRange(content, 1000, content.length));
+
+        // a transfer that makes no progress stops instead of spinning, the copy then goes through a buffer
+        WritableByteChannel noTransfer = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                return 0;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (FileChannel in = FileChannel.open(source)) {
+            assertThat(Streams.transfer(in, noTransfer)).isFalse();
+            assertThat(in.position()).isEqualTo(0);
+        }
+
+        // streams that are not backed by files, and cancellation
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Streams.copy(new ByteArrayInputStream(content), bos);
+        assertThat(bos.toByteArray()).isEqualTo(content);
+        Cancellation expired = new Cancellation(Duration.ofNanos(1));
+        Thread.sleep(1);
+        for (OutputStream out : asList(new ByteArrayOutputStream(), new FileOutputStream(testDir.resolve("cancelled.bin").toFile()))) {
+            try (InputStream in = new FileInputStream(source.toFile())) {
+                assertThatThrownBy(() -> expired.call(() -> {
+                    try {
+                        Streams.copy(in, out);
+                        return null;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })).isInstanceOf(CancellationException.class);
+            } finally {
+                out.close();
             }
+        }
+    }
+
+    @Test
+    public void testInterruptedLockWait() throws Exception {
+        Path root = Paths.get("jconfig/interrupted_lock_wait");
+        Util.ensureCleanDirectory(root);
+        Path targetDir = root.resolve("target");
+
+        // the default lock file is a sibling of the target directory
+        Path lockFile = FileLocks.defaultLockFile(targetDir);
+        assertThat(lockFile).isEqualTo(root.toAbsolutePath().resolve(".target.jconfig.lock"));
+        FileLocks fileLocks = FileLocks.forLockFile(lockFile);
+        List<Path> files = Collections.singletonList(Paths.get("file.txt"));
 
-            Predicate<Path> pathFilter = p -> !".empty".equals(p.getFileName().toString()) && !p.toString().contains("will-be-ignored");
-            JConfig jConfig = jConfigBuilder().setPathFilter(pathFilter).build(testDir);
-            jConfig.merge(mergeSource);
+        try (FileLocks.Lock held = fileLocks.lock(files)) {
+            // the interrupt of a waiting thread cancels its wait without releasing the locks held by the other threads
+            CompletableFuture<Throwable> waiter = new CompletableFuture<>();
+            Thread thread = new Thread(() -> {
+                try (FileLocks.Lock ignored = fileLocks.lock(files)) {
+                    waiter.complete(null);
+                } catch (Throwable e) {
+                    waiter.complete(e);
+                }
+            });
+            thread.start();
+            Thread.sleep(100);
+            thread.interrupt();
+            assertThat(waiter.get(10, TimeUnit.SECONDS)).isInstanceOf(CancellationException.class);
+            held.checkValid();
+
+            // a timeout cancels the wait too
+            CompletableFuture<Throwable> timedOut = CompletableFuture.supplyAsync(() -> new Cancellation(Duration.ofMillis(100)).call(() -> {
+                try (FileLocks.Lock ignored = fileLocks.lock(files)) {
+                    return null;
+                } catch (Throwable e) {
+                    return e;
+                }
+            }));
+            assertThat(timedOut.get(10, TimeUnit.SECONDS)).isInstanceOf(CancellationException.class).hasMessageContaining("timed out");
+            held.checkValid();
+        }
 
-            assertSameDirectoryContent(testDir, expectedDir);
+        try (FileLocks.Lock lock = fileLocks.lock(files)) {
+            lock.checkValid();
         }
     }
 
@@ -240,6 +1599,33 @@ public class JConfigImplTest {
         }
     }
 
+    private void assertSameDirectoryEntries(Path testDir, Path expectedDir) throws IOException {
+        try (Stream<Path> resultPaths = Files.walk(testDir); Stream<Path> expectedPaths = Files.walk(expectedDir)) {
+            assertThat(resultPaths.map(testDir::relativize).collect(Collectors.toSet())).
+                    isEqualTo(expectedPaths.map(expectedDir::relativize).collect(Collectors.toSet()));
+        }
+
+        try (Stream<Path> expectedPaths = Files.walk(expectedDir)) {
+            expectedPaths.filter(Files::isRegularFile).forEach(expectedFile -> {
+                Path resultFile = testDir.resolve(expectedDir.relativize(expectedFile));
+                String name = expectedFile.getFileName().toString();
+                if (name.endsWith(".conf") || name.endsWith(".properties")) {
+                    assertThat(readEntries(resultFile)).as(resultFile.toString()).isEqualTo(readEntries(expectedFile));
+                } else {
+                    assertThat(resultFile).hasBinaryContent(readAllBytes(expectedFile));
+                }
+            });
+        }
+    }
+
+    private static Set<String> readEntries(Path path) {
+        try (Stream<String> lines = Files.lines(path, ISO_8859_1)) {
+            return lines.filter(line -> !line.isEmpty() && !line.startsWith("#")).collect(Collectors.toSet());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private Path deploy(Path root, String resourcePrefix, String name) throws IOException {
         Path output = root.resolve(name);
         Files.createDirectories(output.getParent());
@@ -249,6 +1635,79 @@ public class JConfigImplTest {
         return output;
     }
 
+    private static void writeZip(Path dir, List<String> names, Path zipFile) throws IOException {
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            for (String name : names) {
+                zipOutputStream.putNextEntry(new ZipEntry(name));
+                zipOutputStream.write(readAllBytes(dir.resolve(name)));
+                zipOutputStream.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * @return the prefix followed by the 4 bytes that give the CRC-32 {@code crc} to the result
+     */
+    private static byte[] withCrc(byte[] prefix, long crc) {
+        int[] table = new int[256];
+        for (int i = 0; i < table.length; i++) {
+            int value = i;
+            for (int bit = 0; bit < 8; bit++) {
+                value = (value & 1) != 0 ? (value >>> 1) ^ 0xEDB88320 : value >>> 1;
+            }
+            table[i] = value;
+        }
+
+        // the CRC register is computed backwards from the expected one, the table entries have distinct top bytes
+        int register = ~(int) crc;
+        for (int i = 0; i < 4; i++) {
+            int index = 0;
+            while (table[index] >>> 24 != register >>> 24) {
+                index++;
+            }
+            register = ((register ^ table[index]) << 8) | index;
+        }
+        CRC32 prefixCrc = new CRC32();
+        prefixCrc.update(prefix);
+        int suffix = register ^ ~(int) prefixCrc.getValue();
+
+        byte[] result = Arrays.copyOf(prefix, prefix.length + 4);
+        for (int i = 0; i < 4; i++) {
+            result[prefix.length + i] = (byte) (suffix >>> (8 * i));
+        }
+        return result;
+    }
+
+    private static void writeTarGz(Path dir, List<String> names, Path tarFile) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tarFile))) {
+            for (String name : names) {
+                byte[] content = readAllBytes(dir.resolve(name));
+                out.write(tarHeader(name, content.length));
+                out.write(content);
+                out.write(new byte[(512 - content.length % 512) % 512]);
+            }
+            out.write(new byte[1024]);
+        }
+    }
+
+    private static byte[] tarHeader(String name, long size) {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(ISO_8859_1);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        System.arraycopy(String.format("%07o\0", 0644).getBytes(ISO_8859_1), 0, header, 100, 8);
+        System.arraycopy(String.format("%011o\0", size).getBytes(ISO_8859_1), 0, header, 124, 12);
+        header[156] = '0';
+        System.arraycopy("ustar\00000".getBytes(ISO_8859_1), 0, header, 257, 8);
+        // the checksum is computed with its own field filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        System.arraycopy(String.format("%06o\0 ", checksum).getBytes(ISO_8859_1), 0, header, 148, 8);
+        return header;
+    }
+
     private void copy(InputStream in, OutputStream out) throws IOException {
         byte[] buffer = new byte[4096];
         int read;
@@ -0,0 +1,104 @@
+package io.github.xfournet.jconfig.kv;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import org.testng.annotations.Test;
+import io.github.xfournet.jconfig.FileContentHandler;
+
+import static io.github.xfournet.jconfig.JConfigBuilder.jConfigBuilder;
+import static io.github.xfournet.jconfig.Util.ensureCleanDirectory;
+import static java.nio.charset.StandardCharsets.*;
+import static java.util.Arrays.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KVBuffersTest {
+
+    @Test
+    public void testSetEntriesLineSplitting() throws Exception {
+        Path root = Paths.get("setentries_line_splitting");
+        ensureCleanDirectory(root);
+        Path testDir = root.resolve("test");
+        Files.createDirectories(testDir);
+
+        // lines longer than the read and write buffers, every kind of line terminator, untrimmed lines and no terminator at the end of the file
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            longValue.append((char) ('a' + i % 26));
+        }
+        String content = "# header\r\n  key1 = value1  \r\nlong=" + longValue + "\rkey3=café\n\n# comment of key4\nkey4=v4";
+        Path propertiesFile = testDir.resolve("conf.properties");
+        Files.write(propertiesFile, content.getBytes(ISO_8859_1));
+
+        jConfigBuilder().build(testDir).setEntries(Paths.get("conf.properties"), asList("key1=changed", "key5=new"));
+
+        String separator = System.lineSeparator();
+        assertThat(new String(Files.readAllBytes(propertiesFile), ISO_8859_1)).isEqualTo(
+                "# header" + separator + "key1=changed" + separator + "long=" + longValue + separator + "key3=café" + separator + separator +
+                        "# comment of key4" + separator + "key4=v4" + separator + "key5=new" + separator);
+
+        // multi-bytes characters split by the read and write buffers
+        StringBuilder unicodeValue = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            unicodeValue.append(i % 2 == 0 ? "€" : "😀");
+        }
+        Path unicodeFile = testDir.resolve("unicode.conf");
+        Files.write(unicodeFile, ("unicode=" + unicodeValue + "\n").getBytes(UTF_8));
+
+        FileContentHandler utf8Handler = new KVConfContentHandler<String>(UTF_8, line -> {
+            int pos = line.indexOf('=');
+            return new KVEntry<>(line.substring(0, pos), line.substring(pos + 1));
+        }, (entry, output) -> output.append(entry.getKey()).append('=').append(entry.getValue()), UnaryOperator.identity()) {
+        };
+        jConfigBuilder().setFileContentHandlerResolver(path -> utf8Handler).build(testDir).
+                setEntries(Paths.get("unicode.conf"), Collections.singletonList("other=€"));
+
+        assertThat(new String(Files.readAllBytes(unicodeFile), UTF_8)).isEqualTo(
+                "unicode=" + unicodeValue + separator + "other=€" + separator);
+    }
+
+    @Test
+    public void testSharedPool() throws Exception {
+        // a pool of its own, the global one is used by the other tests
+        BlockingDeque<KVBuffers> pool = new LinkedBlockingDeque<>(2);
+
+        // nested acquisitions get their own buffers, the last released ones are reused first
+        KVBuffers outer = KVBuffers.acquire(pool);
+        KVBuffers inner = KVBuffers.acquire(pool);
+        assertThat(inner).isNotSameAs(outer);
+        inner.release(pool);
+        outer.release(pool);
+        assertThat(pool).containsExactly(outer, inner);
+
+        // the buffers released by a thread are reused by the others, eg by short-lived virtual threads
+        for (int i = 0; i < 3; i++) {
+            AtomicReference<KVBuffers> used = new AtomicReference<>();
+            List<String> lines = new ArrayList<>();
+            Thread thread = new Thread(() -> {
+                KVBuffers buffers = KVBuffers.acquire(pool);
+                used.set(buffers);
+                try {
+                    buffers.readLines(new ByteArrayInputStream("a\r\nb".getBytes(UTF_8)), UTF_8, false, lines::add);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    buffers.release(pool);
+                }
+            });
+            thread.start();
+            thread.join();
+            assertThat(used.get()).isSameAs(outer);
+            assertThat(lines).containsExactly("a", "b");
+        }
+
+        // the buffers released to a full pool are dropped
+        KVBuffers extra = KVBuffers.acquire(new LinkedBlockingDeque<>());
+        extra.release(pool);
+        assertThat(pool).containsExactly(outer, inner);
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.xfournet.jconfig.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.*;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.annotations.Test;
+import io.github.xfournet.jconfig.JConfig;
+import io.github.xfournet.jconfig.Util;
+
+import static io.github.xfournet.jconfig.JConfigBuilder.jConfigBuilder;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.*;
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Compiled and run on Java 11 and later only, with the {@code META-INF/versions/11} classes.
+ */
+public class JConfigEventsTest {
+
+    @Test
+    public void testEvents() throws Exception {
+        Path root = Paths.get("jconfig/events");
+        Util.ensureCleanDirectory(root);
+        Path targetDir = root.resolve("target");
+        Files.createDirectories(targetDir.resolve("conf"));
+        Files.write(targetDir.resolve("conf/app.properties"), asList("key=value"), UTF_8);
+        Path referenceDir = root.resolve("reference");
+        Files.createDirectories(referenceDir.resolve("conf"));
+        Files.write(referenceDir.resolve("conf/app.properties"), asList("key=old"), UTF_8);
+        JConfig jConfig = jConfigBuilder().build(targetDir);
+
+        // nothing is recorded while the events are disabled
+        assertThat(JConfigEvents.isFileEventEnabled()).isFalse();
+        assertThat(JConfigEvents.beginOperation()).isNull();
+
+        Path recordingFile = root.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : asList("Operation", "File", "Walk", "Transaction")) {
+                recording.enable("io.github.xfournet.jconfig." + event).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            jConfig.setEntries(Paths.get("conf/app.properties"), asList("other=value"));
+            jConfig.diff(referenceDir, root.resolve("diff.ini"));
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        assertThat(events.stream().map(event -> event.getEventType().getName()).collect(Collectors.toSet())).
+                contains("io.github.xfournet.jconfig.Operation", "io.github.xfournet.jconfig.File", "io.github.xfournet.jconfig.Walk",
+                         "io.github.xfournet.jconfig.Transaction");
+        RecordedEvent fileEvent = events.stream().filter(event -> event.getEventType().getName().equals("io.github.xfournet.jconfig.File")).
+                findFirst().orElseThrow(AssertionError::new);
+        assertThat(fileEvent.getString("path")).endsWith("app.properties");
+        assertThat(fileEvent.getString("operation")).isNotEmpty();
+    }
+}